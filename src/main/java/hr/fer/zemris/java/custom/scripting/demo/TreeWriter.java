@@ -1,12 +1,15 @@
 package hr.fer.zemris.java.custom.scripting.demo;
 
+import hr.fer.zemris.java.custom.scripting.nodes.CacheNode;
 import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
 import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
 import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
 import hr.fer.zemris.java.custom.scripting.nodes.INodeVisitor;
+import hr.fer.zemris.java.custom.scripting.nodes.IncludeNode;
 import hr.fer.zemris.java.custom.scripting.nodes.Node;
 import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
 import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.custom.scripting.tokens.Token;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -63,6 +66,22 @@ public class TreeWriter {
             }
         }
 
+        @Override
+        public void visitCacheNode(CacheNode node) {
+            StringBuilder stringBuilder = new StringBuilder();
+            stringBuilder.append("{$CACHE ");
+            stringBuilder.append(node.getName().asText() + " ");
+            stringBuilder.append(node.getTimeToLive().asText() + " ");
+            for (Token t : node.getVaryTokens()) {
+                stringBuilder.append(t.asText() + " ");
+            }
+            stringBuilder.append("$}");
+            System.out.print(stringBuilder.toString());
+
+            visitChildren(node);
+            System.out.print("{$END$}");
+        }
+
         @Override
         public void visitDocumentNode(DocumentNode node) {
             visitChildren(node);
@@ -85,7 +104,7 @@ public class TreeWriter {
         @Override
         public void visitForLoopNode(ForLoopNode node) {
             StringBuilder stringBuilder = new StringBuilder();
-            stringBuilder.append("{$FOR ");
+            stringBuilder.append(node.isParallel() ? "{$PFOR " : "{$FOR ");
             appendForLoopVariables(stringBuilder, node);
             stringBuilder.append("$}");
             System.out.print(stringBuilder.toString());
@@ -94,6 +113,11 @@ public class TreeWriter {
             System.out.print("{$END$}");
         }
 
+        @Override
+        public void visitIncludeNode(IncludeNode node) {
+            System.out.print("{$INCLUDE " + node.getPath().asText() + " $}");
+        }
+
         @Override
         public void visitTextNode(TextNode node) {
             String text = node.getText();
@@ -0,0 +1,121 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Parameters and counters shared by all scripts and all sessions, for state
+ * that belongs to the whole application, such as hit counters. A single
+ * instance is shared by all scripts.
+ * 
+ * <p>
+ * Counters are {@code LongAdder}s, so adding to a counter is a lock-free
+ * increment that threads rarely contend on, and the number is never turned
+ * into text and parsed again, as it is when a count is kept in a parameter.
+ * 
+ * @author Erik Banek
+ */
+public class ApplicationScope {
+    /** Scope shared by all scripts. */
+    private static final ApplicationScope instance = new ApplicationScope();
+
+    /**
+     * Gets the scope shared by all scripts.
+     * 
+     * @return shared scope.
+     */
+    public static ApplicationScope getInstance() {
+        return instance;
+    }
+
+    /** Parameters mapped to their names. */
+    private Map<String, String> parameters = new ConcurrentHashMap<>();
+    /** Counters mapped to their names. */
+    private Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    /**
+     * Adds the number to the counter, creating the counter if it does not
+     * exist.
+     * 
+     * @param name
+     *            of counter.
+     * @param number
+     *            which is added.
+     */
+    public void addToCounter(String name, long number) {
+        LongAdder counter = counters.get(name);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(name, n -> new LongAdder());
+        }
+        counter.add(number);
+    }
+
+    /**
+     * Removes all parameters and counters.
+     */
+    public void clear() {
+        parameters.clear();
+        counters.clear();
+    }
+
+    /**
+     * Gets the value of the counter. The value is exact when nothing is
+     * being added to the counter at the same time.
+     * 
+     * @param name
+     *            of counter.
+     * @return value of counter, 0 if it does not exist.
+     */
+    public long getCounter(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * Gets the names of all counters.
+     * 
+     * @return names of counters.
+     */
+    public Set<String> getCounterNames() {
+        return counters.keySet();
+    }
+
+    /**
+     * Gets the parameter.
+     * 
+     * @param name
+     *            of parameter.
+     * @return value of parameter, null if it does not exist.
+     */
+    public String getParameter(String name) {
+        return parameters.get(name);
+    }
+
+    /**
+     * Removes the parameter.
+     * 
+     * @param name
+     *            of parameter.
+     */
+    public void removeParameter(String name) {
+        parameters.remove(name);
+    }
+
+    /**
+     * Sets the parameter.
+     * 
+     * @param name
+     *            of parameter.
+     * @param value
+     *            of parameter, null removes the parameter.
+     */
+    public void setParameter(String name, String value) {
+        if (value == null) {
+            parameters.remove(name);
+        } else {
+            parameters.put(name, value);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import hr.fer.zemris.java.custom.scripting.exec.ExecutionLimitException.Reason;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What is left of the {@code ExecutionLimits} of a single execution of a
+ * script. The engine checks the budget cooperatively, in every loop
+ * iteration and on every output, and the check throws an
+ * {@code ExecutionLimitException} when a limit is exceeded or the execution
+ * was cancelled. A budget can be shared by the engines of parallel loops and
+ * included scripts of the same execution.
+ * 
+ * <p>
+ * A budget is running from its creation until it is closed, and all running
+ * budgets can be cancelled at once. Numbers of stopped executions are counted
+ * for every reason.
+ * 
+ * @author Erik Banek
+ */
+public class ExecutionBudget implements AutoCloseable {
+    /** Budgets of executions which are running. */
+    private static final Set<ExecutionBudget> running =
+            ConcurrentHashMap.newKeySet();
+    /** Numbers of stopped executions, indexed by reason. */
+    private static final LongAdder[] stopped =
+            new LongAdder[Reason.values().length];
+
+    static {
+        for (int i = 0; i < stopped.length; i++) {
+            stopped[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Cancels all running executions.
+     * 
+     * @return number of cancelled executions.
+     */
+    public static int cancelAll() {
+        int count = 0;
+        for (ExecutionBudget budget : running) {
+            budget.cancel();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of running executions.
+     * 
+     * @return number of running executions.
+     */
+    public static int getRunning() {
+        return running.size();
+    }
+
+    /**
+     * Gets the number of executions stopped for the reason.
+     * 
+     * @param reason
+     *            for which executions were stopped.
+     * @return number of stopped executions.
+     */
+    public static long getStopped(Reason reason) {
+        return stopped[reason.ordinal()].sum();
+    }
+
+    /** Limits of the execution. */
+    private final ExecutionLimits limits;
+    /** Value of {@code System.nanoTime()} after which time is up. */
+    private final long deadline;
+    /** Number of executed loop iterations. */
+    private AtomicLong iterations = new AtomicLong();
+    /** Number of output bytes. */
+    private AtomicLong output = new AtomicLong();
+    /** Exception by which the execution was stopped, or null. */
+    private AtomicReference<ExecutionLimitException> stop =
+            new AtomicReference<>();
+
+    /**
+     * Creates a running budget.
+     * 
+     * @param limits
+     *            of the execution.
+     */
+    public ExecutionBudget(ExecutionLimits limits) {
+        this.limits = limits;
+        this.deadline = System.nanoTime() + limits.getMaxTime() * 1_000_000;
+        running.add(this);
+    }
+
+    /**
+     * Cancels the execution, which stops at its next check.
+     */
+    public void cancel() {
+        stop(Reason.CANCELLED, "Script execution was cancelled!");
+    }
+
+    /**
+     * Counts a loop iteration, and checks all limits.
+     * 
+     * @throws ExecutionLimitException
+     *             if a limit is exceeded or the execution was cancelled.
+     */
+    public void checkIteration() {
+        checkIterations(1);
+    }
+
+    /**
+     * Counts a number of loop iterations before they are executed, and checks
+     * all limits.
+     * 
+     * @param count
+     *            number of iterations.
+     * @throws ExecutionLimitException
+     *             if a limit is exceeded or the execution was cancelled.
+     */
+    public void checkIterations(long count) {
+        long max = limits.getMaxIterations();
+        if (max > 0 && (count > max || iterations.addAndGet(count) > max)) {
+            stop(Reason.ITERATIONS, "Script executed more than " + max
+                    + " loop iterations!");
+        }
+        checkTime();
+    }
+
+    /**
+     * Counts output bytes, and checks all limits.
+     * 
+     * @param bytes
+     *            number of output bytes.
+     * @throws ExecutionLimitException
+     *             if a limit is exceeded or the execution was cancelled.
+     */
+    public void checkOutput(long bytes) {
+        long max = limits.getMaxOutput();
+        if (max > 0 && output.addAndGet(bytes) > max) {
+            stop(Reason.OUTPUT, "Script output more than " + max
+                    + " bytes!");
+        }
+        checkTime();
+    }
+
+    /**
+     * Checks if time is up or the execution was cancelled.
+     * 
+     * @throws ExecutionLimitException
+     *             if time is up or the execution was cancelled.
+     */
+    public void checkTime() {
+        if (limits.getMaxTime() > 0 && System.nanoTime() - deadline > 0) {
+            stop(Reason.TIME, "Script ran for more than "
+                    + limits.getMaxTime() + " milliseconds!");
+        }
+        ExecutionLimitException e = stop.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    /**
+     * Stops running, so that the budget cannot be cancelled anymore.
+     */
+    @Override
+    public void close() {
+        running.remove(this);
+    }
+
+    /**
+     * Gets the limits of the execution.
+     * 
+     * @return limits.
+     */
+    public ExecutionLimits getLimits() {
+        return limits;
+    }
+
+    /**
+     * Stops the execution for the reason, unless it was already stopped, in
+     * which case it stays stopped for its first reason. Only the first stop
+     * is counted.
+     * 
+     * @param reason
+     *            for which the execution is stopped.
+     * @param message
+     *            of the exception by which the execution is stopped.
+     */
+    private void stop(Reason reason, String message) {
+        if (stop.compareAndSet(null,
+                new ExecutionLimitException(reason, message))) {
+            stopped[reason.ordinal()].increment();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reusable working memory of a running {@code SmartScriptEngine}: the operand
+ * stack and the output builder of echo tags, and the frame of variables. The
+ * engine borrows a context from the pool of its thread when it starts running
+ * and returns it when it is done, so that a thread which executes scripts one
+ * after another keeps reusing the same memory, and steady execution allocates
+ * almost nothing.
+ * 
+ * <p>
+ * Every thread has its own pool, so borrowing needs no locking. The pool is a
+ * stack, because an engine can run another engine on the same thread, for
+ * example for an included script. A pool keeps at most {@code MAX_POOLED}
+ * contexts, and a context whose output builder grew too large drops it when
+ * it is returned, so that a single large script does not keep its memory.
+ * 
+ * @author Erik Banek
+ */
+class ExecutionContext {
+    /** Maximal number of contexts kept by the pool of a thread. */
+    static final int MAX_POOLED = 8;
+    /** Maximal capacity of an output builder which is kept. */
+    private static final int MAX_OUTPUT_CAPACITY = 64 * 1024;
+    /** Pools of contexts of threads. */
+    private static final ThreadLocal<Deque<ExecutionContext>> pools =
+            ThreadLocal.withInitial(ArrayDeque::new);
+    /** Number of contexts created because a pool was empty. */
+    private static final LongAdder created = new LongAdder();
+
+    /**
+     * Borrows a context from the pool of the current thread, or creates one if
+     * the pool is empty.
+     * 
+     * @return borrowed context, which must be returned to the pool by
+     *         {@code release} on the same thread.
+     */
+    static ExecutionContext acquire() {
+        ExecutionContext context = pools.get().pollFirst();
+        if (context == null) {
+            created.increment();
+            context = new ExecutionContext();
+        }
+        return context;
+    }
+
+    /**
+     * Gets the number of contexts created because a pool was empty.
+     * 
+     * @return number of created contexts.
+     */
+    static long getCreated() {
+        return created.sum();
+    }
+
+    /** Operand stack of echo tags. */
+    private ValueStack stack = new ValueStack();
+    /** Builder of echo tag output. */
+    private StringBuilder output = new StringBuilder();
+    /** Frame of variables, indexed by slots. */
+    private ValueWrapper[] variables = new ValueWrapper[0];
+
+    /**
+     * Gets the builder of echo tag output.
+     * 
+     * @return output builder.
+     */
+    StringBuilder getOutput() {
+        return output;
+    }
+
+    /**
+     * Gets the operand stack of echo tags.
+     * 
+     * @return operand stack.
+     */
+    ValueStack getStack() {
+        return stack;
+    }
+
+    /**
+     * Gets the frame of variables with at least the given number of slots,
+     * all of which are null.
+     * 
+     * @param slots
+     *            number of variable slots.
+     * @return frame of variables.
+     */
+    ValueWrapper[] getVariables(int slots) {
+        if (variables.length < slots) {
+            variables = new ValueWrapper[slots];
+        }
+        return variables;
+    }
+
+    /**
+     * Clears the context and returns it to the pool of the current thread.
+     * The context must not be used after it is returned.
+     */
+    void release() {
+        stack.clear();
+        if (output.capacity() > MAX_OUTPUT_CAPACITY) {
+            output = new StringBuilder();
+        } else {
+            output.setLength(0);
+        }
+        Arrays.fill(variables, null);
+        Deque<ExecutionContext> pool = pools.get();
+        if (pool.size() < MAX_POOLED) {
+            pool.addFirst(this);
+        }
+    }
+}
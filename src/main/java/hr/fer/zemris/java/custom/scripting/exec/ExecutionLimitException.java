@@ -0,0 +1,54 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+/**
+ * Exception thrown when the execution of a script is stopped, because it
+ * exceeded one of its {@code ExecutionLimits} or was cancelled. Unlike errors
+ * of the script, it is not written to the output, but thrown out of the
+ * engine, so that the caller can answer the request with an error.
+ * 
+ * @author Erik Banek
+ */
+public class ExecutionLimitException extends RuntimeException {
+    /**
+     * Reason for which the execution was stopped.
+     * 
+     * @author Erik Banek
+     */
+    public enum Reason {
+        /** Script ran for longer than it may. */
+        TIME,
+        /** Script executed more loop iterations than it may. */
+        ITERATIONS,
+        /** Script output more bytes than it may. */
+        OUTPUT,
+        /** Execution was cancelled. */
+        CANCELLED
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    /** Reason for which the execution was stopped. */
+    private final Reason reason;
+
+    /**
+     * Constructor.
+     * 
+     * @param reason
+     *            for which the execution was stopped.
+     * @param message
+     *            of the exception.
+     */
+    public ExecutionLimitException(Reason reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    /**
+     * Gets the reason for which the execution was stopped.
+     * 
+     * @return reason.
+     */
+    public Reason getReason() {
+        return reason;
+    }
+}
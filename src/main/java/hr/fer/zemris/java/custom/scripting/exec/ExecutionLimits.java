@@ -0,0 +1,129 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+/**
+ * Limits of a single execution of a script: the time for which it may run,
+ * the number of loop iterations it may execute, and the number of bytes it
+ * may output. A limit of 0 means there is no limit. Output of echo tags is
+ * counted in characters, and output of text is counted in bytes.
+ * 
+ * <p>
+ * Limits are given as text of whitespace separated settings, such as
+ * {@code time=5000 iterations=1000000 output=1048576}, where time is given in
+ * milliseconds. Settings which are not given are taken from other limits.
+ * 
+ * @author Erik Banek
+ */
+public class ExecutionLimits {
+    /** Limits which do not limit anything. */
+    public static final ExecutionLimits NONE = new ExecutionLimits(0, 0, 0);
+
+    /**
+     * Parses the limits from text.
+     * 
+     * @param text
+     *            of settings.
+     * @param defaults
+     *            from which settings which are not given are taken.
+     * @return parsed limits.
+     * @throws IllegalArgumentException
+     *             if a setting is not known or its value is not valid.
+     */
+    public static ExecutionLimits parse(String text, ExecutionLimits defaults) {
+        long maxTime = defaults.maxTime;
+        long maxIterations = defaults.maxIterations;
+        long maxOutput = defaults.maxOutput;
+        for (String setting : text.trim().split("\\s+")) {
+            if (setting.isEmpty()) {
+                continue;
+            }
+            String[] split = setting.split("=", 2);
+            if (split.length != 2) {
+                throw new IllegalArgumentException("Limit " + setting
+                        + " has no value!");
+            }
+            long value;
+            try {
+                value = Long.parseLong(split[1]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Limit " + setting
+                        + " is not a number!");
+            }
+            switch (split[0]) {
+            case "time":
+                maxTime = value;
+                break;
+            case "iterations":
+                maxIterations = value;
+                break;
+            case "output":
+                maxOutput = value;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown limit "
+                        + split[0] + "!");
+            }
+        }
+        return new ExecutionLimits(maxTime, maxIterations, maxOutput);
+    }
+
+    /** Number of milliseconds for which a script may run. */
+    private final long maxTime;
+    /** Number of loop iterations a script may execute. */
+    private final long maxIterations;
+    /** Number of bytes a script may output. */
+    private final long maxOutput;
+
+    /**
+     * Constructor.
+     * 
+     * @param maxTime
+     *            number of milliseconds for which a script may run, or 0.
+     * @param maxIterations
+     *            number of loop iterations a script may execute, or 0.
+     * @param maxOutput
+     *            number of bytes a script may output, or 0.
+     * @throws IllegalArgumentException
+     *             if a limit is negative.
+     */
+    public ExecutionLimits(long maxTime, long maxIterations, long maxOutput) {
+        if (maxTime < 0 || maxIterations < 0 || maxOutput < 0) {
+            throw new IllegalArgumentException("Limits cannot be negative!");
+        }
+        this.maxTime = maxTime;
+        this.maxIterations = maxIterations;
+        this.maxOutput = maxOutput;
+    }
+
+    /**
+     * Gets the number of loop iterations a script may execute.
+     * 
+     * @return number of iterations, or 0 if they are not limited.
+     */
+    public long getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * Gets the number of bytes a script may output.
+     * 
+     * @return number of bytes, or 0 if output is not limited.
+     */
+    public long getMaxOutput() {
+        return maxOutput;
+    }
+
+    /**
+     * Gets the number of milliseconds for which a script may run.
+     * 
+     * @return number of milliseconds, or 0 if time is not limited.
+     */
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    @Override
+    public String toString() {
+        return "time=" + maxTime + " iterations=" + maxIterations + " output="
+                + maxOutput;
+    }
+}
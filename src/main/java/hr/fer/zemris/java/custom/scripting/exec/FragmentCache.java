@@ -0,0 +1,263 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of rendered fragments of scripts, the output of CACHE tags. A single
+ * instance is shared by all scripts. The cache holds at most a configured
+ * number of bytes, and when it is full the least recently used fragments are
+ * evicted. Counts of hits, misses and evictions are kept for monitoring.
+ * 
+ * <p>
+ * Every stored fragment has a name, which is the name given in the CACHE tag.
+ * All stored variants of a fragment can be invalidated through its name.
+ * 
+ * @author Erik Banek
+ */
+public class FragmentCache {
+    /**
+     * Fragment stored in the cache.
+     * 
+     * @author Erik Banek
+     */
+    private static class Fragment {
+        /** Name of the fragment. */
+        private String name;
+        /** Rendered bytes of the fragment. */
+        private byte[] bytes;
+        /** Time in milliseconds after which the fragment is stale. */
+        private long expiresAt;
+
+        /**
+         * Constructor.
+         * 
+         * @param name
+         *            of the fragment.
+         * @param bytes
+         *            rendered bytes of the fragment.
+         * @param expiresAt
+         *            time in milliseconds after which the fragment is stale.
+         */
+        private Fragment(String name, byte[] bytes, long expiresAt) {
+            this.name = name;
+            this.bytes = bytes;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /** Default maximal number of bytes held by the cache. */
+    public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+    /** Cache shared by all scripts. */
+    private static final FragmentCache instance = new FragmentCache(
+            DEFAULT_MAX_BYTES);
+
+    /**
+     * Gets the cache shared by all scripts.
+     * 
+     * @return shared cache.
+     */
+    public static FragmentCache getInstance() {
+        return instance;
+    }
+
+    /** Fragments mapped to their keys, in order of access. */
+    private Map<String, Fragment> fragments = new LinkedHashMap<>(16, 0.75f,
+            true);
+    /** Maximal number of bytes held by the cache. */
+    private long maxBytes;
+    /** Number of bytes held by the cache. */
+    private long bytes;
+    /** Number of lookups that found a fresh fragment. */
+    private long hits;
+    /** Number of lookups that did not find a fresh fragment. */
+    private long misses;
+    /** Number of fragments evicted because the cache was full. */
+    private long evictions;
+
+    /**
+     * Constructor.
+     * 
+     * @param maxBytes
+     *            maximal number of bytes held by the cache.
+     */
+    public FragmentCache(long maxBytes) {
+        setMaxBytes(maxBytes);
+    }
+
+    /**
+     * Removes all fragments.
+     */
+    public synchronized void clear() {
+        fragments.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Evicts the least recently used fragments until the cache holds at most
+     * the given number of bytes.
+     * 
+     * @param limit
+     *            number of bytes to which the cache is reduced.
+     */
+    private void evict(long limit) {
+        Iterator<Fragment> it = fragments.values().iterator();
+        while (bytes > limit && it.hasNext()) {
+            bytes -= it.next().bytes.length;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Gets the fresh fragment stored under the key.
+     * 
+     * @param key
+     *            of the fragment.
+     * @return rendered bytes of the fragment, or null if there is no fresh
+     *         fragment under the key.
+     */
+    public synchronized byte[] get(String key) {
+        Fragment fragment = fragments.get(key);
+        if (fragment != null
+                && fragment.expiresAt <= System.currentTimeMillis()) {
+            fragments.remove(key);
+            bytes -= fragment.bytes.length;
+            fragment = null;
+        }
+        if (fragment == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return fragment.bytes;
+    }
+
+    /**
+     * Gets the number of bytes held by the cache.
+     * 
+     * @return number of held bytes.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Gets the number of fragments evicted because the cache was full.
+     * 
+     * @return number of evictions.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Gets the ratio of lookups that found a fresh fragment.
+     * 
+     * @return ratio of hits, or 0 if there were no lookups.
+     */
+    public synchronized double getHitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Gets the number of lookups that found a fresh fragment.
+     * 
+     * @return number of hits.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the maximal number of bytes held by the cache.
+     * 
+     * @return maximal number of bytes.
+     */
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Gets the number of lookups that did not find a fresh fragment.
+     * 
+     * @return number of misses.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Removes all fragments with the given name.
+     * 
+     * @param name
+     *            of the fragments.
+     */
+    public synchronized void invalidate(String name) {
+        Iterator<Fragment> it = fragments.values().iterator();
+        while (it.hasNext()) {
+            Fragment fragment = it.next();
+            if (fragment.name.equals(name)) {
+                bytes -= fragment.bytes.length;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Stores a fragment under the key. Fragments larger than the cache are not
+     * stored.
+     * 
+     * @param key
+     *            of the fragment.
+     * @param name
+     *            of the fragment.
+     * @param data
+     *            rendered bytes of the fragment.
+     * @param timeToLive
+     *            number of milliseconds for which the fragment is fresh.
+     */
+    public synchronized void put(String key, String name, byte[] data,
+            long timeToLive) {
+        Fragment old = fragments.remove(key);
+        if (old != null) {
+            bytes -= old.bytes.length;
+        }
+        if (data.length > maxBytes || timeToLive <= 0) {
+            return;
+        }
+        evict(maxBytes - data.length);
+        fragments.put(key, new Fragment(name, data,
+                System.currentTimeMillis() + timeToLive));
+        bytes += data.length;
+    }
+
+    /**
+     * Sets the maximal number of bytes held by the cache, evicting fragments
+     * if needed.
+     * 
+     * @param maxBytes
+     *            maximal number of bytes.
+     * @throws IllegalArgumentException
+     *             if maxBytes is negative.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException(
+                    "Size of cache cannot be negative!");
+        }
+        this.maxBytes = maxBytes;
+        evict(maxBytes);
+    }
+
+    /**
+     * Gets the number of stored fragments.
+     * 
+     * @return number of fragments.
+     */
+    public synchronized int size() {
+        return fragments.size();
+    }
+}
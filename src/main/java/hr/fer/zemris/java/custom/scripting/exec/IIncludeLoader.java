@@ -0,0 +1,38 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+
+import java.io.IOException;
+
+/**
+ * Loads the documents included by INCLUDE tags of scripts. Scripts are given
+ * parsed, and other files are given as their bytes, so that a loader can keep
+ * both and share them between all scripts that include them.
+ * 
+ * @author Erik Banek
+ */
+public interface IIncludeLoader {
+    /**
+     * Gets the bytes of an included file that is not a script.
+     * 
+     * @param path
+     *            of the included file, as written in the tag.
+     * @return bytes of the file.
+     * @throws IOException
+     *             if the file cannot be read.
+     */
+    byte[] getFile(String path) throws IOException;
+
+    /**
+     * Gets the parsed included script, with resolved variables.
+     * 
+     * @param path
+     *            of the included document, as written in the tag.
+     * @return parsed script, or null if the document is not a script.
+     * @throws IOException
+     *             if the script cannot be read.
+     * @throws hr.fer.zemris.java.custom.scripting.parser.SmartScriptParserException
+     *             if the script is not valid.
+     */
+    DocumentNode getScript(String path) throws IOException;
+}
@@ -0,0 +1,297 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import hr.fer.zemris.java.custom.scripting.exec.functions.ISmartScriptFunction;
+import hr.fer.zemris.java.custom.scripting.exec.functions.SmartScriptFunctions;
+import hr.fer.zemris.java.custom.scripting.nodes.CacheNode;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.nodes.INodeVisitor;
+import hr.fer.zemris.java.custom.scripting.nodes.IncludeNode;
+import hr.fer.zemris.java.custom.scripting.nodes.Node;
+import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+import hr.fer.zemris.java.custom.scripting.tokens.Token;
+import hr.fer.zemris.java.custom.scripting.tokens.TokenFunction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds out which parts of the request context a section of a script uses, so
+ * that the {@code SmartScriptEngine} can decide which sections can be rendered
+ * at the same time, and which scripts always render the same output.
+ * 
+ * <p>
+ * Usage is described by flags, which tell if the section reads or writes
+ * temporary and persistent parameters, and parameters and counters of the
+ * application. Reading of request parameters never conflicts, because they
+ * never change, but it makes the section dynamic, as does everything whose
+ * result does not depend on the script alone. A section that sets the mime
+ * type, or calls a function that uses the context in a way unknown to the
+ * analyzer, or a function that is not thread-safe, or includes another
+ * document, is a barrier, and is always rendered alone. Every function is
+ * judged by the access and thread safety that it describes.
+ * 
+ * <p>
+ * Flags of the body of every parallel loop are stored in its node when the
+ * loop is analyzed, unless the node is frozen, so that the body is not
+ * analyzed again every time the loop runs. Tokens of echo nodes are linked by
+ * the engine when they are analyzed, for the same reason. The groups of top-level sections
+ * which can be rendered at the same time are found by {@code group}. Scripts
+ * are prepared with both by {@code prepare} before they are frozen.
+ * 
+ * @author Erik Banek
+ */
+public class SectionAnalyzer implements INodeVisitor {
+    /** Flag of section that reads temporary parameters. */
+    public static final int READS_TEMPORARY = 1;
+    /** Flag of section that reads persistent parameters. */
+    public static final int READS_PERSISTENT = 2;
+    /** Flag of section that writes temporary parameters. */
+    public static final int WRITES_TEMPORARY = 4;
+    /** Flag of section that writes persistent parameters. */
+    public static final int WRITES_PERSISTENT = 8;
+    /** Flag of section that must be rendered alone. */
+    public static final int BARRIER = 16;
+    /** Flag of section that calls a function which is not thread-safe. */
+    public static final int NOT_THREAD_SAFE = 32;
+    /** Flag of section that reads parameters or counters of application. */
+    public static final int READS_APPLICATION = 64;
+    /** Flag of section that writes parameters or counters of application. */
+    public static final int WRITES_APPLICATION = 128;
+    /** Flag of section whose output depends on more than the script. */
+    public static final int DYNAMIC = 256;
+
+    /**
+     * Analyzes the usage of the request context in the node and all of its
+     * children.
+     * 
+     * @param node
+     *            section to be analyzed.
+     * @return flags of the section.
+     */
+    public static int analyze(Node node) {
+        SectionAnalyzer analyzer = new SectionAnalyzer();
+        node.accept(analyzer);
+        return analyzer.flags;
+    }
+
+    /**
+     * Checks if a section can be rendered at the same time as a group of
+     * sections. It can if it does not write what the group reads or writes,
+     * and does not read what the group writes.
+     * 
+     * @param group
+     *            combined flags of sections in the group.
+     * @param section
+     *            flags of the section.
+     * @return true if the section cannot be rendered with the group.
+     */
+    public static boolean conflicts(int group, int section) {
+        if ((group & BARRIER) != 0 || (section & BARRIER) != 0) {
+            return true;
+        }
+        if ((section & WRITES_APPLICATION) != 0
+                && (group & (READS_APPLICATION | WRITES_APPLICATION)) != 0
+                || (section & READS_APPLICATION) != 0
+                && (group & WRITES_APPLICATION) != 0) {
+            return true;
+        }
+        int groupReads = group & 3;
+        int groupWrites = (group >> 2) & 3;
+        int sectionReads = section & 3;
+        int sectionWrites = (section >> 2) & 3;
+        return (sectionWrites & (groupReads | groupWrites)) != 0
+                || (sectionReads & groupWrites) != 0;
+    }
+
+    /**
+     * Finds the groups of consecutive top-level sections of the document
+     * which do not conflict, and can be rendered at the same time. Runs of
+     * consecutive text and echo sections of a group are joined into a single
+     * part, because they are too small to be rendered on their own.
+     * 
+     * @param documentNode
+     *            whose sections are grouped.
+     * @return groups of sections, as described by
+     *         {@code DocumentNode.getSectionGroups}.
+     */
+    public static int[][] group(DocumentNode documentNode) {
+        int size = documentNode.numberOfChildren();
+        int[] flags = new int[size];
+        for (int i = 0; i < size; i++) {
+            flags[i] = analyze(documentNode.getChild(i));
+        }
+
+        List<int[]> groups = new ArrayList<>();
+        int start = 0;
+        while (start < size) {
+            int group = flags[start];
+            int end = start + 1;
+            while (end < size && !conflicts(group, flags[end])) {
+                group |= flags[end];
+                end++;
+            }
+
+            int[] parts = new int[end - start + 1];
+            int count = 0;
+            parts[count++] = start;
+            for (int i = start + 1; i < end; i++) {
+                if (!isSmall(documentNode.getChild(i - 1))
+                        || !isSmall(documentNode.getChild(i))) {
+                    parts[count++] = i;
+                }
+            }
+            parts[count++] = end;
+            groups.add(Arrays.copyOf(parts, count));
+            start = end;
+        }
+        return groups.toArray(new int[groups.size()][]);
+    }
+
+    /**
+     * Checks if a section always renders the same output, so that it can be
+     * rendered in advance. Temporary parameters and the mime type only live
+     * during a single execution, so a static section may use them.
+     * 
+     * @param flags
+     *            of the section.
+     * @return true if the section is static.
+     */
+    public static boolean isStatic(int flags) {
+        return (flags & DYNAMIC) == 0;
+    }
+
+    /**
+     * Prepares the document for execution, by storing the flags of the body
+     * of every parallel loop and the linked tokens of every echo node in the
+     * node, and the groups of its top-level sections in the document. The
+     * document must not be frozen.
+     * 
+     * @param documentNode
+     *            which is prepared.
+     */
+    public static void prepare(DocumentNode documentNode) {
+        analyze(documentNode);
+        documentNode.setSectionGroups(group(documentNode));
+    }
+
+    /**
+     * Gets the flags of a function from its description. Functions that are
+     * not known, or use the context in a way which is not described, are
+     * barriers.
+     * 
+     * @param name
+     *            of function.
+     * @return flags of the function.
+     */
+    private static int flagsOf(String name) {
+        ISmartScriptFunction function = SmartScriptFunctions.getFunctions()
+                .get(name);
+        if (function == null) {
+            return BARRIER | DYNAMIC;
+        }
+        int access = function.getAccess();
+        if ((access & ISmartScriptFunction.OTHER_ACCESS) != 0) {
+            return BARRIER | DYNAMIC;
+        }
+        int flags = 0;
+        if ((access & (ISmartScriptFunction.READS_PARAMETERS
+                | ISmartScriptFunction.READS_ENVIRONMENT)) != 0) {
+            flags |= DYNAMIC;
+        }
+        if ((access & ISmartScriptFunction.READS_TEMPORARY) != 0) {
+            flags |= READS_TEMPORARY;
+        }
+        if ((access & ISmartScriptFunction.WRITES_TEMPORARY) != 0) {
+            flags |= WRITES_TEMPORARY;
+        }
+        if ((access & ISmartScriptFunction.READS_PERSISTENT) != 0) {
+            flags |= READS_PERSISTENT | DYNAMIC;
+        }
+        if ((access & ISmartScriptFunction.WRITES_PERSISTENT) != 0) {
+            flags |= WRITES_PERSISTENT | DYNAMIC;
+        }
+        if ((access & ISmartScriptFunction.READS_APPLICATION) != 0) {
+            flags |= READS_APPLICATION | DYNAMIC;
+        }
+        if ((access & ISmartScriptFunction.WRITES_APPLICATION) != 0) {
+            flags |= WRITES_APPLICATION | DYNAMIC;
+        }
+        if ((access & ISmartScriptFunction.WRITES_RESPONSE) != 0) {
+            flags |= BARRIER;
+        }
+        return function.isThreadSafe() ? flags
+                : flags | BARRIER | NOT_THREAD_SAFE;
+    }
+
+    /**
+     * Checks if a section is a single text or echo tag, which is rendered
+     * quickly.
+     * 
+     * @param node
+     *            section which is checked.
+     * @return true if the section is small.
+     */
+    private static boolean isSmall(Node node) {
+        return node instanceof TextNode || node instanceof EchoNode;
+    }
+
+    /** Flags of the analyzed section. */
+    private int flags;
+
+    /**
+     * Visits all children of the node.
+     * 
+     * @param node
+     *            whose children are visited.
+     */
+    private void visitChildren(Node node) {
+        int size = node.numberOfChildren();
+        for (int i = 0; i < size; i++) {
+            node.getChild(i).accept(this);
+        }
+    }
+
+    @Override
+    public void visitCacheNode(CacheNode node) {
+        visitChildren(node);
+    }
+
+    @Override
+    public void visitDocumentNode(DocumentNode node) {
+        visitChildren(node);
+    }
+
+    @Override
+    public void visitEchoNode(EchoNode node) {
+        SmartScriptEngine.link(node);
+        for (Token t : node.getTokens()) {
+            if (t instanceof TokenFunction) {
+                flags |= flagsOf(((TokenFunction) t).getName());
+            }
+        }
+    }
+
+    @Override
+    public void visitForLoopNode(ForLoopNode node) {
+        int outer = flags;
+        flags = 0;
+        visitChildren(node);
+        if (node.isParallel() && !node.isFrozen()) {
+            node.setUsageFlags(flags);
+        }
+        flags |= outer;
+    }
+
+    @Override
+    public void visitIncludeNode(IncludeNode node) {
+        // the included script is not known before it is executed
+        flags |= BARRIER | DYNAMIC;
+    }
+
+    @Override
+    public void visitTextNode(TextNode node) {
+    }
+}
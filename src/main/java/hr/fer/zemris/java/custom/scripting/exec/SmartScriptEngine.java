@@ -1,71 +1,738 @@
 package hr.fer.zemris.java.custom.scripting.exec;
 
-import hr.fer.zemris.java.custom.collections.EmptyStackException;
-import hr.fer.zemris.java.custom.collections.ObjectStack;
 import hr.fer.zemris.java.custom.scripting.exec.functions.ISmartScriptFunction;
 import hr.fer.zemris.java.custom.scripting.exec.functions.SmartScriptFunctions;
+import hr.fer.zemris.java.custom.scripting.nodes.CacheNode;
 import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
 import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
 import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ICallSites;
 import hr.fer.zemris.java.custom.scripting.nodes.INodeVisitor;
+import hr.fer.zemris.java.custom.scripting.nodes.IncludeNode;
+import hr.fer.zemris.java.custom.scripting.nodes.Node;
 import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
 import hr.fer.zemris.java.custom.scripting.nodes.VisitorException;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParserException;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptStreamParser;
+import hr.fer.zemris.java.custom.scripting.parser.VariableResolver;
 import hr.fer.zemris.java.custom.scripting.tokens.Token;
+import hr.fer.zemris.java.custom.scripting.tokens.TokenConstantDouble;
+import hr.fer.zemris.java.custom.scripting.tokens.TokenConstantInteger;
 import hr.fer.zemris.java.custom.scripting.tokens.TokenFunction;
 import hr.fer.zemris.java.custom.scripting.tokens.TokenOperator;
+import hr.fer.zemris.java.custom.scripting.tokens.TokenString;
 import hr.fer.zemris.java.custom.scripting.tokens.TokenVariable;
 import hr.fer.zemris.java.webserver.RequestContext;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
 
 /**
  * Engine which by the means of a {@code INodeVisitor} visits and actually
  * executes a custom SmartScript.
  * 
+ * <p>
+ * In the optional parallel sections mode, the top-level nodes of the script
+ * are rendered as sections. Consecutive sections that do not depend on each
+ * other through parameters, as found by the {@code SectionAnalyzer}, are
+ * rendered at the same time into separate buffers, and are written to the
+ * context in their order as soon as each one is ready. Runs of small sections
+ * are rendered together.
+ * 
+ * <p>
+ * Documents included by INCLUDE tags are given by an {@code IIncludeLoader}.
+ * An included script is executed by its own engine, with its own variables,
+ * through the same context, and other files are written as they are.
+ * 
  * @author Erik Banek
  */
 public class SmartScriptEngine {
+    /**
+     * Functions of the tokens of an echo node, linked once so that functions
+     * are not looked up on every execution. Calls of pure functions whose
+     * arguments are constants are folded: the result is calculated when the
+     * node is linked, the tokens of the arguments are skipped, and the result
+     * is pushed in place of the call. A string constant followed by a
+     * function which binds it is skipped, and the bound function is called
+     * instead.
+     * 
+     * @author Erik Banek
+     */
+    private static class CallSites implements ICallSites {
+        /** Functions indexed by tokens, null for other tokens. */
+        private final ISmartScriptFunction[] functions;
+        /** True for tokens which are folded or bound to their functions. */
+        private final boolean[] skipped;
+        /** Results of folded calls indexed by tokens, null for others. */
+        private final ValueWrapper[] constants;
+
+        /**
+         * Constructor.
+         * 
+         * @param functions
+         *            indexed by tokens.
+         * @param skipped
+         *            true for folded and bound tokens.
+         * @param constants
+         *            results of folded calls indexed by tokens.
+         */
+        private CallSites(ISmartScriptFunction[] functions, boolean[] skipped,
+                ValueWrapper[] constants) {
+            this.functions = functions;
+            this.skipped = skipped;
+            this.constants = constants;
+        }
+
+        @Override
+        public boolean isSkipped(int index) {
+            return skipped[index];
+        }
+    }
+
     /** Map of all functions that are supported in scripts to their keyed names. */
     private static final Map<String, ISmartScriptFunction> functions =
             SmartScriptFunctions.getFunctions();
+    /** Maximal depth of scripts included into each other. */
+    public static final int MAX_INCLUDE_DEPTH = 16;
+
+    /**
+     * Executes a script that is read from the reader, without building the
+     * node hierarchy of the whole script. The script is parsed and executed
+     * section by section, so output begins before the script is fully read,
+     * and memory is not proportional to the size of the script.
+     * 
+     * @param reader
+     *            from which the script is read.
+     * @param requestContext
+     *            context through whom output is handled.
+     * @throws IOException
+     *             if a problem occurs with reading the script or writing to
+     *             context.
+     * @throws hr.fer.zemris.java.custom.scripting.parser.SmartScriptParserException
+     *             if a part of script is not valid, after all parts before it
+     *             were executed.
+     */
+    public static void execute(Reader reader, RequestContext requestContext)
+            throws IOException {
+        execute(reader, requestContext, null);
+    }
+
+    /**
+     * Executes a script that is read from the reader, as
+     * {@code execute(Reader, RequestContext)} does, with documents included
+     * by the script given by the loader.
+     * 
+     * @param reader
+     *            from which the script is read.
+     * @param requestContext
+     *            context through whom output is handled.
+     * @param includeLoader
+     *            which gives included documents, or null if including is not
+     *            supported.
+     * @throws IOException
+     *             if a problem occurs with reading the script or writing to
+     *             context.
+     * @throws hr.fer.zemris.java.custom.scripting.parser.SmartScriptParserException
+     *             if a part of script is not valid, after all parts before it
+     *             were executed.
+     */
+    public static void execute(Reader reader, RequestContext requestContext,
+            IIncludeLoader includeLoader) throws IOException {
+        execute(reader, requestContext, includeLoader, null, null);
+    }
+
+    /**
+     * Executes a script that is read from the reader, as
+     * {@code execute(Reader, RequestContext, IIncludeLoader)} does, adds
+     * the number of executed loop iterations to the counter, and stops when
+     * the budget is exceeded.
+     * 
+     * @param reader
+     *            from which the script is read.
+     * @param requestContext
+     *            context through whom output is handled.
+     * @param includeLoader
+     *            which gives included documents, or null if including is not
+     *            supported.
+     * @param iterations
+     *            counter of loop iterations, or null if they are not counted.
+     * @param budget
+     *            which limits the execution, or null if it is not limited.
+     * @throws IOException
+     *             if a problem occurs with reading the script or writing to
+     *             context.
+     * @throws hr.fer.zemris.java.custom.scripting.parser.SmartScriptParserException
+     *             if a part of script is not valid, after all parts before it
+     *             were executed.
+     * @throws ExecutionLimitException
+     *             if the execution exceeds its budget.
+     */
+    public static void execute(Reader reader, RequestContext requestContext,
+            IIncludeLoader includeLoader, LongAdder iterations,
+            ExecutionBudget budget) throws IOException {
+        SmartScriptStreamParser parser = new SmartScriptStreamParser(reader);
+        SmartScriptEngine engine = null;
+        try {
+            DocumentNode section;
+            while ((section = parser.nextSection()) != null) {
+                if (engine == null) {
+                    engine = new SmartScriptEngine(section, requestContext);
+                    engine.includeLoader = includeLoader;
+                    engine.iterations = iterations;
+                    engine.budget = budget;
+                } else {
+                    engine.documentNode = section;
+                }
+                engine.run(section);
+            }
+        } catch (VisitorException e) {
+            writeError(requestContext, e);
+        }
+    }
+
+    /**
+     * Gets the linked tokens of the echo node, linking them if they were not
+     * linked by this engine. The links are stored in the node unless it is
+     * frozen, in which case they were stored when the script was prepared.
+     * Unknown functions are left null, so that the error is still reported
+     * when the node is executed, and calls which fail when they are folded
+     * are left to fail when they are executed.
+     * 
+     * @param node
+     *            whose tokens are linked.
+     * @return linked tokens.
+     */
+    static CallSites link(EchoNode node) {
+        ICallSites linked = node.getCallSites();
+        if (linked instanceof CallSites) {
+            return (CallSites) linked;
+        }
+        Token[] tokens = node.getTokens();
+        ISmartScriptFunction[] linkedFunctions =
+                new ISmartScriptFunction[tokens.length];
+        boolean[] skipped = new boolean[tokens.length];
+        ValueWrapper[] constants = new ValueWrapper[tokens.length];
+        // constants on top of the stack, and the tokens which pushed them
+        ValueStack folded = new ValueStack();
+        int[] pushedBy = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            Token t = tokens[i];
+            if (t instanceof TokenConstantInteger) {
+                pushedBy[folded.size()] = i;
+                folded.push((long) ((TokenConstantInteger) t).getValue());
+                continue;
+            } else if (t instanceof TokenConstantDouble) {
+                pushedBy[folded.size()] = i;
+                folded.push(((TokenConstantDouble) t).getValue());
+                continue;
+            } else if (t instanceof TokenString) {
+                pushedBy[folded.size()] = i;
+                folded.push(((TokenString) t).getValue());
+                continue;
+            } else if (!(t instanceof TokenFunction
+                    || t instanceof TokenOperator)) {
+                folded.clear();
+                continue;
+            }
+
+            ISmartScriptFunction f = functions.get(t.toString());
+            if (f != null && f.isPure() && f.getArity() >= 0
+                    && f.getArity() <= folded.size()) {
+                int first = folded.size() - f.getArity();
+                ValueWrapper result = fold(f, folded);
+                if (result != null) {
+                    for (int j = first; j < first + f.getArity(); j++) {
+                        skipped[pushedBy[j]] = true;
+                    }
+                    constants[i] = result;
+                    pushedBy[first] = i;
+                    continue;
+                }
+            }
+            folded.clear();
+
+            if (f != null && i > 0 && tokens[i - 1] instanceof TokenString) {
+                try {
+                    ISmartScriptFunction boundFunction =
+                            f.bind(((TokenString) tokens[i - 1]).getValue());
+                    if (boundFunction != null) {
+                        f = boundFunction;
+                        skipped[i - 1] = true;
+                    }
+                } catch (IllegalArgumentException e) {
+                    // not bound, so the call fails when it is executed
+                }
+            }
+            linkedFunctions[i] = f;
+        }
+        CallSites callSites = new CallSites(linkedFunctions, skipped,
+                constants);
+        if (!node.isFrozen()) {
+            node.setCallSites(callSites);
+        }
+        return callSites;
+    }
+
+    /**
+     * Applies the pure function to the constants on top of the stack. The
+     * stack is left with the result in place of the arguments, or it is
+     * cleared if the function fails.
+     * 
+     * @param function
+     *            pure function which is applied.
+     * @param folded
+     *            stack of constants.
+     * @return result of the function, or null if it failed.
+     */
+    private static ValueWrapper fold(ISmartScriptFunction function,
+            ValueStack folded) {
+        int first = folded.size() - function.getArity();
+        try {
+            function.apply(folded, null);
+        } catch (RuntimeException e) {
+            folded.clear();
+            return null;
+        }
+        int top = folded.size() - 1;
+        if (top != first) {
+            folded.clear();
+            return null;
+        }
+        switch (folded.getType(top)) {
+        case ValueWrapper.TYPE_LONG:
+            return new ValueWrapper(folded.getLong(top));
+        case ValueWrapper.TYPE_DOUBLE:
+            return new ValueWrapper(folded.getDouble(top));
+        default:
+            return new ValueWrapper(folded.getString(top));
+        }
+    }
+
+    /**
+     * Writes the message of error that stopped the execution to the context.
+     * 
+     * @param requestContext
+     *            to which the message is written.
+     * @param e
+     *            error that stopped the execution.
+     * @throws IOException
+     *             if a problem occurs with writing to context.
+     */
+    private static void writeError(RequestContext requestContext,
+            VisitorException e) throws IOException {
+        requestContext
+                .write(e.getMessage()
+                        +
+                        "\nError occured with executing script. Check URL parameters.");
+    }
+
     /** Top node from whom the visit starts, and which holds all script data. */
     private DocumentNode documentNode;
     /** Context through which everything is output to the client. */
     private RequestContext requestContext;
-    /** Multistack which is used for storing variables. */
-    private ObjectMultistack multistack;
+    /**
+     * Values of variables indexed by their slots. A slot is null while its
+     * loop is not running. Null while the engine is not running, if the
+     * frame is borrowed from the execution context.
+     */
+    private ValueWrapper[] variables;
+    /** True if the frame of variables is borrowed from the context. */
+    private boolean borrowedVariables;
+    /**
+     * Operand stack of echo tags, reused for every echo tag, borrowed from the
+     * execution context while the engine runs.
+     */
+    private ValueStack stack;
+    /**
+     * Builder of echo tag output, reused for every echo tag, borrowed from the
+     * execution context while the engine runs.
+     */
+    private StringBuilder output;
+    /** True if independent top-level sections are rendered in parallel. */
+    private boolean parallelSections;
+    /** Loader of included documents, or null if including is not supported. */
+    private IIncludeLoader includeLoader;
+    /** Number of scripts that include the script of this engine. */
+    private int includeDepth;
+    /** Counter of executed loop iterations, or null if they are not counted. */
+    private LongAdder iterations;
+    /** Budget which limits the execution, or null if it is not limited. */
+    private ExecutionBudget budget;
     /**
      * Visitor of each node, actually a script executor. Works with the request
-     * context and multistack from this class. Executes the script by
+     * context and variable slots from this class. Executes the script by
      * interpreting it, uses the {@code ValueWrapper} for help with execution.
      */
     private INodeVisitor visitor = new INodeVisitor() {
         /**
-         * Visits all children.
+         * Builds the key under which the output of the cache node is stored.
+         * The key holds the name of the fragment, the charset of output, and
+         * the values of vary tokens.
+         * 
+         * @param node
+         *            whose key is built.
+         * @return key of the output.
          */
-        @Override
-        public void visitDocumentNode(DocumentNode node)
-                throws VisitorException {
+        private String cacheKey(CacheNode node) {
+            StringBuilder key = new StringBuilder(node.getName().getValue());
+            key.append('\0').append(requestContext.getCharset().name());
+            for (Token t : node.getVaryTokens()) {
+                key.append('\0');
+                String value;
+                if (t instanceof TokenVariable) {
+                    int slot = ((TokenVariable) t).getSlot();
+                    if (slot < 0 || variables[slot] == null) {
+                        throw new VisitorException("No such variable on stack!");
+                    }
+                    value = variables[slot].toString();
+                } else {
+                    value = requestContext.getParameter(((TokenString) t)
+                            .getValue());
+                }
+                // a missing parameter differs from every value
+                key.append(value == null ? "\1" : value);
+            }
+            return key.toString();
+        }
+
+        /**
+         * Runs the loop with an integral variable and step with primitive
+         * arithmetic.
+         * 
+         * @param node
+         *            whose children are visited in each iteration.
+         * @param variable
+         *            holding the integral start value, updated in each
+         *            iteration.
+         * @param end
+         *            inclusive end value, integral or decimal.
+         * @param step
+         *            positive integral step.
+         * @return number of executed iterations.
+         */
+        private long countedLoop(ForLoopNode node, ValueWrapper variable,
+                ValueWrapper end, long step) {
+            long i = variable.getLong();
+            long count = 0;
+            if (end.getType() == ValueWrapper.TYPE_LONG) {
+                long last = end.getLong();
+                while (i <= last) {
+                    if (budget != null) {
+                        budget.checkIteration();
+                    }
+                    variable.setLong(i);
+                    visitChildren(node);
+                    count++;
+                    if (i > Long.MAX_VALUE - step) {
+                        break;
+                    }
+                    i += step;
+                }
+            } else {
+                double last = end.getDouble();
+                while (i <= last) {
+                    if (budget != null) {
+                        budget.checkIteration();
+                    }
+                    variable.setLong(i);
+                    visitChildren(node);
+                    count++;
+                    if (i > Long.MAX_VALUE - step) {
+                        break;
+                    }
+                    i += step;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Calculates the number of iterations of a loop with a positive step,
+         * without running it.
+         * 
+         * @param start
+         *            start value of the variable.
+         * @param end
+         *            inclusive end value.
+         * @param step
+         *            positive step of the variable.
+         * @return number of iterations, {@code Long.MAX_VALUE} if there are
+         *         more.
+         */
+        private long iterationCount(ValueWrapper start, ValueWrapper end,
+                ValueWrapper step) {
+            if (start.getType() == ValueWrapper.TYPE_LONG
+                    && step.getType() == ValueWrapper.TYPE_LONG) {
+                long first = start.getLong();
+                long last = end.getType() == ValueWrapper.TYPE_LONG ? end
+                        .getLong() : (long) Math.floor(end.getDouble());
+                if (last < first) {
+                    return 0;
+                }
+                long span = last - first;
+                // a negative span overflowed, and is more than any limit
+                return span < 0 ? Long.MAX_VALUE : span / step.getLong() + 1;
+            }
+            double count = Math.floor((end.getDouble() - start.getDouble())
+                    / step.getDouble()) + 1;
+            // NaN gives no iterations, and the cast saturates large counts
+            return count >= 1 ? (long) count : 0;
+        }
+
+        /**
+         * Converts the token of a for loop into a number.
+         * 
+         * @param token
+         *            to be converted.
+         * @return wrapper holding the number of token.
+         * @throws IllegalArgumentException
+         *             if the token is not a number.
+         */
+        private ValueWrapper numberOf(Token token) {
+            ValueWrapper number;
+            if (token instanceof TokenConstantInteger) {
+                number = new ValueWrapper();
+                number.setLong(((TokenConstantInteger) token).getValue());
+            } else if (token instanceof TokenConstantDouble) {
+                number = new ValueWrapper();
+                number.setDouble(((TokenConstantDouble) token).getValue());
+            } else {
+                number = new ValueWrapper(token.toString());
+                number.toNumber();
+            }
+            return number;
+        }
+
+        /**
+         * Runs the iterations of a parallel loop on the common
+         * {@code ForkJoinPool}. The number of iterations is calculated and
+         * counted against the budget before anything is run. The iterations
+         * are split into about as many chunks of consecutive iterations as
+         * the pool has threads, and every chunk is executed by its own
+         * engine, with a copy of the variables, and writes to its own
+         * fragment of the request context, which is restarted for each
+         * iteration. When all chunks are done, the parameter changes and
+         * outputs of chunks are given to the request context in the order of
+         * iterations. If some iterations fail, the error of the first one is
+         * thrown and nothing is output. A loop whose body calls a function
+         * that is not thread-safe runs its iterations one by one.
+         * 
+         * @param node
+         *            whose children are visited in each iteration.
+         * @param start
+         *            start value of the variable.
+         * @param end
+         *            inclusive end value.
+         * @param step
+         *            step of the variable, must be positive.
+         */
+        private void parallelLoop(ForLoopNode node, ValueWrapper start,
+                ValueWrapper end, ValueWrapper step) {
+            if (step.numCompare(0) < 1) {
+                throw new VisitorException(
+                        "Step of parallel loop must be positive!");
+            }
+            long count = iterationCount(start, end, step);
+            if (count == 0) {
+                return;
+            }
+            if (budget != null) {
+                budget.checkIterations(count);
+            }
+
+            // iterations calling functions which are not thread-safe are
+            // run one by one, but still see the context as it was before
+            boolean threadSafe = (usageFlags(node)
+                    & SectionAnalyzer.NOT_THREAD_SAFE) == 0;
+            int chunks = threadSafe ? (int) Math.min(count,
+                    ForkJoinPool.getCommonPoolParallelism()) : 1;
+            int slot = node.getVariable().getSlot();
+            boolean integral = start.getType() == ValueWrapper.TYPE_LONG
+                    && step.getType() == ValueWrapper.TYPE_LONG;
+            ByteArrayOutputStream[] outputs = new ByteArrayOutputStream[chunks];
+            RequestContext[] fragments = new RequestContext[chunks];
+            VisitorException[] errors = new VisitorException[chunks];
+            IntStream range = IntStream.range(0, chunks);
+            if (chunks > 1) {
+                range = range.parallel();
+            }
+            range.forEach(c -> {
+                outputs[c] = new ByteArrayOutputStream();
+                fragments[c] = requestContext.createFragment(outputs[c]);
+                ValueWrapper[] frame = variables.clone();
+                ValueWrapper value = new ValueWrapper();
+                frame[slot] = value;
+                SmartScriptEngine engine = new SmartScriptEngine(
+                        SmartScriptEngine.this, documentNode, fragments[c],
+                        frame);
+                long first = count / chunks * c + Math.min(c, count % chunks);
+                long last = first + count / chunks
+                        + (c < count % chunks ? 1 : 0);
+                try {
+                    for (long i = first; i < last; i++) {
+                        if (budget != null) {
+                            budget.checkTime();
+                        }
+                        if (integral) {
+                            value.setLong(start.getLong() + i * step.getLong());
+                        } else {
+                            value.setDouble(start.getDouble() + i
+                                    * step.getDouble());
+                        }
+                        if (i > first) {
+                            fragments[c].restartFragment();
+                        }
+                        engine.executeChildren(node);
+                    }
+                } catch (VisitorException e) {
+                    errors[c] = e;
+                }
+            });
+            // the error of the first failed iteration is the one reported
+            for (VisitorException e : errors) {
+                if (e != null) {
+                    throw e;
+                }
+            }
+
+            requestContext.mergeFragments(Arrays.asList(fragments));
+            if (iterations != null) {
+                iterations.add(count);
+            }
+            try {
+                for (ByteArrayOutputStream output : outputs) {
+                    requestContext.write(output.toByteArray());
+                }
+            } catch (IOException e) {
+                throw new VisitorException("Problem writing to context!");
+            }
+        }
+
+        /**
+         * Gets the flags of the body of the loop, which are stored in the
+         * node when the script is prepared, and are found by analyzing the
+         * body otherwise.
+         * 
+         * @param node
+         *            whose body is analyzed.
+         * @return flags of the body.
+         */
+        private int usageFlags(ForLoopNode node) {
+            int flags = node.getUsageFlags();
+            return flags < 0 ? SectionAnalyzer.analyze(node) : flags;
+        }
+
+        /**
+         * Visits all children of the node.
+         * 
+         * @param node
+         *            whose children are visited.
+         */
+        private void visitChildren(Node node) {
             int size = node.numberOfChildren();
             for (int i = 0; i < size; i++) {
                 node.getChild(i).accept(this);
             }
         }
 
+        /**
+         * Outputs the stored output of children if it is fresh in the
+         * {@code FragmentCache}, without executing the children. Otherwise
+         * the children are executed by their own engine into a fragment of
+         * the context, and their output is stored and written.
+         */
+        @Override
+        public void visitCacheNode(CacheNode node) throws VisitorException {
+            FragmentCache cache = FragmentCache.getInstance();
+            String key = cacheKey(node);
+            byte[] data = cache.get(key);
+            boolean hit = data != null;
+            VisitorException error = null;
+
+            if (data == null) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                RequestContext fragment = requestContext.createFragment(out);
+                try {
+                    new SmartScriptEngine(SmartScriptEngine.this, documentNode,
+                            fragment, variables.clone()).executeChildren(node);
+                } catch (VisitorException e) {
+                    error = e;
+                }
+                requestContext.mergeFragments(
+                        Collections.singletonList(fragment));
+                data = out.toByteArray();
+                if (error == null) {
+                    long timeToLive = (long) (numberOf(node.getTimeToLive())
+                            .getDouble() * 1000);
+                    cache.put(key, node.getName().getValue(), data,
+                            timeToLive);
+                }
+            }
+
+            // output of executed children was already counted by them
+            if (budget != null && hit) {
+                budget.checkOutput(data.length);
+            }
+            try {
+                requestContext.write(data);
+            } catch (IOException e) {
+                throw new VisitorException("Problem writing to context!");
+            }
+            // output of failed children is written, but never stored
+            if (error != null) {
+                throw error;
+            }
+        }
+
+        /**
+         * Visits all children.
+         */
+        @Override
+        public void visitDocumentNode(DocumentNode node)
+                throws VisitorException {
+            visitChildren(node);
+        }
+
         /**
          * Goes through all tokens in node, makes calculations/functions, and
          * outputs all values that are left in the stack in the FIFO order.
+         * Constants are pushed in their typed form, and turned into text only
+         * when written. The values are appended from the bottom of the stack
+         * to the top into a reused builder. Functions are linked when the
+         * script is prepared, or on the first execution of the node, with
+         * calls of pure functions on constants folded, and constant arguments
+         * bound to their functions.
          */
         @Override
         public void visitEchoNode(EchoNode node) throws VisitorException {
-            ObjectStack stack = new ObjectStack();
+            stack.clear();
 
             // go through all tokens in node and do the calculations
-            for (Token t : node.getTokens()) {
-                if (t instanceof TokenFunction || t instanceof TokenOperator) {
+            CallSites callSites = link(node);
+            Token[] tokens = node.getTokens();
+            for (int i = 0; i < tokens.length; i++) {
+                Token t = tokens[i];
+                if (callSites.isSkipped(i)) {
+                    continue;
+                }
+                if (callSites.constants[i] != null) {
+                    stack.push(callSites.constants[i]);
+                } else if (t instanceof TokenFunction
+                        || t instanceof TokenOperator) {
 
-                    ISmartScriptFunction f = functions.get(t.toString());
+                    ISmartScriptFunction f = callSites.functions[i];
                     if (f == null) {
                         throw new VisitorException(
                                 "Not an existing function is present!");
@@ -78,24 +745,37 @@ public class SmartScriptEngine {
                     }
 
                 } else if (t instanceof TokenVariable) {
-                    Object o = null;
-                    try {
-                        o = multistack.peek(((TokenVariable) t).getName());
-                    } catch (EmptyStackException e) {
+                    int slot = ((TokenVariable) t).getSlot();
+                    if (slot < 0 || variables[slot] == null) {
                         throw new VisitorException("No such variable on stack!");
                     }
-                    stack.push(o.toString());
+                    stack.push(variables[slot]);
+                } else if (t instanceof TokenConstantInteger) {
+                    stack.push((long) ((TokenConstantInteger) t).getValue());
+                } else if (t instanceof TokenConstantDouble) {
+                    stack.push(((TokenConstantDouble) t).getValue());
+                } else if (t instanceof TokenString) {
+                    stack.push(((TokenString) t).getValue());
                 } else {
                     stack.push(t.toString());
                 }
             }
 
-            StringBuilder sb = new StringBuilder();
-            while (stack.size() > 0) {
-                sb.insert(0, stack.pop().toString());
+            output.setLength(0);
+            int size = stack.size();
+            for (int i = 0; i < size; i++) {
+                stack.appendTo(i, output);
+            }
+            if (budget != null) {
+                budget.checkOutput(output.length());
+            }
+            // the header is not sent before there is output, so that the
+            // status can still be changed
+            if (output.length() == 0) {
+                return;
             }
             try {
-                requestContext.write(sb.toString());
+                requestContext.write(output);
             } catch (IOException e) {
                 throw new VisitorException(
                         "Problem writing to context!");
@@ -104,43 +784,101 @@ public class SmartScriptEngine {
 
         /**
          * Loops through the for loop node in the standard way, and visits all
-         * of its children.
+         * of its children. Loops whose start and step are integral numbers,
+         * with a positive step, are run as primitive counted loops. Every
+         * other loop goes through the numerical operations of
+         * {@code ValueWrapper}. In both cases the loop variable is a single
+         * wrapper that is updated in place. Parallel loops are run by
+         * {@code parallelLoop}.
          */
         @Override
         public void visitForLoopNode(ForLoopNode node) throws VisitorException {
             ValueWrapper step = new ValueWrapper(1);
 
             if (node.getStepExpression() != null) {
-                step = new ValueWrapper(node.getStepExpression().toString());
+                step = numberOf(node.getStepExpression());
             }
-            ValueWrapper start = new ValueWrapper(
-                    node.getStartExpression().toString());
-            ValueWrapper end = new ValueWrapper(
-                    node.getEndExpression().toString());
+            ValueWrapper start = numberOf(node.getStartExpression());
+            ValueWrapper end = numberOf(node.getEndExpression());
 
-            TokenVariable variable = node.getVariable();
-            String varName = variable.getName();
+            if (node.isParallel()) {
+                parallelLoop(node, start, end, step);
+                return;
+            }
 
-            multistack.push(varName, start);
+            int slot = node.getVariable().getSlot();
+            ValueWrapper variable = start;
+            variables[slot] = variable;
 
-            while (multistack.peek(varName).numCompare(end.toString()) < 1) {
-                int size = node.numberOfChildren();
-                for (int i = 0; i < size; i++) {
-                    node.getChild(i).accept(this);
+            long count = 0;
+            if (start.getType() == ValueWrapper.TYPE_LONG
+                    && step.getType() == ValueWrapper.TYPE_LONG
+                    && step.getLong() > 0) {
+                count = countedLoop(node, variable, end, step.getLong());
+            } else {
+                while (variable.numCompare(end) < 1) {
+                    if (budget != null) {
+                        budget.checkIteration();
+                    }
+                    visitChildren(node);
+                    variable.increment(step);
+                    count++;
                 }
-                multistack.peek(varName).increment(step.toString());
             }
 
-            multistack.pop(varName);
+            variables[slot] = null;
+            if (iterations != null) {
+                iterations.add(count);
+            }
         }
 
         /**
-         * Outputs the text node to the context.
+         * Executes the included script by its own engine, through the same
+         * context, or writes the bytes of the included file as they are.
+         */
+        @Override
+        public void visitIncludeNode(IncludeNode node) throws VisitorException {
+            if (includeLoader == null) {
+                throw new VisitorException("Including is not supported!");
+            }
+            if (includeDepth >= MAX_INCLUDE_DEPTH) {
+                throw new VisitorException("Includes are nested too deeply!");
+            }
+            String path = node.getPath().getValue();
+            try {
+                DocumentNode script = includeLoader.getScript(path);
+                if (script == null) {
+                    byte[] bytes = includeLoader.getFile(path);
+                    if (budget != null) {
+                        budget.checkOutput(bytes.length);
+                    }
+                    requestContext.write(bytes);
+                    return;
+                }
+                SmartScriptEngine engine = new SmartScriptEngine(
+                        SmartScriptEngine.this, script, requestContext, null);
+                engine.includeDepth = includeDepth + 1;
+                engine.run(script);
+            } catch (IOException e) {
+                throw new VisitorException("Cannot include " + path + "!");
+            } catch (SmartScriptParserException e) {
+                throw new VisitorException("Included script " + path
+                        + " is not valid!");
+            }
+        }
+
+        /**
+         * Outputs the text node to the context, already encoded in the charset
+         * of the context.
          */
         @Override
         public void visitTextNode(TextNode node) throws VisitorException {
+            byte[] bytes = node.getBytes(requestContext.getCharset());
+            if (budget != null) {
+                budget.checkOutput(bytes.length);
+            }
             try {
-                requestContext.write(node.getText());
+                requestContext.write(bytes);
             } catch (IOException e) {
                 throw new VisitorException(
                         "Problem with writing text node to context!");
@@ -165,7 +903,54 @@ public class SmartScriptEngine {
         }
         this.documentNode = documentNode;
         this.requestContext = requestContext;
-        multistack = new ObjectMultistack();
+        if (documentNode.getVariableSlots() < 0) {
+            VariableResolver.resolve(documentNode);
+        }
+    }
+
+    /**
+     * Creates an engine that runs a part of the work of another engine, such
+     * as a single iteration of a parallel loop, or an included script. The
+     * engine includes documents in the same way as the other engine.
+     * 
+     * @param parent
+     *            engine whose work is done.
+     * @param documentNode
+     *            whose content is executed, with resolved variables.
+     * @param requestContext
+     *            context or fragment of context to which the engine writes.
+     * @param variables
+     *            values of variables of the engine, or null if the engine
+     *            starts with no variables.
+     */
+    private SmartScriptEngine(SmartScriptEngine parent,
+            DocumentNode documentNode, RequestContext requestContext,
+            ValueWrapper[] variables) {
+        this.documentNode = documentNode;
+        this.requestContext = requestContext;
+        this.variables = variables;
+        this.includeLoader = parent.includeLoader;
+        this.includeDepth = parent.includeDepth;
+        this.iterations = parent.iterations;
+        this.budget = parent.budget;
+    }
+
+    /**
+     * Borrows an execution context from the pool of the current thread, and
+     * takes its operand stack, its output builder and, if the engine has no
+     * variables, its frame of variables.
+     * 
+     * @return borrowed context, which is returned by {@code giveBack}.
+     */
+    private ExecutionContext borrow() {
+        ExecutionContext context = ExecutionContext.acquire();
+        stack = context.getStack();
+        output = context.getOutput();
+        if (variables == null) {
+            variables = context.getVariables(documentNode.getVariableSlots());
+            borrowedVariables = true;
+        }
+        return context;
     }
 
     /**
@@ -175,13 +960,226 @@ public class SmartScriptEngine {
      *             if a problem occurs with writing to context.
      */
     public void execute() throws IOException {
+        ExecutionContext context = borrow();
         try {
-            documentNode.accept(visitor);
+            if (parallelSections) {
+                executeSections();
+            } else {
+                documentNode.accept(visitor);
+            }
         } catch (VisitorException e) {
-            requestContext
-                    .write(e.getMessage()
-                            +
-                            "\nError occured with executing script. Check URL parameters.");
+            writeError(requestContext, e);
+        } finally {
+            giveBack(context);
+        }
+    }
+
+    /**
+     * Executes the children of the node.
+     * 
+     * @param node
+     *            whose children are executed.
+     */
+    private void executeChildren(Node node) {
+        ExecutionContext context = borrow();
+        try {
+            int size = node.numberOfChildren();
+            for (int i = 0; i < size; i++) {
+                node.getChild(i).accept(visitor);
+            }
+        } finally {
+            giveBack(context);
+        }
+    }
+
+    /**
+     * Renders a group of independent top-level sections in parallel, each part
+     * of the group by its own task. Outputs of parts are written and flushed
+     * in their order, each one as soon as it and all parts before it are
+     * done. If a part fails, the output and parameter changes of parts up to
+     * and including it are kept, as if the parts were rendered one after the
+     * other, the parts after it which have not started are skipped, and the
+     * running ones are waited for before the error is thrown.
+     * 
+     * @param parts
+     *            indices of the first sections of parts of the group,
+     *            followed by the index after its last section.
+     * @throws IOException
+     *             if a problem occurs with writing to context.
+     */
+    private void executeGroup(int[] parts) throws IOException {
+        int count = parts.length - 1;
+        ByteArrayOutputStream[] outputs = new ByteArrayOutputStream[count];
+        RequestContext[] fragments = new RequestContext[count];
+        List<CompletableFuture<Void>> futures = new ArrayList<>(count);
+        AtomicBoolean stopped = new AtomicBoolean();
+        for (int i = 0; i < count; i++) {
+            outputs[i] = new ByteArrayOutputStream();
+            fragments[i] = requestContext.createFragment(outputs[i]);
+            SmartScriptEngine engine = new SmartScriptEngine(this,
+                    documentNode, fragments[i], null);
+            int start = parts[i];
+            int end = parts[i + 1];
+            futures.add(CompletableFuture.runAsync(() -> {
+                if (!stopped.get()) {
+                    engine.run(start, end);
+                }
+            }));
+        }
+
+        int done = 0;
+        try {
+            for (CompletableFuture<Void> future : futures) {
+                RuntimeException error = null;
+                try {
+                    future.join();
+                } catch (CompletionException e) {
+                    error = e.getCause() instanceof RuntimeException
+                            ? (RuntimeException) e.getCause() : e;
+                }
+                ByteArrayOutputStream output = outputs[done++];
+                if (output.size() > 0) {
+                    requestContext.write(output.toByteArray());
+                    requestContext.flush();
+                }
+                if (error != null) {
+                    throw error;
+                }
+            }
+        } finally {
+            // parts after a failed one are never used
+            stopped.set(true);
+            for (int i = done; i < count; i++) {
+                try {
+                    futures.get(i).join();
+                } catch (CompletionException ignorable) {
+                }
+            }
+            requestContext.mergeFragments(
+                    Arrays.asList(fragments).subList(0, done));
+        }
+    }
+
+    /**
+     * Executes the top-level sections of the script, rendering groups of
+     * independent consecutive sections in parallel. The groups are found when
+     * the script is prepared, and otherwise on every execution.
+     * 
+     * @throws IOException
+     *             if a problem occurs with writing to context.
+     */
+    private void executeSections() throws IOException {
+        int[][] groups = documentNode.getSectionGroups();
+        if (groups == null) {
+            groups = SectionAnalyzer.group(documentNode);
+        }
+        for (int[] parts : groups) {
+            if (parts.length == 2) {
+                for (int i = parts[0]; i < parts[1]; i++) {
+                    documentNode.getChild(i).accept(visitor);
+                }
+            } else {
+                executeGroup(parts);
+            }
+        }
+    }
+
+    /**
+     * Returns the borrowed execution context to the pool, together with the
+     * memory taken from it.
+     * 
+     * @param context
+     *            which was borrowed by {@code borrow}.
+     */
+    private void giveBack(ExecutionContext context) {
+        stack = null;
+        output = null;
+        if (borrowedVariables) {
+            variables = null;
+            borrowedVariables = false;
         }
+        context.release();
+    }
+
+    /**
+     * Executes the node with memory borrowed from the execution context.
+     * 
+     * @param node
+     *            which is executed.
+     */
+    private void run(Node node) {
+        ExecutionContext context = borrow();
+        try {
+            node.accept(visitor);
+        } finally {
+            giveBack(context);
+        }
+    }
+
+    /**
+     * Executes the top-level sections of the document in the range with
+     * memory borrowed from the execution context.
+     * 
+     * @param start
+     *            index of the first section.
+     * @param end
+     *            index after the last section.
+     */
+    private void run(int start, int end) {
+        ExecutionContext context = borrow();
+        try {
+            for (int i = start; i < end; i++) {
+                documentNode.getChild(i).accept(visitor);
+            }
+        } finally {
+            giveBack(context);
+        }
+    }
+
+    /**
+     * Sets the budget which limits the execution. The budget is checked in
+     * every loop iteration and on every output, and when it is exceeded the
+     * execution stops with an {@code ExecutionLimitException}. Executions
+     * are not limited by default.
+     * 
+     * @param budget
+     *            which limits the execution, or null if it is not limited.
+     */
+    public void setBudget(ExecutionBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Sets the loader of documents included by the script. Without a loader,
+     * an INCLUDE tag stops the script with an error.
+     * 
+     * @param includeLoader
+     *            which gives included documents.
+     */
+    public void setIncludeLoader(IIncludeLoader includeLoader) {
+        this.includeLoader = includeLoader;
+    }
+
+    /**
+     * Sets the counter to which the numbers of executed loop iterations are
+     * added, including iterations of included scripts. A counter can be
+     * shared by many engines. Iterations are not counted by default.
+     * 
+     * @param iterations
+     *            counter of loop iterations, or null if they are not counted.
+     */
+    public void setIterationCounter(LongAdder iterations) {
+        this.iterations = iterations;
+    }
+
+    /**
+     * Sets whether independent top-level sections of the script are rendered
+     * in parallel. Off by default.
+     * 
+     * @param parallelSections
+     *            true if sections are rendered in parallel.
+     */
+    public void setParallelSections(boolean parallelSections) {
+        this.parallelSections = parallelSections;
     }
 }
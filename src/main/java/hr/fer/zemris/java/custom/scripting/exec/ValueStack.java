@@ -0,0 +1,396 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import hr.fer.zemris.java.custom.collections.EmptyStackException;
+
+/**
+ * Operand stack of the {@code SmartScriptEngine}. Holds values in the same
+ * tagged form as the {@code ValueWrapper}: integral numbers as longs, decimal
+ * numbers as doubles and text as Strings, kept in parallel arrays so that no
+ * number is ever boxed. Values are turned into text only when they are
+ * written.
+ * 
+ * <p>
+ * Slots are indexed from the bottom of the stack, so index 0 is the value that
+ * was pushed first and {@code size() - 1} is the top of the stack.
+ * 
+ * @author Erik Banek
+ */
+public class ValueStack {
+    /** Starting capacity of the stack. */
+    private static final int INITIAL_CAPACITY = 16;
+    /** Types of values in slots. */
+    private int[] types;
+    /** Integral values in slots. */
+    private long[] longs;
+    /** Decimal values in slots. */
+    private double[] doubles;
+    /** String values in slots. */
+    private String[] strings;
+    /** Number of values on the stack. */
+    private int size;
+
+    /**
+     * Basic constructor of empty stack.
+     */
+    public ValueStack() {
+        types = new int[INITIAL_CAPACITY];
+        longs = new long[INITIAL_CAPACITY];
+        doubles = new double[INITIAL_CAPACITY];
+        strings = new String[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Appends the text of the value in the slot to the builder. Numbers are
+     * appended without creating a String.
+     * 
+     * @param index
+     *            of slot.
+     * @param sb
+     *            builder to which the text is appended.
+     */
+    public void appendTo(int index, StringBuilder sb) {
+        checkIndex(index);
+        switch (types[index]) {
+        case ValueWrapper.TYPE_LONG:
+            sb.append(longs[index]);
+            break;
+        case ValueWrapper.TYPE_DOUBLE:
+            sb.append(doubles[index]);
+            break;
+        default:
+            sb.append(strings[index]);
+        }
+    }
+
+    /**
+     * Checks if the index points to a slot on the stack.
+     * 
+     * @param index
+     *            to be checked.
+     * @throws IndexOutOfBoundsException
+     *             if there is no slot with given index.
+     */
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    /**
+     * Checks if the stack has values.
+     * 
+     * @throws EmptyStackException
+     *             if stack is empty.
+     */
+    private void checkNotEmpty() {
+        if (size == 0) {
+            throw new EmptyStackException();
+        }
+    }
+
+    /**
+     * Empties the stack.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            strings[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * Removes the top value of the stack.
+     * 
+     * @throws EmptyStackException
+     *             if stack is empty on call.
+     */
+    public void discard() {
+        checkNotEmpty();
+        size--;
+        strings[size] = null;
+    }
+
+    /**
+     * Duplicates the top value of the stack.
+     * 
+     * @throws EmptyStackException
+     *             if stack is empty on call.
+     */
+    public void dup() {
+        checkNotEmpty();
+        int top = size - 1;
+        ensureCapacity();
+        types[size] = types[top];
+        longs[size] = longs[top];
+        doubles[size] = doubles[top];
+        strings[size] = strings[top];
+        size++;
+    }
+
+    /**
+     * Doubles the capacity of the stack if it is full.
+     */
+    private void ensureCapacity() {
+        if (size < types.length) {
+            return;
+        }
+        int capacity = types.length * 2;
+        int[] newTypes = new int[capacity];
+        long[] newLongs = new long[capacity];
+        double[] newDoubles = new double[capacity];
+        String[] newStrings = new String[capacity];
+        System.arraycopy(types, 0, newTypes, 0, size);
+        System.arraycopy(longs, 0, newLongs, 0, size);
+        System.arraycopy(doubles, 0, newDoubles, 0, size);
+        System.arraycopy(strings, 0, newStrings, 0, size);
+        types = newTypes;
+        longs = newLongs;
+        doubles = newDoubles;
+        strings = newStrings;
+    }
+
+    /**
+     * Gets the value in the slot as a double. Strings are parsed.
+     * 
+     * @param index
+     *            of slot.
+     * @return decimal value of slot.
+     * @throws IllegalArgumentException
+     *             if the slot holds a String that is not a number.
+     */
+    public double getDouble(int index) {
+        checkIndex(index);
+        switch (types[index]) {
+        case ValueWrapper.TYPE_LONG:
+            return longs[index];
+        case ValueWrapper.TYPE_DOUBLE:
+            return doubles[index];
+        default:
+            return ValueWrapper.parseDouble(strings[index]);
+        }
+    }
+
+    /**
+     * Gets the value in the slot as a long. Decimal numbers are truncated and
+     * Strings are parsed.
+     * 
+     * @param index
+     *            of slot.
+     * @return integral value of slot.
+     * @throws IllegalArgumentException
+     *             if the slot holds a String that is not an integral number.
+     */
+    public long getLong(int index) {
+        checkIndex(index);
+        switch (types[index]) {
+        case ValueWrapper.TYPE_LONG:
+            return longs[index];
+        case ValueWrapper.TYPE_DOUBLE:
+            return (long) doubles[index];
+        default:
+            return ValueWrapper.parseLong(strings[index]);
+        }
+    }
+
+    /**
+     * Gets the text of the value in the slot.
+     * 
+     * @param index
+     *            of slot.
+     * @return text of slot.
+     */
+    public String getString(int index) {
+        checkIndex(index);
+        switch (types[index]) {
+        case ValueWrapper.TYPE_LONG:
+            return Long.toString(longs[index]);
+        case ValueWrapper.TYPE_DOUBLE:
+            return Double.toString(doubles[index]);
+        default:
+            return strings[index];
+        }
+    }
+
+    /**
+     * Gets the type of the value in the slot.
+     * 
+     * @param index
+     *            of slot.
+     * @return one of {@code ValueWrapper.TYPE_LONG},
+     *         {@code ValueWrapper.TYPE_DOUBLE} or
+     *         {@code ValueWrapper.TYPE_STRING}.
+     */
+    public int getType(int index) {
+        checkIndex(index);
+        return types[index];
+    }
+
+    /**
+     * Checks if stack is empty.
+     * 
+     * @return true if stack is empty, false otherwise.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes the top value of the stack and returns it as a double.
+     * 
+     * @return decimal value of removed slot.
+     * @throws EmptyStackException
+     *             if stack is empty on call.
+     * @throws IllegalArgumentException
+     *             if the slot holds a String that is not a number.
+     */
+    public double popDouble() {
+        checkNotEmpty();
+        double value = getDouble(size - 1);
+        discard();
+        return value;
+    }
+
+    /**
+     * Removes the top value of the stack and returns its text.
+     * 
+     * @return text of removed slot.
+     * @throws EmptyStackException
+     *             if stack is empty on call.
+     */
+    public String popString() {
+        checkNotEmpty();
+        String value = getString(size - 1);
+        discard();
+        return value;
+    }
+
+    /**
+     * Pushes a decimal number on top of the stack.
+     * 
+     * @param value
+     *            to be pushed.
+     */
+    public void push(double value) {
+        ensureCapacity();
+        types[size] = ValueWrapper.TYPE_DOUBLE;
+        doubles[size] = value;
+        size++;
+    }
+
+    /**
+     * Pushes an integral number on top of the stack.
+     * 
+     * @param value
+     *            to be pushed.
+     */
+    public void push(long value) {
+        ensureCapacity();
+        types[size] = ValueWrapper.TYPE_LONG;
+        longs[size] = value;
+        size++;
+    }
+
+    /**
+     * Pushes a String on top of the stack.
+     * 
+     * @param value
+     *            to be pushed.
+     * @throws IllegalArgumentException
+     *             if value is null.
+     */
+    public void push(String value) {
+        if (value == null) {
+            throw new IllegalArgumentException();
+        }
+        ensureCapacity();
+        types[size] = ValueWrapper.TYPE_STRING;
+        strings[size] = value;
+        size++;
+    }
+
+    /**
+     * Pushes the value held by the wrapper on top of the stack.
+     * 
+     * @param value
+     *            whose value is pushed.
+     * @throws IllegalArgumentException
+     *             if the wrapper holds null.
+     */
+    public void push(ValueWrapper value) {
+        switch (value.getType()) {
+        case ValueWrapper.TYPE_LONG:
+            push(value.getLong());
+            break;
+        case ValueWrapper.TYPE_DOUBLE:
+            push(value.getDouble());
+            break;
+        default:
+            push(value.getString());
+        }
+    }
+
+    /**
+     * Gets the number of values on the stack.
+     * 
+     * @return current number of values on the stack.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Swaps the top two values of the stack.
+     * 
+     * @throws EmptyStackException
+     *             if the stack has less than two values.
+     */
+    public void swap() {
+        if (size < 2) {
+            throw new EmptyStackException();
+        }
+        int a = size - 1;
+        int b = size - 2;
+
+        int type = types[a];
+        types[a] = types[b];
+        types[b] = type;
+
+        long l = longs[a];
+        longs[a] = longs[b];
+        longs[b] = l;
+
+        double d = doubles[a];
+        doubles[a] = doubles[b];
+        doubles[b] = d;
+
+        String s = strings[a];
+        strings[a] = strings[b];
+        strings[b] = s;
+    }
+
+    /**
+     * Converts a String in the slot into the number it represents. A String
+     * that contains a dot or an exponent becomes a decimal number, every other
+     * an integral number. Slots holding numbers are left as they are.
+     * 
+     * @param index
+     *            of slot.
+     * @throws IllegalArgumentException
+     *             if the slot holds a String that is not a number.
+     */
+    public void toNumber(int index) {
+        checkIndex(index);
+        if (types[index] != ValueWrapper.TYPE_STRING) {
+            return;
+        }
+        String value = strings[index];
+        if (ValueWrapper.isDecimal(value)) {
+            doubles[index] = ValueWrapper.parseDouble(value);
+            types[index] = ValueWrapper.TYPE_DOUBLE;
+        } else {
+            longs[index] = ValueWrapper.parseLong(value);
+            types[index] = ValueWrapper.TYPE_LONG;
+        }
+        strings[index] = null;
+    }
+}
@@ -2,221 +2,120 @@ package hr.fer.zemris.java.custom.scripting.exec;
 
 /**
  * Wraps some value and provides basic numerical operations around that value if
- * that value is a number in Integer, Double or String form.
+ * that value is a number in Integer, Long, Double or String form.
+ * 
+ * <p>
+ * The value is held in a tagged form: as a primitive long, a primitive double
+ * or a String. Numbers are never boxed while calculating, and Strings are
+ * parsed only when they take part in a numerical operation. A String that
+ * contains a dot or an exponent is interpreted as a double, every other String
+ * as a long.
  * 
  * @author Erik Banek
  */
 public class ValueWrapper {
+    /** Type of value which is an integral number. */
+    public static final int TYPE_LONG = 0;
+    /** Type of value which is a decimal number. */
+    public static final int TYPE_DOUBLE = 1;
+    /** Type of value which is a String. */
+    public static final int TYPE_STRING = 2;
+
     /**
-     * Handles converting an Object into a number, and remembering if that
-     * number is a double or an int. Can convert Strings, Integers or Doubles.
-     * Also handles numerical operations.
+     * Converts the passed value into a wrapper holding a number. Wrappers
+     * which already hold a number are returned as they are.
      * 
-     * @author Erik Banek
+     * @param value
+     *            to be converted.
+     * @return wrapper holding a number.
+     * @throws IllegalArgumentException
+     *             if value is not a number in correct form.
      */
-    private static class intOrDoubleWrap {
-        /** Double value contained inside class. */
-        private Double doubleValue;
-        /** Integer value contained inside class. */
-        private Integer intValue;
-        /** Decides whether the contained value is an Integer od Double. */
-        private boolean isInteger;
-
-        /** Parsing helper. */
-
-        /**
-         * Constructs an intOrDoubleWrap instance. Null is interpreted as zero.
-         * 
-         * @param value
-         *            to be held. Must be a number in String, Integer, or Double
-         *            form.
-         * @throws IllegalArgumentException
-         *             if value is not a number in correct form.
-         */
-        private intOrDoubleWrap(Object value) {
-            if (value == null) {
-                this.doubleValue = 0.0;
-                this.intValue = 0;
-                this.isInteger = true;
-            } else if (value instanceof Integer) {
-                // if Integer we want double form
-                this.intValue = (Integer) value;
-                this.doubleValue = (double) this.intValue;
-                this.isInteger = true;
-            } else if (value instanceof String) {
-                createFromString((String) value);
-            } else if (value instanceof Double) {
-                // if double, that form is the only one we care about
-                this.doubleValue = (Double) value;
-                this.intValue = -1;
-                this.isInteger = false;
-            } else {
-                throw new IllegalArgumentException(
-                        "Problems with interpreting the argument as a number!");
-            }
-        }
-
-        /**
-         * Checks if both wraps contain Integer values.
-         * 
-         * @param wrap1
-         *            first argument to check
-         * @param wrap2
-         *            second argument to check
-         * @return true if both parameters are int
-         */
-        private boolean bothInt(intOrDoubleWrap wrap1, intOrDoubleWrap wrap2) {
-            return wrap1.isInteger && wrap2.isInteger;
-        }
-
-        /**
-         * Handles creating the class from a String literal and deciding whether
-         * it is an int or double.
-         * 
-         * @param value
-         *            String literal which holds the number.
-         */
-        private void createFromString(String value) {
-            if (value.indexOf("E") != -1 || value.indexOf("e") != -1
-                    || value.indexOf(".") != -1) {
-                this.isInteger = false;
-            } else {
-                this.isInteger = true;
-            }
-            parse(value);
-        }
-
-        /**
-         * Subtracts two wraps and returns result.
-         * 
-         * @param wrap2
-         *            value for which this wrap is decremented and result
-         *            returned.
-         * @return result of subtraction.
-         */
-        private Object decrement(intOrDoubleWrap wrap2) {
-            if (bothInt(this, wrap2)) {
-                return this.intValue - wrap2.intValue;
-            } else {
-                return this.doubleValue - wrap2.doubleValue;
-            }
+    private static ValueWrapper asNumber(Object value) {
+        if (value instanceof ValueWrapper
+                && ((ValueWrapper) value).type != TYPE_STRING) {
+            return (ValueWrapper) value;
         }
+        ValueWrapper number = new ValueWrapper(value);
+        number.toNumber();
+        return number;
+    }
 
-        /**
-         * Divides two wraps integrally or as floating point decimals. Integral
-         * division is only if both wraps contain integers.
-         * 
-         * @param wrap2
-         *            divisor.
-         * @return result of division.
-         */
-        private Object divide(intOrDoubleWrap wrap2) {
-            if (bothInt(this, wrap2)) {
-                return this.intValue / wrap2.intValue;
-            } else {
-                return this.doubleValue / wrap2.doubleValue;
-            }
-        }
+    /**
+     * Checks if the String holds a decimal number, and not an integral one.
+     * 
+     * @param value
+     *            String to be checked.
+     * @return true iff the String should be parsed as a double.
+     */
+    static boolean isDecimal(String value) {
+        return value.indexOf('E') != -1 || value.indexOf('e') != -1
+                || value.indexOf('.') != -1;
+    }
 
-        /**
-         * Adds two wraps and returns result.
-         * 
-         * @param wrap2
-         *            value for which this wrap is incremented and result
-         *            returned.
-         * @return result of addition.
-         */
-        private Object increment(intOrDoubleWrap wrap2) {
-            if (bothInt(this, wrap2)) {
-                return this.intValue + wrap2.intValue;
-            } else {
-                return this.doubleValue + wrap2.doubleValue;
-            }
+    /**
+     * Parses a decimal number. Formats that can be parsed are formats that the
+     * java {@code Double.parseDouble} knows.
+     * 
+     * @param value
+     *            String containing the number.
+     * @return parsed number.
+     * @throws IllegalArgumentException
+     *             if value cannot be parsed.
+     */
+    static double parseDouble(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Problem with parsing number!");
         }
+    }
 
-        /**
-         * Multiplies two wraps and returns result.
-         * 
-         * @param wrap2
-         *            multiplier.
-         * @return result of multiplication.
-         */
-        private Object multiply(intOrDoubleWrap wrap2) {
-            if (bothInt(this, wrap2)) {
-                return this.intValue * wrap2.intValue;
-            } else {
-                return this.doubleValue * wrap2.doubleValue;
-            }
+    /**
+     * Parses an integral number.
+     * 
+     * @param value
+     *            String containing the number.
+     * @return parsed number.
+     * @throws IllegalArgumentException
+     *             if value cannot be parsed.
+     */
+    static long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Problem with parsing number!");
         }
+    }
 
-        /**
-         * Compares two intOrDoubleWrap-s. Compares them as one would normally
-         * expect, as numbers.
-         * 
-         * @param toCompare
-         *            value with which this value will be compared.
-         * @return 1 if this i greater than arg, -1 if arg is greater than this,
-         *         equal otherwise.
-         */
-        private int numCompare(intOrDoubleWrap toCompare) {
-            if (bothInt(this, toCompare)) {
-                int val1 = this.intValue;
-                int val2 = toCompare.intValue;
-                if (val1 < val2) {
-                    return -1;
-                } else if (val1 > val2) {
-                    return 1;
-                } else {
-                    return 0;
-                }
-            } else {
-                if (this.doubleValue < toCompare.doubleValue) {
-                    return -1;
-                } else if (this.doubleValue > toCompare.doubleValue) {
-                    return 1;
-                } else {
-                    return 0;
-                }
-            }
-        }
+    /** Type of the held value. */
+    private int type;
+    /** Held value if it is an integral number. */
+    private long longValue;
+    /** Held value if it is a decimal number. */
+    private double doubleValue;
+    /** Held value if it is a String. */
+    private String stringValue;
 
-        /**
-         * Parses the value contained in the String and stores it. Formats that
-         * can be parsed are formats that the java {@code Double.parseDouble}
-         * knows.
-         * 
-         * @param value
-         *            which will be parsed.
-         * @throws if
-         *             value cannot be parsed.
-         */
-        private void parse(String value) {
-            try {
-                if (this.isInteger) {
-                    this.intValue = Integer.parseInt(value);
-                    this.doubleValue = (double) this.intValue;
-                } else {
-                    this.intValue = -1;
-                    this.doubleValue = Double.parseDouble(value);
-                }
-            } catch (NumberFormatException e) {
-                throw new IllegalArgumentException(
-                        "Problem with parsing number!");
-            }
-        }
+    /**
+     * Constructs a wrapper holding the integral zero.
+     */
+    public ValueWrapper() {
+        setLong(0);
     }
 
-    /** Value which the wrapper holds. */
-    private Object value;
-
     /**
      * Constructor.
      * 
      * @param value
-     *            which the wrapper will hold.
+     *            which the wrapper will hold. Null is interpreted as zero in
+     *            numerical operations.
+     * @throws IllegalArgumentException
+     *             if value is not a String, Integer, Long, Double or
+     *             {@code ValueWrapper}.
      */
     public ValueWrapper(Object value) {
-        this.value = value;
+        setValue(value);
     }
 
     /**
@@ -227,24 +126,27 @@ public class ValueWrapper {
      * @return this object after addition.
      */
     public ValueWrapper add(ValueWrapper b) {
-        this.increment(b.value);
-        return new ValueWrapper(this.value);
+        this.increment(b);
+        return new ValueWrapper(this);
     }
 
     /**
-     * Subtracts the value of this object with the passed value. Delegates
-     * subtraction to the intOrDoubleWrap class.
+     * Subtracts the value of this object with the passed value.
      * 
      * @param decValue
      *            for which the value will be decreased.
      * @throws IllegalArgumentException
      *             if wrapped value or passed argument are not numbers in
-     *             String, Integer or Double form.
+     *             String, Integer, Long, Double or {@code ValueWrapper} form.
      */
     public void decrement(Object decValue) {
-        intOrDoubleWrap wrap1 = new intOrDoubleWrap(this.value);
-        intOrDoubleWrap wrap2 = new intOrDoubleWrap(decValue);
-        this.value = wrap1.decrement(wrap2);
+        ValueWrapper other = asNumber(decValue);
+        toNumber();
+        if (type == TYPE_LONG && other.type == TYPE_LONG) {
+            setLong(longValue - other.longValue);
+        } else {
+            setDouble(getDouble() - other.getDouble());
+        }
     }
 
     /**
@@ -255,49 +157,112 @@ public class ValueWrapper {
      * @return this object after division.
      */
     public ValueWrapper div(ValueWrapper b) {
-        this.divide(b.value);
-        return new ValueWrapper(this.value);
+        this.divide(b);
+        return new ValueWrapper(this);
     }
 
     /**
-     * Divides the value of this object with the passed value. Delegates
-     * division to the intOrDoubleWrap class.
+     * Divides the value of this object with the passed value. Integral
+     * division is only if both values are integral.
      * 
      * @param divValue
      *            with which this.value will be divided.
      * @throws IllegalArgumentException
      *             if wrapped value or passed argument are not numbers in
-     *             String, Integer or Double form.
+     *             String, Integer, Long, Double or {@code ValueWrapper} form.
      */
     public void divide(Object divValue) {
-        intOrDoubleWrap wrap1 = new intOrDoubleWrap(this.value);
-        intOrDoubleWrap wrap2 = new intOrDoubleWrap(divValue);
-        this.value = wrap1.divide(wrap2);
+        ValueWrapper other = asNumber(divValue);
+        toNumber();
+        if (type == TYPE_LONG && other.type == TYPE_LONG) {
+            setLong(longValue / other.longValue);
+        } else {
+            setDouble(getDouble() / other.getDouble());
+        }
     }
 
     /**
-     * Value getter.
+     * Gets the held number as a double.
+     * 
+     * @return held number.
+     * @throws IllegalArgumentException
+     *             if held value is a String that is not a number.
+     */
+    public double getDouble() {
+        if (type == TYPE_LONG) {
+            return longValue;
+        } else if (type == TYPE_DOUBLE) {
+            return doubleValue;
+        }
+        return stringValue == null ? 0 : parseDouble(stringValue);
+    }
+
+    /**
+     * Gets the held integral number. Decimal numbers are truncated.
+     * 
+     * @return held number.
+     * @throws IllegalArgumentException
+     *             if held value is a String that is not a number.
+     */
+    public long getLong() {
+        if (type == TYPE_LONG) {
+            return longValue;
+        } else if (type == TYPE_DOUBLE) {
+            return (long) doubleValue;
+        }
+        return stringValue == null ? 0 : parseLong(stringValue);
+    }
+
+    /**
+     * Gets the held String, or null if a number is held.
+     * 
+     * @return held String.
+     */
+    public String getString() {
+        return type == TYPE_STRING ? stringValue : null;
+    }
+
+    /**
+     * Gets the type of held value.
+     * 
+     * @return one of {@code TYPE_LONG}, {@code TYPE_DOUBLE} or
+     *         {@code TYPE_STRING}.
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Value getter. Numbers are boxed into a Long or a Double.
      * 
      * @return value that is wrapped around.
      */
     public Object getValue() {
-        return this.value;
+        if (type == TYPE_LONG) {
+            return longValue;
+        } else if (type == TYPE_DOUBLE) {
+            return doubleValue;
+        }
+        return stringValue;
     }
 
     /**
-     * Adds the passed value to the value of this object. Delegates addition to
-     * the intOrDoubleWrap class.
+     * Adds the passed value to the value of this object.
      * 
      * @param incValue
      *            for which the value will be increased.
      * @throws IllegalArgumentException
      *             if wrapped value or passed argument are not numbers in
-     *             String, Integer or Double form.
+     *             String, Integer, Long, Double or {@code ValueWrapper} form.
      */
     public void increment(Object incValue) {
-        intOrDoubleWrap wrap1 = new intOrDoubleWrap(this.value);
-        intOrDoubleWrap wrap2 = new intOrDoubleWrap(incValue);
-        this.value = wrap1.increment(wrap2);
+        ValueWrapper other = asNumber(incValue);
+        toNumber();
+        if (type == TYPE_LONG && other.type == TYPE_LONG) {
+            setLong(longValue + other.longValue);
+        } else {
+            setDouble(getDouble() + other.getDouble());
+        }
     }
 
     /**
@@ -308,29 +273,32 @@ public class ValueWrapper {
      * @return this object after multiplication.
      */
     public ValueWrapper mul(ValueWrapper b) {
-        this.multiply(b.value);
-        return new ValueWrapper(this.value);
+        this.multiply(b);
+        return new ValueWrapper(this);
     }
 
     /**
-     * Multiplies the value of this object with the passed value. Delegates
-     * multiplication to the intOrDoubleWrap class.
+     * Multiplies the value of this object with the passed value.
      * 
      * @param mulValue
      *            with which this.value will be multiplied.
      * @throws IllegalArgumentException
      *             if wrapped value or passed argument are not numbers in
-     *             String, Integer or Double form.
+     *             String, Integer, Long, Double or {@code ValueWrapper} form.
      */
     public void multiply(Object mulValue) {
-        intOrDoubleWrap wrap1 = new intOrDoubleWrap(this.value);
-        intOrDoubleWrap wrap2 = new intOrDoubleWrap(mulValue);
-        this.value = wrap1.multiply(wrap2);
+        ValueWrapper other = asNumber(mulValue);
+        toNumber();
+        if (type == TYPE_LONG && other.type == TYPE_LONG) {
+            setLong(longValue * other.longValue);
+        } else {
+            setDouble(getDouble() * other.getDouble());
+        }
     }
 
     /**
-     * Compares numerically this.value with passed value. Delegates comparing to
-     * the intOrDoubleWrap class. Does not work with non-numbers.
+     * Compares numerically this.value with passed value. Does not work with
+     * non-numbers.
      * 
      * @param withValue
      *            with which the current value will be numerically compared.
@@ -338,12 +306,58 @@ public class ValueWrapper {
      *         greater, 0 if equal.
      * @throws IllegalArgumentException
      *             if wrapped value or passed argument are not numbers in
-     *             String, Integer or Double form.
+     *             String, Integer, Long, Double or {@code ValueWrapper} form.
      */
     public int numCompare(Object withValue) {
-        intOrDoubleWrap wrap1 = new intOrDoubleWrap(this.value);
-        intOrDoubleWrap wrap2 = new intOrDoubleWrap(withValue);
-        return wrap1.numCompare(wrap2);
+        ValueWrapper other = asNumber(withValue);
+        ValueWrapper self = asNumber(this);
+        if (self.type == TYPE_LONG && other.type == TYPE_LONG) {
+            return Long.compare(self.longValue, other.longValue);
+        }
+        double val1 = self.getDouble();
+        double val2 = other.getDouble();
+        if (val1 < val2) {
+            return -1;
+        } else if (val1 > val2) {
+            return 1;
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Sets the held value to a decimal number.
+     * 
+     * @param value
+     *            new wrapped value.
+     */
+    public void setDouble(double value) {
+        this.type = TYPE_DOUBLE;
+        this.doubleValue = value;
+        this.stringValue = null;
+    }
+
+    /**
+     * Sets the held value to an integral number.
+     * 
+     * @param value
+     *            new wrapped value.
+     */
+    public void setLong(long value) {
+        this.type = TYPE_LONG;
+        this.longValue = value;
+        this.stringValue = null;
+    }
+
+    /**
+     * Sets the held value to a String.
+     * 
+     * @param value
+     *            new wrapped value.
+     */
+    public void setString(String value) {
+        this.type = TYPE_STRING;
+        this.stringValue = value;
     }
 
     /**
@@ -351,9 +365,27 @@ public class ValueWrapper {
      * 
      * @param value
      *            new wrapped value.
+     * @throws IllegalArgumentException
+     *             if value is not a String, Integer, Long, Double or
+     *             {@code ValueWrapper}.
      */
     public void setValue(Object value) {
-        this.value = value;
+        if (value == null || value instanceof String) {
+            setString((String) value);
+        } else if (value instanceof Integer || value instanceof Long) {
+            setLong(((Number) value).longValue());
+        } else if (value instanceof Double) {
+            setDouble((Double) value);
+        } else if (value instanceof ValueWrapper) {
+            ValueWrapper other = (ValueWrapper) value;
+            this.type = other.type;
+            this.longValue = other.longValue;
+            this.doubleValue = other.doubleValue;
+            this.stringValue = other.stringValue;
+        } else {
+            throw new IllegalArgumentException(
+                    "Problems with interpreting the argument as a number!");
+        }
     }
 
     /**
@@ -364,18 +396,37 @@ public class ValueWrapper {
      * @return this object after subtraction.
      */
     public ValueWrapper sub(ValueWrapper b) {
-        this.decrement(b.value);
-        return new ValueWrapper(this.value);
+        this.decrement(b);
+        return new ValueWrapper(this);
+    }
+
+    /**
+     * Converts a held String into the number it represents. Null is converted
+     * to integral zero. Held numbers are left as they are.
+     * 
+     * @throws IllegalArgumentException
+     *             if held String is not a number.
+     */
+    public void toNumber() {
+        if (type != TYPE_STRING) {
+            return;
+        }
+        if (stringValue == null) {
+            setLong(0);
+        } else if (isDecimal(stringValue)) {
+            setDouble(parseDouble(stringValue));
+        } else {
+            setLong(parseLong(stringValue));
+        }
     }
 
     @Override
     public String toString() {
-        if (this.value instanceof String) {
-            return (String) this.value;
-        } else if (this.value instanceof Integer) {
-            return Integer.valueOf((Integer) this.value).toString();
-        } else {
-            return Double.valueOf((Double) this.value).toString();
+        if (type == TYPE_LONG) {
+            return Long.toString(longValue);
+        } else if (type == TYPE_DOUBLE) {
+            return Double.toString(doubleValue);
         }
+        return stringValue;
     }
 }
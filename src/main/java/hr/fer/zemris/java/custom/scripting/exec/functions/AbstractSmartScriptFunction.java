@@ -1,9 +1,12 @@
 package hr.fer.zemris.java.custom.scripting.exec.functions;
 
-import hr.fer.zemris.java.custom.collections.ObjectStack;
+import hr.fer.zemris.java.custom.scripting.exec.ValueStack;
 
 /**
  * Functions which has a check for number of arguments needed for its execution.
+ * The access and thread safety of the function are given to the constructor.
+ * A function that does not describe them is assumed to be pure, or to use the
+ * context in an unknown way and not be thread-safe.
  * 
  * @author Erik Banek
  */
@@ -11,6 +14,12 @@ public abstract class AbstractSmartScriptFunction implements
         ISmartScriptFunction {
     /** Args needed for execution. */
     private int argumentsNeeded;
+    /** True if the function is pure. */
+    private boolean pure;
+    /** Access flags of the function. */
+    private int access;
+    /** True if the function is thread-safe. */
+    private boolean threadSafe;
 
     /**
      * Constructor.
@@ -19,7 +28,43 @@ public abstract class AbstractSmartScriptFunction implements
      *            for execution of fucntion.
      */
     public AbstractSmartScriptFunction(int argumentsNeeded) {
+        this(argumentsNeeded, false);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param argumentsNeeded
+     *            for execution of function.
+     * @param pure
+     *            true if the function pops exactly its arguments and pushes a
+     *            single result which depends only on them.
+     */
+    public AbstractSmartScriptFunction(int argumentsNeeded, boolean pure) {
+        this(argumentsNeeded, pure, pure ? 0 : OTHER_ACCESS, pure);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param argumentsNeeded
+     *            for execution of function.
+     * @param pure
+     *            true if the function pops exactly its arguments and pushes a
+     *            single result which depends only on them.
+     * @param access
+     *            flags of everything that the function reads or writes
+     *            besides the stack.
+     * @param threadSafe
+     *            true if the function can be applied by many threads at the
+     *            same time.
+     */
+    public AbstractSmartScriptFunction(int argumentsNeeded, boolean pure,
+            int access, boolean threadSafe) {
         this.argumentsNeeded = argumentsNeeded;
+        this.pure = pure;
+        this.access = access;
+        this.threadSafe = threadSafe;
     }
 
     /**
@@ -30,11 +75,36 @@ public abstract class AbstractSmartScriptFunction implements
      * @throws IllegalArgumentException
      *             if stack is not big enough.
      */
-    protected void check(ObjectStack stack) throws IllegalArgumentException {
+    protected void check(ValueStack stack) throws IllegalArgumentException {
         if (stack.size() < argumentsNeeded) {
             throw new IllegalArgumentException(
                     "Not enough arguments for operation: " +
                             this.getClass().getSimpleName());
         }
     }
+
+    @Override
+    public int getAccess() {
+        return access;
+    }
+
+    @Override
+    public int getArity() {
+        return argumentsNeeded;
+    }
+
+    @Override
+    public boolean isPure() {
+        return pure;
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return threadSafe;
+    }
+
+    @Override
+    public boolean usesContext() {
+        return (access & ~READS_ENVIRONMENT) != 0;
+    }
 }
@@ -1,36 +1,62 @@
 package hr.fer.zemris.java.custom.scripting.exec.functions;
 
-import hr.fer.zemris.java.custom.collections.ObjectStack;
+import hr.fer.zemris.java.custom.scripting.exec.ValueStack;
 import hr.fer.zemris.java.custom.scripting.exec.ValueWrapper;
 import hr.fer.zemris.java.webserver.RequestContext;
 
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.LongBinaryOperator;
+
 /**
- * Binary function which does some calculation with two {@code ValueWrapper}s.
+ * Binary function which does some calculation with the two numbers on top of
+ * the stack. The calculation is integral if both numbers are integral, and
+ * decimal otherwise. The top number is the first argument of calculation.
  * 
  * @author Erik Banek
  */
 public class BinarySmartFunction extends AbstractSmartScriptFunction {
-    /** Function which does the actual calculation. */
-    private IBinaryFunction function;
+    /** Calculation on integral numbers. */
+    private LongBinaryOperator longFunction;
+    /** Calculation on decimal numbers. */
+    private DoubleBinaryOperator doubleFunction;
 
     /**
      * Constructor.
      * 
-     * @param function
-     *            the calculation part.
+     * @param longFunction
+     *            the calculation part for integral numbers.
+     * @param doubleFunction
+     *            the calculation part for decimal numbers.
      */
-    public BinarySmartFunction(IBinaryFunction function) {
-        super(2);
-        this.function = function;
+    public BinarySmartFunction(LongBinaryOperator longFunction,
+            DoubleBinaryOperator doubleFunction) {
+        super(2, true, 0, true);
+        this.longFunction = longFunction;
+        this.doubleFunction = doubleFunction;
     }
 
     @Override
-    public void apply(ObjectStack stack, RequestContext rc)
+    public void apply(ValueStack stack, RequestContext rc)
             throws IllegalArgumentException, ClassCastException {
         check(stack);
-        ValueWrapper a = new ValueWrapper(stack.pop());
-        ValueWrapper b = new ValueWrapper(stack.pop());
-        stack.push(function.operate(a, b).toString());
+        int a = stack.size() - 1;
+        int b = a - 1;
+        stack.toNumber(a);
+        stack.toNumber(b);
+        if (stack.getType(a) == ValueWrapper.TYPE_LONG
+                && stack.getType(b) == ValueWrapper.TYPE_LONG) {
+            long result = longFunction.applyAsLong(stack.getLong(a),
+                    stack.getLong(b));
+            stack.discard();
+            stack.discard();
+            stack.push(result);
+        } else {
+            double result = doubleFunction.applyAsDouble(stack.getDouble(a),
+                    stack.getDouble(b));
+            stack.discard();
+            stack.discard();
+            stack.push(result);
+        }
     }
 
 }
@@ -0,0 +1,18 @@
+package hr.fer.zemris.java.custom.scripting.exec.functions;
+
+/**
+ * Formats numbers into text by some pattern. Formatters can be shared
+ * between threads.
+ * 
+ * @author Erik Banek
+ */
+public interface INumberFormatter {
+    /**
+     * Formats the number.
+     * 
+     * @param number
+     *            which is formatted.
+     * @return formatted number.
+     */
+    String format(double number);
+}
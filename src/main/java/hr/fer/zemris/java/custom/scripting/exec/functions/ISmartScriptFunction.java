@@ -1,15 +1,50 @@
 package hr.fer.zemris.java.custom.scripting.exec.functions;
 
-import hr.fer.zemris.java.custom.collections.ObjectStack;
+import hr.fer.zemris.java.custom.scripting.exec.ValueStack;
 import hr.fer.zemris.java.webserver.RequestContext;
 
 /**
  * Function which does something on the given stack, and possibly gets/sets the
  * values on the {@code RequestContext}.
  * 
+ * <p>
+ * Besides applying it, a function describes itself, so that the engine knows
+ * what it may do with its calls: results of pure functions with constant
+ * arguments are calculated once when a script is linked, and sections of a
+ * script are rendered in parallel only if their functions are thread-safe and
+ * their accesses of the context do not conflict. Accesses are described by
+ * flags. The defaults describe a function of which nothing is known.
+ * 
  * @author Erik Banek
  */
 public interface ISmartScriptFunction {
+    /** Access of a function that reads request parameters. */
+    int READS_PARAMETERS = 1;
+    /** Access of a function that reads temporary parameters. */
+    int READS_TEMPORARY = 2;
+    /** Access of a function that writes temporary parameters. */
+    int WRITES_TEMPORARY = 4;
+    /** Access of a function that reads persistent parameters. */
+    int READS_PERSISTENT = 8;
+    /** Access of a function that writes persistent parameters. */
+    int WRITES_PERSISTENT = 16;
+    /**
+     * Access of a function that reads parameters or counters of the
+     * application.
+     */
+    int READS_APPLICATION = 32;
+    /**
+     * Access of a function that writes parameters or counters of the
+     * application.
+     */
+    int WRITES_APPLICATION = 64;
+    /** Access of a function that changes the header of the response. */
+    int WRITES_RESPONSE = 128;
+    /** Access of a function whose result depends on more than its arguments. */
+    int READS_ENVIRONMENT = 256;
+    /** Access of a function that uses the context in some other way. */
+    int OTHER_ACCESS = 512;
+
     /**
      * Applies the function.
      * 
@@ -22,6 +57,76 @@ public interface ISmartScriptFunction {
      * @throws ClassCastException
      *             if a problem occurs with expected value format.
      */
-    void apply(ObjectStack stack, RequestContext rc)
+    void apply(ValueStack stack, RequestContext rc)
             throws IllegalArgumentException, ClassCastException;
+
+    /**
+     * Binds the last argument of the function, when it is a string constant
+     * in the script, so that the work which depends only on that argument is
+     * done once for the call site and not on every call. The bound function
+     * does not pop the bound argument.
+     * 
+     * @param argument
+     *            constant value of the last argument.
+     * @return bound function, or null if the function does not bind
+     *         arguments.
+     * @throws IllegalArgumentException
+     *             if the argument is not valid for the function.
+     */
+    default ISmartScriptFunction bind(String argument)
+            throws IllegalArgumentException {
+        return null;
+    }
+
+    /**
+     * Gets the flags of everything that the function reads or writes besides
+     * the stack. By default, a function that uses the context may access
+     * anything, and one that does not is described by its purity.
+     * 
+     * @return access flags of the function.
+     */
+    default int getAccess() {
+        if (usesContext()) {
+            return OTHER_ACCESS;
+        }
+        return isPure() ? 0 : READS_ENVIRONMENT;
+    }
+
+    /**
+     * Gets the number of arguments which the function pops.
+     * 
+     * @return number of arguments, or -1 if it is not fixed.
+     */
+    default int getArity() {
+        return -1;
+    }
+
+    /**
+     * Checks if the function is pure: it pops {@code getArity()} arguments
+     * and pushes a single result which depends only on them, and it does not
+     * use the context. Results of pure functions can be remembered.
+     * 
+     * @return true if the function is pure.
+     */
+    default boolean isPure() {
+        return false;
+    }
+
+    /**
+     * Checks if the function can be applied by many threads at the same time.
+     * 
+     * @return true if the function is thread-safe.
+     */
+    default boolean isThreadSafe() {
+        return false;
+    }
+
+    /**
+     * Checks if the function gets or sets anything on the context.
+     * 
+     * @return true if the function uses the context.
+     */
+    default boolean usesContext() {
+        return true;
+    }
 }
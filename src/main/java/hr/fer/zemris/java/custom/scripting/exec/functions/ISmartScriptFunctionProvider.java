@@ -0,0 +1,28 @@
+package hr.fer.zemris.java.custom.scripting.exec.functions;
+
+import java.util.Map;
+
+/**
+ * Provider of functions which are added to the functions of scripts. Providers
+ * are found by {@code java.util.ServiceLoader}, so a provider is registered by
+ * naming its class in the file
+ * {@code META-INF/services/hr.fer.zemris.java.custom.scripting.exec.functions.ISmartScriptFunctionProvider}
+ * on the class path.
+ * 
+ * <p>
+ * Functions describe their arity, purity, thread-safety and usage of the
+ * context through {@code ISmartScriptFunction}, and the engine optimizes their
+ * calls by that description, so it must be true. A function with the name of
+ * a built-in function is ignored.
+ * 
+ * @author Erik Banek
+ */
+public interface ISmartScriptFunctionProvider {
+    /**
+     * Gets the provided functions mapped to their names, by which scripts
+     * call them.
+     * 
+     * @return map of functions.
+     */
+    Map<String, ISmartScriptFunction> getFunctions();
+}
@@ -0,0 +1,337 @@
+package hr.fer.zemris.java.custom.scripting.exec.functions;
+
+import hr.fer.zemris.java.custom.scripting.exec.ValueStack;
+import hr.fer.zemris.java.custom.scripting.exec.ValueWrapper;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pure function which remembers its results, so that it is not calculated
+ * again for the same arguments. Results are kept in a bounded table indexed by
+ * the hash of the arguments, and a new result replaces the one in its place,
+ * so the table never grows and needs no locking.
+ * 
+ * <p>
+ * Numbers are compared by their bits without being boxed, so a call whose
+ * result is remembered allocates nothing. Arguments of different types are
+ * different keys, even when they have the same value. A function bound at a
+ * call site remembers its own results, and is counted together with the
+ * function which it was bound from.
+ * 
+ * @author Erik Banek
+ */
+public class MemoizedFunction implements ISmartScriptFunction {
+    /**
+     * Arguments of a call and its result. Immutable so it can be safely
+     * replaced while other threads read it.
+     * 
+     * @author Erik Banek
+     */
+    private static class Entry {
+        /** Types of arguments. */
+        private final int[] types;
+        /** Bits of numeric arguments. */
+        private final long[] bits;
+        /** String arguments, null for numbers. */
+        private final String[] strings;
+        /** Type of result. */
+        private final int resultType;
+        /** Bits of numeric result. */
+        private final long resultBits;
+        /** String result, null for numbers. */
+        private final String resultString;
+
+        /**
+         * Constructor.
+         * 
+         * @param types
+         *            of arguments.
+         * @param bits
+         *            of numeric arguments.
+         * @param strings
+         *            arguments, null for numbers.
+         * @param resultType
+         *            type of result.
+         * @param resultBits
+         *            bits of numeric result.
+         * @param resultString
+         *            string result, null for numbers.
+         */
+        private Entry(int[] types, long[] bits, String[] strings,
+                int resultType, long resultBits, String resultString) {
+            this.types = types;
+            this.bits = bits;
+            this.strings = strings;
+            this.resultType = resultType;
+            this.resultBits = resultBits;
+            this.resultString = resultString;
+        }
+    }
+
+    /**
+     * Gets the bits of the numeric value in the slot of the stack.
+     * 
+     * @param stack
+     *            which holds the value.
+     * @param index
+     *            of slot.
+     * @return bits of the value, 0 for strings.
+     */
+    private static long bitsOf(ValueStack stack, int index) {
+        switch (stack.getType(index)) {
+        case ValueWrapper.TYPE_LONG:
+            return stack.getLong(index);
+        case ValueWrapper.TYPE_DOUBLE:
+            return Double.doubleToRawLongBits(stack.getDouble(index));
+        default:
+            return 0;
+        }
+    }
+
+    /** Function whose results are remembered. */
+    private final ISmartScriptFunction function;
+    /** Number of arguments of function. */
+    private final int arity;
+    /** Remembered results, indexed by hash of arguments. */
+    private final AtomicReferenceArray<Entry> entries;
+    /** Number of calls whose result was remembered. */
+    private final LongAdder hits;
+    /** Number of calls which were calculated. */
+    private final LongAdder misses;
+
+    /**
+     * Constructor.
+     * 
+     * @param function
+     *            pure function whose results are remembered.
+     * @param capacity
+     *            number of results which can be remembered, rounded up to a
+     *            power of two.
+     * @throws IllegalArgumentException
+     *             if the function is not pure, or the capacity is not
+     *             positive.
+     */
+    public MemoizedFunction(ISmartScriptFunction function, int capacity) {
+        this(function, capacity, new LongAdder(), new LongAdder());
+    }
+
+    /**
+     * Constructor of a function which counts its calls with the given
+     * counters, so that functions bound at call sites are counted together
+     * with the function which they were bound from.
+     * 
+     * @param function
+     *            pure function whose results are remembered.
+     * @param capacity
+     *            number of results which can be remembered, rounded up to a
+     *            power of two.
+     * @param hits
+     *            counter of calls whose result was remembered.
+     * @param misses
+     *            counter of calls which were calculated.
+     * @throws IllegalArgumentException
+     *             if the function is not pure, or the capacity is not
+     *             positive.
+     */
+    private MemoizedFunction(ISmartScriptFunction function, int capacity,
+            LongAdder hits, LongAdder misses) {
+        if (!function.isPure() || function.getArity() < 0) {
+            throw new IllegalArgumentException(
+                    "Only pure functions can be memoized!");
+        }
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity " + capacity
+                    + " is not valid!");
+        }
+        this.function = function;
+        this.arity = function.getArity();
+        this.hits = hits;
+        this.misses = misses;
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.entries = new AtomicReferenceArray<>(size);
+    }
+
+    @Override
+    public void apply(ValueStack stack, RequestContext rc)
+            throws IllegalArgumentException, ClassCastException {
+        int first = stack.size() - arity;
+        if (first < 0) {
+            function.apply(stack, rc);
+            return;
+        }
+        int index = hash(stack, first) & (entries.length() - 1);
+        Entry entry = entries.get(index);
+        if (entry != null && matches(entry, stack, first)) {
+            hits.increment();
+            for (int i = 0; i < arity; i++) {
+                stack.discard();
+            }
+            push(stack, entry);
+            return;
+        }
+
+        misses.increment();
+        int[] types = new int[arity];
+        long[] bits = new long[arity];
+        String[] strings = new String[arity];
+        for (int i = 0; i < arity; i++) {
+            types[i] = stack.getType(first + i);
+            if (types[i] == ValueWrapper.TYPE_STRING) {
+                strings[i] = stack.getString(first + i);
+            } else {
+                bits[i] = bitsOf(stack, first + i);
+            }
+        }
+        function.apply(stack, rc);
+        int top = stack.size() - 1;
+        if (top != first) {
+            // function did not leave a single result in place of arguments
+            return;
+        }
+        int resultType = stack.getType(top);
+        entries.set(index, new Entry(types, bits, strings, resultType,
+                bitsOf(stack, top), resultType == ValueWrapper.TYPE_STRING
+                        ? stack.getString(top) : null));
+    }
+
+    @Override
+    public ISmartScriptFunction bind(String argument)
+            throws IllegalArgumentException {
+        ISmartScriptFunction bound = function.bind(argument);
+        if (bound == null || !bound.isPure() || bound.getArity() < 0) {
+            return bound;
+        }
+        return new MemoizedFunction(bound, entries.length(), hits, misses);
+    }
+
+    @Override
+    public int getArity() {
+        return arity;
+    }
+
+    /**
+     * Gets the number of results which can be remembered.
+     * 
+     * @return capacity.
+     */
+    public int getCapacity() {
+        return entries.length();
+    }
+
+    /**
+     * Gets the function whose results are remembered.
+     * 
+     * @return memoized function.
+     */
+    public ISmartScriptFunction getFunction() {
+        return function;
+    }
+
+    /**
+     * Gets the number of calls whose result was remembered.
+     * 
+     * @return number of hits.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of calls which were calculated.
+     * 
+     * @return number of misses.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Calculates the hash of the arguments on top of the stack.
+     * 
+     * @param stack
+     *            which holds the arguments.
+     * @param first
+     *            index of the first argument.
+     * @return hash of arguments.
+     */
+    private int hash(ValueStack stack, int first) {
+        int hash = 1;
+        for (int i = first; i < first + arity; i++) {
+            int type = stack.getType(i);
+            hash = 31 * hash + type;
+            hash = 31 * hash + (type == ValueWrapper.TYPE_STRING
+                    ? stack.getString(i).hashCode()
+                    : Long.hashCode(bitsOf(stack, i)));
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    @Override
+    public boolean isPure() {
+        return true;
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return function.isThreadSafe();
+    }
+
+    /**
+     * Checks if the entry holds the arguments on top of the stack.
+     * 
+     * @param entry
+     *            which is checked.
+     * @param stack
+     *            which holds the arguments.
+     * @param first
+     *            index of the first argument.
+     * @return true if the arguments are the same.
+     */
+    private boolean matches(Entry entry, ValueStack stack, int first) {
+        for (int i = 0; i < arity; i++) {
+            int type = stack.getType(first + i);
+            if (type != entry.types[i]) {
+                return false;
+            }
+            if (type == ValueWrapper.TYPE_STRING) {
+                if (!entry.strings[i].equals(stack.getString(first + i))) {
+                    return false;
+                }
+            } else if (entry.bits[i] != bitsOf(stack, first + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Pushes the result of the entry to the stack.
+     * 
+     * @param stack
+     *            to which the result is pushed.
+     * @param entry
+     *            which holds the result.
+     */
+    private void push(ValueStack stack, Entry entry) {
+        switch (entry.resultType) {
+        case ValueWrapper.TYPE_LONG:
+            stack.push(entry.resultBits);
+            break;
+        case ValueWrapper.TYPE_DOUBLE:
+            stack.push(Double.longBitsToDouble(entry.resultBits));
+            break;
+        default:
+            stack.push(entry.resultString);
+        }
+    }
+
+    @Override
+    public boolean usesContext() {
+        return false;
+    }
+}
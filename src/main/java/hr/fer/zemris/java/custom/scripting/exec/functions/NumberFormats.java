@@ -0,0 +1,213 @@
+package hr.fer.zemris.java.custom.scripting.exec.functions;
+
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of formatters of numbers, one for each pattern of
+ * {@code DecimalFormat}, so that a pattern is parsed only once. Formatters
+ * can be shared between threads.
+ * 
+ * <p>
+ * Simple patterns, made only of digits and a decimal separator such as
+ * {@code 0.00} or {@code #.###}, are formatted directly from the digits of the
+ * number, without going through {@code DecimalFormat}. Their output is the
+ * same as the output of {@code DecimalFormat}, and the few numbers for which
+ * it could differ, such as numbers exactly between two rounded values, are
+ * formatted by {@code DecimalFormat}. Other patterns are formatted by a
+ * {@code DecimalFormat} of each thread.
+ * 
+ * @author Erik Banek
+ */
+public class NumberFormats {
+    /**
+     * Formatter of simple patterns, which formats numbers directly from their
+     * digits.
+     * 
+     * @author Erik Banek
+     */
+    private static class SimpleFormatter implements INumberFormatter {
+        /** Numbers at or above which the formatter is not exact. */
+        private static final double LIMIT = 1e15;
+        /** Powers of ten, indexed by exponent. */
+        private static final long[] POWERS = new long[16];
+
+        static {
+            POWERS[0] = 1;
+            for (int i = 1; i < POWERS.length; i++) {
+                POWERS[i] = POWERS[i - 1] * 10;
+            }
+        }
+
+        /** Minimal number of integer digits. */
+        private final int minInteger;
+        /** Minimal number of fraction digits. */
+        private final int minFraction;
+        /** Maximal number of fraction digits. */
+        private final int maxFraction;
+        /** Zero digit of the locale. */
+        private final char zero;
+        /** Decimal separator of the locale. */
+        private final char separator;
+        /** Minus sign of the locale. */
+        private final char minus;
+        /** Formatter of numbers which are not formatted directly. */
+        private final INumberFormatter fallback;
+
+        /**
+         * Constructor.
+         * 
+         * @param format
+         *            whose settings are used.
+         * @param fallback
+         *            formatter of numbers which are not formatted directly.
+         */
+        private SimpleFormatter(DecimalFormat format,
+                INumberFormatter fallback) {
+            DecimalFormatSymbols symbols = format.getDecimalFormatSymbols();
+            this.minInteger = format.getMinimumIntegerDigits();
+            this.minFraction = format.getMinimumFractionDigits();
+            this.maxFraction = format.getMaximumFractionDigits();
+            this.zero = symbols.getZeroDigit();
+            this.separator = symbols.getDecimalSeparator();
+            this.minus = symbols.getMinusSign();
+            this.fallback = fallback;
+        }
+
+        @Override
+        public String format(double number) {
+            // false for infinities and NaN
+            if (!(Math.abs(number) < LIMIT)) {
+                return fallback.format(number);
+            }
+            double scaled = Math.abs(number) * POWERS[maxFraction];
+            if (scaled >= LIMIT) {
+                return fallback.format(number);
+            }
+            double floor = Math.floor(scaled);
+            double fraction = scaled - floor;
+            // scaling is off by at most half an ulp, so only numbers close to
+            // a tie may be rounded differently than the exact number
+            if (Math.abs(fraction - 0.5) <= 2 * Math.ulp(scaled)) {
+                return fallback.format(number);
+            }
+            long digits = (long) floor + (fraction > 0.5 ? 1 : 0);
+            // sign bit, so that negative zero is negative
+            boolean negative = Double.doubleToRawLongBits(number) < 0;
+            // negative numbers rounded to zero keep their sign
+            if (negative && digits == 0) {
+                return fallback.format(number);
+            }
+
+            long integer = digits / POWERS[maxFraction];
+            long decimals = digits % POWERS[maxFraction];
+            int fractionDigits = maxFraction;
+            while (fractionDigits > minFraction && decimals % 10 == 0) {
+                decimals /= 10;
+                fractionDigits--;
+            }
+            int integerDigits = 0;
+            for (long i = integer; i > 0; i /= 10) {
+                integerDigits++;
+            }
+            integerDigits = Math.max(integerDigits, minInteger);
+            if (integerDigits == 0 && fractionDigits == 0) {
+                integerDigits = 1;
+            }
+
+            int length = (negative ? 1 : 0) + integerDigits
+                    + (fractionDigits > 0 ? fractionDigits + 1 : 0);
+            char[] chars = new char[length];
+            int end = length;
+            if (fractionDigits > 0) {
+                for (int i = 0; i < fractionDigits; i++) {
+                    chars[--end] = (char) (zero + decimals % 10);
+                    decimals /= 10;
+                }
+                chars[--end] = separator;
+            }
+            for (int i = 0; i < integerDigits; i++) {
+                chars[--end] = (char) (zero + integer % 10);
+                integer /= 10;
+            }
+            if (negative) {
+                chars[0] = minus;
+            }
+            return new String(chars);
+        }
+    }
+
+    /** Maximal number of cached patterns. */
+    public static final int MAX_PATTERNS = 256;
+    /** Formatters mapped to their patterns. */
+    private static final Map<String, INumberFormatter> formatters =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Creates the formatter of the pattern.
+     * 
+     * @param pattern
+     *            of {@code DecimalFormat}.
+     * @return formatter of the pattern.
+     * @throws IllegalArgumentException
+     *             if the pattern is not valid.
+     */
+    private static INumberFormatter create(String pattern) {
+        DecimalFormat format = new DecimalFormat(pattern);
+        ThreadLocal<DecimalFormat> formats = ThreadLocal
+                .withInitial(() -> (DecimalFormat) format.clone());
+        INumberFormatter fallback = number -> formats.get().format(number);
+        if (isSimple(format)) {
+            return new SimpleFormatter(format, fallback);
+        }
+        return fallback;
+    }
+
+    /**
+     * Gets the formatter of the pattern, creating it if it is not cached.
+     * When the cache is full, new formatters are not cached.
+     * 
+     * @param pattern
+     *            of {@code DecimalFormat}.
+     * @return formatter of the pattern.
+     * @throws IllegalArgumentException
+     *             if the pattern is not valid.
+     */
+    public static INumberFormatter get(String pattern) {
+        INumberFormatter formatter = formatters.get(pattern);
+        if (formatter == null) {
+            formatter = create(pattern);
+            if (formatters.size() < MAX_PATTERNS) {
+                formatters.putIfAbsent(pattern, formatter);
+            }
+        }
+        return formatter;
+    }
+
+    /**
+     * Checks if the format is made only of digits and a decimal separator,
+     * so that its numbers can be formatted directly.
+     * 
+     * @param format
+     *            which is checked.
+     * @return true if the format is simple.
+     */
+    private static boolean isSimple(DecimalFormat format) {
+        String minus = String.valueOf(format.getDecimalFormatSymbols()
+                .getMinusSign());
+        return format.getPositivePrefix().isEmpty()
+                && format.getPositiveSuffix().isEmpty()
+                && format.getNegativePrefix().equals(minus)
+                && format.getNegativeSuffix().isEmpty()
+                && !format.isGroupingUsed()
+                && !format.isDecimalSeparatorAlwaysShown()
+                && format.getMultiplier() == 1
+                && format.getRoundingMode() == RoundingMode.HALF_EVEN
+                && format.getMaximumIntegerDigits() >= 309
+                && format.getMaximumFractionDigits() < SimpleFormatter.POWERS.length
+                && format.toPattern().indexOf('E') == -1;
+    }
+}
@@ -1,17 +1,23 @@
 package hr.fer.zemris.java.custom.scripting.exec.functions;
 
-import hr.fer.zemris.java.custom.collections.ObjectStack;
+import hr.fer.zemris.java.custom.scripting.exec.ApplicationScope;
+import hr.fer.zemris.java.custom.scripting.exec.FragmentCache;
+import hr.fer.zemris.java.custom.scripting.exec.ValueStack;
 import hr.fer.zemris.java.custom.scripting.exec.functions.context.ContextDeleter;
 import hr.fer.zemris.java.custom.scripting.exec.functions.context.ContextGetter;
 import hr.fer.zemris.java.custom.scripting.exec.functions.context.ContextSetter;
 import hr.fer.zemris.java.webserver.RequestContext;
 
-import java.text.DecimalFormat;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Defines all functions that are supported by the {@code SmartScriptEngine}.
+ * Defines all functions that are supported by the {@code SmartScriptEngine}:
+ * the built-in functions, and the functions of every
+ * {@code ISmartScriptFunctionProvider} on the class path.
  * 
  * @author Erik Banek
  */
@@ -20,95 +26,98 @@ public class SmartScriptFunctions {
      * + function.
      */
     private static ISmartScriptFunction add = new BinarySmartFunction(
-            (a, b) -> {
-                return a.add(b);
-            });
+            (a, b) -> a + b, (a, b) -> a + b);
 
     /**
      * - function.
      */
     private static ISmartScriptFunction sub = new BinarySmartFunction(
-            (a, b) -> {
-                return a.sub(b);
-            });
+            (a, b) -> a - b, (a, b) -> a - b);
     /**
      * * function.
      */
     private static ISmartScriptFunction mul = new BinarySmartFunction(
-            (a, b) -> {
-                return a.mul(b);
-            });
+            (a, b) -> a * b, (a, b) -> a * b);
     /**
      * divides function.
      */
     private static ISmartScriptFunction div = new BinarySmartFunction(
-            (a, b) -> {
-                return a.div(b);
-            });
+            (a, b) -> a / b, (a, b) -> a / b);
     /**
      * sin(x) function.
      */
-    private static ISmartScriptFunction sin = new AbstractSmartScriptFunction(1) {
+    private static ISmartScriptFunction sin = new AbstractSmartScriptFunction(
+            1, true, 0, true) {
         @Override
-        public void apply(ObjectStack stack, RequestContext rc)
+        public void apply(ValueStack stack, RequestContext rc)
                 throws IllegalArgumentException, ClassCastException {
             check(stack);
-            Double value = Double.parseDouble((String) stack.pop());
-            stack.push(Double.valueOf(Math.sin(value)).toString());
+            stack.push(Math.sin(stack.popDouble()));
         }
     };
     /**
      * Pushes the next to last number in the format of the last number on stack.
+     * A constant format is bound at its call site, and other formats are
+     * taken from {@code NumberFormats}.
      */
     private static ISmartScriptFunction decfmt = new AbstractSmartScriptFunction(
-            2) {
+            2, true, 0, true) {
         @Override
-        public void apply(ObjectStack stack, RequestContext rc)
+        public void apply(ValueStack stack, RequestContext rc)
                 throws IllegalArgumentException, ClassCastException {
             check(stack);
-            DecimalFormat df = new DecimalFormat((String) stack.pop());
-            String num = (String) stack.pop();
-            stack.push(df.format(Double.parseDouble(num)));
+            INumberFormatter formatter = NumberFormats.get(stack.popString());
+            stack.push(formatter.format(stack.popDouble()));
+        }
+
+        @Override
+        public ISmartScriptFunction bind(String argument)
+                throws IllegalArgumentException {
+            INumberFormatter formatter = NumberFormats.get(argument);
+            return new AbstractSmartScriptFunction(1, true, 0, true) {
+                @Override
+                public void apply(ValueStack stack, RequestContext rc)
+                        throws IllegalArgumentException, ClassCastException {
+                    check(stack);
+                    stack.push(formatter.format(stack.popDouble()));
+                }
+            };
         }
     };
     /**
      * Duplicates the top number on the stack.
      */
-    private static ISmartScriptFunction dup = new AbstractSmartScriptFunction(1) {
+    private static ISmartScriptFunction dup = new AbstractSmartScriptFunction(
+            1, false, 0, true) {
         @Override
-        public void apply(ObjectStack stack, RequestContext rc)
+        public void apply(ValueStack stack, RequestContext rc)
                 throws IllegalArgumentException, ClassCastException {
             check(stack);
-            Object x = stack.peek();
-            stack.push(x);
+            stack.dup();
         }
     };
     /**
      * Swaps the top two numbers on the stack.
      */
     private static ISmartScriptFunction swap = new AbstractSmartScriptFunction(
-            2) {
+            2, false, 0, true) {
         @Override
-        public void apply(ObjectStack stack, RequestContext rc)
+        public void apply(ValueStack stack, RequestContext rc)
                 throws IllegalArgumentException, ClassCastException {
             check(stack);
-            Object a = stack.pop();
-            Object b = stack.pop();
-            stack.push(a);
-            stack.push(b);
+            stack.swap();
         }
     };
     /**
      * Sets the mime type of the context.
      */
     private static ISmartScriptFunction setMimeType = new AbstractSmartScriptFunction(
-            1) {
+            1, false, ISmartScriptFunction.WRITES_RESPONSE, true) {
         @Override
-        public void apply(ObjectStack stack, RequestContext rc)
+        public void apply(ValueStack stack, RequestContext rc)
                 throws IllegalArgumentException, ClassCastException {
             check(stack);
-            String x = (String) stack.pop();
-            rc.setMimeType(x);
+            rc.setMimeType(stack.popString());
         }
     };
     /**
@@ -117,72 +126,218 @@ public class SmartScriptFunctions {
     private static ISmartScriptFunction paramGet = new ContextGetter(
             (key, rc) -> {
                 return rc.getParameter(key);
-            });
+            }, ISmartScriptFunction.READS_PARAMETERS);
     /**
      * Gets some persistent parameter of context.
      */
     private static ISmartScriptFunction pparamGet = new ContextGetter(
             (key, rc) -> {
                 return rc.getPersistentParameter(key);
-            });
+            }, ISmartScriptFunction.READS_PERSISTENT);
     /**
      * Gets some temporary parameter of context.
      */
     private static ISmartScriptFunction tparamGet = new ContextGetter(
             (key, rc) -> {
                 return rc.getTemporaryParameter(key);
-            });
+            }, ISmartScriptFunction.READS_TEMPORARY);
     /**
      * Sets some persistent parameter of context.
      */
     private static ISmartScriptFunction pparamSet = new ContextSetter((key,
             value, rc) -> {
         rc.setPersistentParameter(key, value);
-    });
+    }, ISmartScriptFunction.WRITES_PERSISTENT);
     /**
      * Sets some temporary parameter of context.
      */
     private static ISmartScriptFunction tparamSet = new ContextSetter((key,
             value, rc) -> {
         rc.setTemporaryParameter(key, value);
-    });
+    }, ISmartScriptFunction.WRITES_TEMPORARY);
     /**
      * Deletes some persistent parameter of context.
      */
     private static ISmartScriptFunction pparamDel = new ContextDeleter(
             (key, rc) -> {
                 rc.removePersistentParameter(key);
-            });
+            }, ISmartScriptFunction.WRITES_PERSISTENT);
     /**
      * Deletes some temporary parameter of context.
      */
     private static ISmartScriptFunction tparamDel = new ContextDeleter(
             (key, rc) -> {
                 rc.removeTemporaryParameter(key);
-            });
+            }, ISmartScriptFunction.WRITES_TEMPORARY);
+    /**
+     * Gets some parameter of the application.
+     */
+    private static ISmartScriptFunction gparamGet = new ContextGetter(
+            (key, rc) -> {
+                return ApplicationScope.getInstance().getParameter(key);
+            }, ISmartScriptFunction.READS_APPLICATION);
+    /**
+     * Sets some parameter of the application.
+     */
+    private static ISmartScriptFunction gparamSet = new ContextSetter((key,
+            value, rc) -> {
+        ApplicationScope.getInstance().setParameter(key, value);
+    }, ISmartScriptFunction.WRITES_APPLICATION);
+    /**
+     * Deletes some parameter of the application.
+     */
+    private static ISmartScriptFunction gparamDel = new ContextDeleter(
+            (key, rc) -> {
+                ApplicationScope.getInstance().removeParameter(key);
+            }, ISmartScriptFunction.WRITES_APPLICATION);
+    /**
+     * Adds the next to last number on stack to the counter of the application
+     * named by the last value on stack.
+     */
+    private static ISmartScriptFunction counterAdd = new AbstractSmartScriptFunction(
+            2, false, ISmartScriptFunction.WRITES_APPLICATION, true) {
+        @Override
+        public void apply(ValueStack stack, RequestContext rc)
+                throws IllegalArgumentException, ClassCastException {
+            check(stack);
+            String name = stack.popString();
+            long number = stack.getLong(stack.size() - 1);
+            stack.discard();
+            ApplicationScope.getInstance().addToCounter(name, number);
+        }
+    };
+    /**
+     * Pushes the value of the counter of the application named by the last
+     * value on stack.
+     */
+    private static ISmartScriptFunction counterGet = new AbstractSmartScriptFunction(
+            1, false, ISmartScriptFunction.READS_APPLICATION, true) {
+        @Override
+        public void apply(ValueStack stack, RequestContext rc)
+                throws IllegalArgumentException, ClassCastException {
+            check(stack);
+            stack.push(ApplicationScope.getInstance().getCounter(
+                    stack.popString()));
+        }
+    };
     /**
-     * Returns the map of all functions mapped to their names.
+     * Invalidates all cached fragments with some name.
+     */
+    private static ISmartScriptFunction cacheInvalidate = new ContextDeleter(
+            (key, rc) -> {
+                FragmentCache.getInstance().invalidate(key);
+            }, ISmartScriptFunction.OTHER_ACCESS);
+    /** All functions mapped to their names. */
+    private static final Map<String, ISmartScriptFunction> functions =
+            new ConcurrentHashMap<>();
+
+    static {
+        functions.put("sin", sin);
+        functions.put("decfmt", decfmt);
+        functions.put("dup", dup);
+        functions.put("swap", swap);
+        functions.put("setMimeType", setMimeType);
+        functions.put("paramGet", paramGet);
+        functions.put("pparamGet", pparamGet);
+        functions.put("tparamGet", tparamGet);
+        functions.put("pparamSet", pparamSet);
+        functions.put("tparamSet", tparamSet);
+        functions.put("pparamDel", pparamDel);
+        functions.put("tparamDel", tparamDel);
+        functions.put("gparamGet", gparamGet);
+        functions.put("gparamSet", gparamSet);
+        functions.put("gparamDel", gparamDel);
+        functions.put("counterAdd", counterAdd);
+        functions.put("counterGet", counterGet);
+        functions.put("cacheInvalidate", cacheInvalidate);
+        functions.put("+", add);
+        functions.put("-", sub);
+        functions.put("*", mul);
+        functions.put("/", div);
+        for (ISmartScriptFunctionProvider provider : ServiceLoader
+                .load(ISmartScriptFunctionProvider.class)) {
+            provider.getFunctions().forEach(functions::putIfAbsent);
+        }
+    }
+
+    /**
+     * Returns the map of all functions mapped to their names. The map is
+     * shared and cannot be modified, and it reflects functions which are
+     * memoized later.
      * 
      * @return map of function.
      */
     public static Map<String, ISmartScriptFunction> getFunctions() {
-        Map<String, ISmartScriptFunction> map = new HashMap<>();
-        map.put("sin", sin);
-        map.put("decfmt", decfmt);
-        map.put("dup", dup);
-        map.put("swap", swap);
-        map.put("setMimeType", setMimeType);
-        map.put("paramGet", paramGet);
-        map.put("pparamGet", pparamGet);
-        map.put("tparamGet", tparamGet);
-        map.put("pparamSet", pparamSet);
-        map.put("tparamSet", tparamSet);
-        map.put("pparamDel", pparamDel);
-        map.put("tparamDel", tparamDel);
-        map.put("+", add);
-        map.put("-", sub);
-        map.put("*", mul);
-        map.put("/", div);
-        return map;
+        return Collections.unmodifiableMap(functions);
+    }
+
+    /**
+     * Gets all memoized functions mapped to their names.
+     * 
+     * @return map of memoized functions.
+     */
+    public static Map<String, MemoizedFunction> getMemoized() {
+        Map<String, MemoizedFunction> memoized = new TreeMap<>();
+        functions.forEach((name, function) -> {
+            if (function instanceof MemoizedFunction) {
+                memoized.put(name, (MemoizedFunction) function);
+            }
+        });
+        return memoized;
+    }
+
+    /**
+     * Memoizes the function with the name, so that it remembers its results.
+     * Echo tags which were already executed keep the function as it was.
+     * 
+     * @param name
+     *            of function.
+     * @param capacity
+     *            number of results which are remembered, or 0 if the function
+     *            stops being memoized.
+     * @throws IllegalArgumentException
+     *             if there is no such function, it is not pure, or the
+     *             capacity is negative.
+     */
+    public static void memoize(String name, int capacity) {
+        ISmartScriptFunction function = functions.get(name);
+        if (function == null) {
+            throw new IllegalArgumentException("Unknown function " + name
+                    + "!");
+        }
+        if (function instanceof MemoizedFunction) {
+            function = ((MemoizedFunction) function).getFunction();
+        }
+        functions.put(name, capacity == 0 ? function
+                : new MemoizedFunction(function, capacity));
+    }
+
+    /**
+     * Memoizes functions by settings such as {@code sin=4096 decfmt=1024},
+     * which map names of functions to the numbers of results which are
+     * remembered.
+     * 
+     * @param settings
+     *            of memoization, separated by whitespace.
+     * @throws IllegalArgumentException
+     *             if a setting is not valid.
+     */
+    public static void memoize(String settings) {
+        for (String setting : settings.trim().split("\\s+")) {
+            if (setting.isEmpty()) {
+                continue;
+            }
+            String[] split = setting.split("=", 2);
+            if (split.length != 2) {
+                throw new IllegalArgumentException("Memoization " + setting
+                        + " has no capacity!");
+            }
+            try {
+                memoize(split[0], Integer.parseInt(split[1]));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Memoization " + setting
+                        + " has no valid capacity!");
+            }
+        }
     }
 }
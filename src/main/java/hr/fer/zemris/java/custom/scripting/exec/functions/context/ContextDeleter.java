@@ -1,6 +1,6 @@
 package hr.fer.zemris.java.custom.scripting.exec.functions.context;
 
-import hr.fer.zemris.java.custom.collections.ObjectStack;
+import hr.fer.zemris.java.custom.scripting.exec.ValueStack;
 import hr.fer.zemris.java.custom.scripting.exec.functions.AbstractSmartScriptFunction;
 import hr.fer.zemris.java.webserver.RequestContext;
 
@@ -18,18 +18,20 @@ public class ContextDeleter extends AbstractSmartScriptFunction {
      * 
      * @param deleter
      *            deletion specificator.
+     * @param access
+     *            flags of the parts of the context which are accessed.
      */
-    public ContextDeleter(IContextDeleter deleter) {
-        super(1);
+    public ContextDeleter(IContextDeleter deleter, int access) {
+        super(1, false, access, true);
         this.deleter = deleter;
     }
 
     @Override
-    public void apply(ObjectStack stack, RequestContext rc)
+    public void apply(ValueStack stack, RequestContext rc)
             throws IllegalArgumentException, ClassCastException {
         check(stack);
 
-        String key = (String) stack.pop();
+        String key = stack.popString();
         deleter.delete(key, rc);
     }
 }
@@ -1,6 +1,6 @@
 package hr.fer.zemris.java.custom.scripting.exec.functions.context;
 
-import hr.fer.zemris.java.custom.collections.ObjectStack;
+import hr.fer.zemris.java.custom.scripting.exec.ValueStack;
 import hr.fer.zemris.java.custom.scripting.exec.functions.AbstractSmartScriptFunction;
 import hr.fer.zemris.java.webserver.RequestContext;
 
@@ -18,22 +18,28 @@ public class ContextGetter extends AbstractSmartScriptFunction {
      * 
      * @param getter
      *            getting specificator.
+     * @param access
+     *            flags of the parts of the context which are accessed.
      */
-    public ContextGetter(IContextGetter getter) {
-        super(2);
+    public ContextGetter(IContextGetter getter, int access) {
+        super(2, false, access, true);
         this.getter = getter;
     }
 
     @Override
-    public void apply(ObjectStack stack, RequestContext rc)
+    public void apply(ValueStack stack, RequestContext rc)
             throws IllegalArgumentException, ClassCastException {
         check(stack);
 
-        Object defaultValue = stack.pop();
-        String key = (String) stack.pop();
+        // default value stays on the stack if there is no parameter
+        stack.swap();
+        String key = stack.popString();
         String value = getter.get(key, rc);
 
-        stack.push(value == null ? defaultValue : value);
+        if (value != null) {
+            stack.discard();
+            stack.push(value);
+        }
     }
 
 }
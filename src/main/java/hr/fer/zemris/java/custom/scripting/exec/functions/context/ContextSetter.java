@@ -1,6 +1,6 @@
 package hr.fer.zemris.java.custom.scripting.exec.functions.context;
 
-import hr.fer.zemris.java.custom.collections.ObjectStack;
+import hr.fer.zemris.java.custom.scripting.exec.ValueStack;
 import hr.fer.zemris.java.custom.scripting.exec.functions.AbstractSmartScriptFunction;
 import hr.fer.zemris.java.webserver.RequestContext;
 
@@ -18,19 +18,21 @@ public class ContextSetter extends AbstractSmartScriptFunction {
      * 
      * @param setter
      *            setting specificator.
+     * @param access
+     *            flags of the parts of the context which are accessed.
      */
-    public ContextSetter(IContextSetter setter) {
-        super(2);
+    public ContextSetter(IContextSetter setter, int access) {
+        super(2, false, access, true);
         this.setter = setter;
     }
 
     @Override
-    public void apply(ObjectStack stack, RequestContext rc)
+    public void apply(ValueStack stack, RequestContext rc)
             throws IllegalArgumentException, ClassCastException {
         check(stack);
 
-        String key = (String) stack.pop();
-        String value = (String) stack.pop();
+        String key = stack.popString();
+        String value = stack.popString();
         setter.set(key, value, rc);
     }
 }
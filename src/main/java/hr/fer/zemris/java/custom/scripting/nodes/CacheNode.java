@@ -0,0 +1,79 @@
+package hr.fer.zemris.java.custom.scripting.nodes;
+
+import hr.fer.zemris.java.custom.scripting.tokens.Token;
+import hr.fer.zemris.java.custom.scripting.tokens.TokenString;
+
+/**
+ * Node representing a cached fragment of a script. The output of its children
+ * is stored in a shared cache under a key, and reused while it is fresh.
+ * Inherits from node class.
+ * 
+ * <p>
+ * The key of the stored output is the name of the fragment, extended by the
+ * values of vary tokens: request parameters named by string tokens, and
+ * variables of enclosing loops named by variable tokens.
+ * 
+ * @author Erik Banek
+ */
+public class CacheNode extends Node {
+    /** Name of the fragment in the cache. */
+    private TokenString name;
+    /** Number of seconds for which the stored output is fresh. */
+    private Token timeToLive;
+    /** Tokens whose values are part of the key. */
+    private Token[] varyTokens;
+
+    /**
+     * Constructs a read-only cache node.
+     * 
+     * @param name
+     *            of the fragment in the cache.
+     * @param timeToLive
+     *            number of seconds for which the stored output is fresh.
+     * @param varyTokens
+     *            tokens whose values are part of the key.
+     * @throws IllegalArgumentException
+     *             if any argument is null.
+     */
+    public CacheNode(TokenString name, Token timeToLive, Token[] varyTokens) {
+        if (name == null || timeToLive == null || varyTokens == null) {
+            throw new IllegalArgumentException(
+                    "Cache node arguments cannot be null!");
+        }
+        this.name = name;
+        this.timeToLive = timeToLive;
+        this.varyTokens = varyTokens;
+    }
+
+    @Override
+    public void accept(INodeVisitor visitor) {
+        visitor.visitCacheNode(this);
+    }
+
+    /**
+     * Getter of read-only token.
+     * 
+     * @return wanted value.
+     */
+    public TokenString getName() {
+        return this.name;
+    }
+
+    /**
+     * Getter of read-only token.
+     * 
+     * @return wanted value.
+     */
+    public Token getTimeToLive() {
+        return this.timeToLive;
+    }
+
+    /**
+     * Gets the tokens whose values are part of the key.
+     * 
+     * @return vary tokens of node.
+     */
+    public Token[] getVaryTokens() {
+        return this.varyTokens;
+    }
+}
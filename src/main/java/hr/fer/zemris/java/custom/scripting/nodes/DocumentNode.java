@@ -6,9 +6,66 @@ package hr.fer.zemris.java.custom.scripting.nodes;
  * @author Erik Banek
  */
 public class DocumentNode extends Node {
+    /**
+     * Number of variable slots the document needs, or -1 if variables were not
+     * resolved.
+     */
+    private int variableSlots = -1;
+    /**
+     * Groups of top-level sections which can be rendered at the same time, or
+     * null if they were not found.
+     */
+    private int[][] sectionGroups;
 
     @Override
     public void accept(INodeVisitor visitor) {
         visitor.visitDocumentNode(this);
     }
-}
\ No newline at end of file
+
+    /**
+     * Gets the groups of top-level sections which can be rendered at the same
+     * time. Every group is split into parts, each one holding one or more
+     * consecutive sections, and it is given by the index of the first child
+     * of each part, followed by the index after its last child.
+     * 
+     * @return groups of sections, or null if they were not found.
+     */
+    public int[][] getSectionGroups() {
+        return sectionGroups;
+    }
+
+    /**
+     * Gets the number of variable slots needed for executing the document.
+     * 
+     * @return number of slots, or -1 if variables were not resolved.
+     */
+    public int getVariableSlots() {
+        return variableSlots;
+    }
+
+    /**
+     * Sets the groups of top-level sections which can be rendered at the same
+     * time, so that they are found only once.
+     * 
+     * @param sectionGroups
+     *            groups of sections.
+     * @throws IllegalStateException
+     *             if the node is frozen.
+     */
+    public void setSectionGroups(int[][] sectionGroups) {
+        if (isFrozen()) {
+            throw new IllegalStateException("Node is frozen!");
+        }
+        this.sectionGroups = sectionGroups;
+    }
+
+    /**
+     * Sets the number of variable slots needed for executing the document.
+     * 
+     * @param variableSlots
+     *            number of slots.
+     */
+    public void setVariableSlots(int variableSlots) {
+        this.variableSlots = variableSlots;
+    }
+}
@@ -14,6 +14,12 @@ public class EchoNode extends Node {
      */
     private Token[] tokens;
 
+    /**
+     * Tokens linked by the engine which executes the node, or null if they
+     * were not linked yet.
+     */
+    private volatile ICallSites callSites;
+
     /**
      * Constructs a read-only EchoNode.
      * 
@@ -29,6 +35,15 @@ public class EchoNode extends Node {
         visitor.visitEchoNode(this);
     }
 
+    /**
+     * Gets the tokens linked by the engine which executes the node.
+     * 
+     * @return linked tokens, or null if they were not linked yet.
+     */
+    public ICallSites getCallSites() {
+        return callSites;
+    }
+
     /**
      * Gets all the tokens of echo node in an array.
      * 
@@ -37,4 +52,20 @@ public class EchoNode extends Node {
     public Token[] getTokens() {
         return this.tokens;
     }
+
+    /**
+     * Sets the linked tokens, so that they are linked only once. Tokens are
+     * linked before the node is frozen, and stay the same afterwards.
+     * 
+     * @param callSites
+     *            linked tokens.
+     * @throws IllegalStateException
+     *             if the node is frozen.
+     */
+    public void setCallSites(ICallSites callSites) {
+        if (isFrozen()) {
+            throw new IllegalStateException("Node is frozen!");
+        }
+        this.callSites = callSites;
+    }
 }
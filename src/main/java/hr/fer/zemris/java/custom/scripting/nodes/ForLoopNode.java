@@ -7,6 +7,11 @@ import hr.fer.zemris.java.custom.scripting.tokens.TokenVariable;
  * Node representing a single for-loop construct. Inherits from node class. All
  * fields except stepExpression cannot be null.
  * 
+ * <p>
+ * A parallel loop (the PFOR tag) may run its iterations concurrently. Each
+ * iteration renders its output and changes its parameters privately, and the
+ * results are merged in the order of iterations.
+ * 
  * @author Erik Banek
  */
 public class ForLoopNode extends Node {
@@ -18,6 +23,13 @@ public class ForLoopNode extends Node {
     private Token endExpression;
     /** Step expression for exotic for-loops. Can be null. */
     private Token stepExpression;
+    /** True if iterations of the loop may run in parallel. */
+    private boolean parallel;
+    /**
+     * Flags describing how the body of the loop uses the request context, or
+     * -1 if the body was not analyzed.
+     */
+    private int usageFlags = -1;
 
     /**
      * Constructs a read-only for-loop node with three arguments.
@@ -51,6 +63,28 @@ public class ForLoopNode extends Node {
      */
     public ForLoopNode(TokenVariable variable, Token startExpression,
             Token endExpression, Token stepExpression) {
+        this(variable, startExpression, endExpression, stepExpression, false);
+    }
+
+    /**
+     * Constructs a read-only for-loop that is possibly parallel.
+     * 
+     * @param variable
+     *            with which for loop iterates.
+     * @param startExpression
+     *            start value of variable.
+     * @param endExpression
+     *            end value from which the variable is less than or equal.
+     * @param stepExpression
+     *            step of variable, can be null.
+     * @param parallel
+     *            true if iterations of the loop may run in parallel.
+     * 
+     * @throws IllegalArgumentException
+     *             if any of first three values are null.
+     */
+    public ForLoopNode(TokenVariable variable, Token startExpression,
+            Token endExpression, Token stepExpression, boolean parallel) {
         if (variable == null || startExpression == null
                 || endExpression == null) {
             throw new IllegalArgumentException();
@@ -59,6 +93,7 @@ public class ForLoopNode extends Node {
         this.startExpression = startExpression;
         this.endExpression = endExpression;
         this.stepExpression = stepExpression;
+        this.parallel = parallel;
     }
 
     @Override
@@ -93,6 +128,16 @@ public class ForLoopNode extends Node {
         return this.stepExpression;
     }
 
+    /**
+     * Gets the flags describing how the body of the loop uses the request
+     * context, as found when the script was prepared for execution.
+     * 
+     * @return flags of the body, or -1 if it was not analyzed.
+     */
+    public int getUsageFlags() {
+        return this.usageFlags;
+    }
+
     /**
      * Getter of read-only token.
      * 
@@ -101,4 +146,29 @@ public class ForLoopNode extends Node {
     public TokenVariable getVariable() {
         return this.variable;
     }
+
+    /**
+     * Checks if iterations of the loop may run in parallel.
+     * 
+     * @return true iff the loop is a parallel loop.
+     */
+    public boolean isParallel() {
+        return this.parallel;
+    }
+
+    /**
+     * Sets the flags describing how the body of the loop uses the request
+     * context, so that the body is analyzed only once.
+     * 
+     * @param usageFlags
+     *            flags of the body.
+     * @throws IllegalStateException
+     *             if the node is frozen.
+     */
+    public void setUsageFlags(int usageFlags) {
+        if (isFrozen()) {
+            throw new IllegalStateException("Node is frozen!");
+        }
+        this.usageFlags = usageFlags;
+    }
 }
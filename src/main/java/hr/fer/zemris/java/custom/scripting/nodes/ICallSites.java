@@ -0,0 +1,20 @@
+package hr.fer.zemris.java.custom.scripting.nodes;
+
+/**
+ * Tokens of an echo node linked by the engine which executes it, so that they
+ * are not resolved again on every execution. Implementations must not change
+ * after they are created, since a node can be executed by many threads.
+ * 
+ * @author Erik Banek
+ */
+public interface ICallSites {
+    /**
+     * Checks if the token is skipped when the node is executed, because its
+     * value was folded into a later token, or bound to its function.
+     * 
+     * @param index
+     *            of token in the echo node.
+     * @return true if the token is skipped.
+     */
+    boolean isSkipped(int index);
+}
@@ -6,6 +6,16 @@ package hr.fer.zemris.java.custom.scripting.nodes;
  * @author Erik Banek
  */
 public interface INodeVisitor {
+    /**
+     * Visits a cache node.
+     * 
+     * @param node
+     *            to be visited.
+     * @throws VisitorException
+     *             if something wrong occurs while visiting.
+     */
+    void visitCacheNode(CacheNode node) throws VisitorException;
+
     /**
      * Visits a document node.
      * 
@@ -36,6 +46,16 @@ public interface INodeVisitor {
      */
     void visitForLoopNode(ForLoopNode node) throws VisitorException;
 
+    /**
+     * Visits an include node.
+     * 
+     * @param node
+     *            to be visited.
+     * @throws VisitorException
+     *             if something wrong occurs while visiting.
+     */
+    void visitIncludeNode(IncludeNode node) throws VisitorException;
+
     /**
      * Visits a text node.
      * 
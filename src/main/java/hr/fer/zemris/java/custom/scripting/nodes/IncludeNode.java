@@ -0,0 +1,45 @@
+package hr.fer.zemris.java.custom.scripting.nodes;
+
+import hr.fer.zemris.java.custom.scripting.tokens.TokenString;
+
+/**
+ * Node representing the inclusion of another document into the script. An
+ * included script is executed in place of the node, and any other included
+ * file is written as it is. Inherits from node class.
+ * 
+ * @author Erik Banek
+ */
+public class IncludeNode extends Node {
+    /** Path of the included document. */
+    private TokenString path;
+
+    /**
+     * Constructs a read-only include node.
+     * 
+     * @param path
+     *            of the included document.
+     * @throws IllegalArgumentException
+     *             if path is null.
+     */
+    public IncludeNode(TokenString path) {
+        if (path == null) {
+            throw new IllegalArgumentException(
+                    "Include node path cannot be null!");
+        }
+        this.path = path;
+    }
+
+    @Override
+    public void accept(INodeVisitor visitor) {
+        visitor.visitIncludeNode(this);
+    }
+
+    /**
+     * Getter of read-only token.
+     * 
+     * @return wanted value.
+     */
+    public TokenString getPath() {
+        return this.path;
+    }
+}
@@ -5,6 +5,12 @@ import hr.fer.zemris.java.custom.collections.ArrayBackedIndexedCollection;
 /**
  * Base class of all graph nodes.
  * 
+ * <p>
+ * A node is built by adding children one by one, and can then be frozen.
+ * Children of a frozen node are held in an array of exactly their number,
+ * which is read without casts, and no children can be added anymore, so a
+ * frozen tree can be shared by threads without copying.
+ * 
  * @author Erik Banek
  */
 public abstract class Node {
@@ -13,6 +19,10 @@ public abstract class Node {
      * first child of this node.
      */
     private ArrayBackedIndexedCollection childArray;
+    /** Children of the frozen node, null if it is not frozen or has none. */
+    private Node[] children;
+    /** True once the node is frozen. */
+    private boolean frozen;
 
     /**
      * Constructs a Node, initializes underlying array to null.
@@ -37,14 +47,40 @@ public abstract class Node {
      *            to be added to the array of children.
      * @throws IllegalArgumentException
      *             if child is null.
+     * @throws IllegalStateException
+     *             if the node is frozen.
      */
     public void addChildNode(Node child) {
+        if (frozen) {
+            throw new IllegalStateException("Node is frozen!");
+        }
         if (this.childArray == null) {
             this.childArray = new ArrayBackedIndexedCollection();
         }
         this.childArray.add(child);
     }
 
+    /**
+     * Freezes the node and all of its descendants. Freezing a frozen node does
+     * nothing.
+     */
+    public void freeze() {
+        if (frozen) {
+            return;
+        }
+        int size = numberOfChildren();
+        if (size > 0) {
+            Node[] array = new Node[size];
+            for (int i = 0; i < size; i++) {
+                array[i] = getChild(i);
+                array[i].freeze();
+            }
+            children = array;
+            childArray = null;
+        }
+        frozen = true;
+    }
+
     /**
      * Gets the child that is placed in array[argument].
      * 
@@ -58,12 +94,24 @@ public abstract class Node {
      *             if index is not in correct bounds.
      */
     public Node getChild(int index) {
+        if (children != null) {
+            return children[index];
+        }
         if (this.childArray == null) {
             throw new NullPointerException();
         }
         return (Node) this.childArray.get(index);
     }
 
+    /**
+     * Checks if the node is frozen.
+     * 
+     * @return true if the node is frozen.
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
     /**
      * Gets the size of underlying array, if no children were added to array
      * returns 0.
@@ -71,9 +119,42 @@ public abstract class Node {
      * @return 0 if array is null, else size of array.
      */
     public int numberOfChildren() {
+        if (children != null) {
+            return children.length;
+        }
         if (this.childArray == null) {
             return 0;
         }
         return this.childArray.size();
     }
+
+    /**
+     * Replaces the child that is placed in array[argument].
+     * 
+     * @param index
+     *            of child that is replaced.
+     * @param child
+     *            which replaces the old child.
+     * @throws NullPointerException
+     *             if the underlying array wasn't initialized.
+     * @throws IndexOutOfBoundsException
+     *             if index is not in correct bounds.
+     * @throws IllegalArgumentException
+     *             if child is null.
+     * @throws IllegalStateException
+     *             if the node is frozen.
+     */
+    public void setChild(int index, Node child) {
+        if (frozen) {
+            throw new IllegalStateException("Node is frozen!");
+        }
+        if (this.childArray == null) {
+            throw new NullPointerException();
+        }
+        if (child == null) {
+            throw new IllegalArgumentException("Child cannot be null!");
+        }
+        this.childArray.remove(index);
+        this.childArray.insert(child, index);
+    }
 }
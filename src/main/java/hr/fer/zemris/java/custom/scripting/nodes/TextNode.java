@@ -1,16 +1,51 @@
 package hr.fer.zemris.java.custom.scripting.nodes;
 
+import java.nio.charset.Charset;
+
 /**
  * Node representing a piece of textual data. Inherits from node class.
  * 
+ * <p>
+ * The text is static, so the node remembers its text encoded in the last used
+ * charset. Cached scripts then only copy those bytes on every execution.
+ * 
  * @author Erik Banek
  */
 public class TextNode extends Node {
+    /**
+     * Text of node encoded in some charset. Immutable so it can be safely
+     * replaced while other threads read it.
+     * 
+     * @author Erik Banek
+     */
+    private static class EncodedText {
+        /** Charset in which the text was encoded. */
+        private final Charset charset;
+        /** Encoded text. */
+        private final byte[] bytes;
+
+        /**
+         * Constructor.
+         * 
+         * @param charset
+         *            in which the text was encoded.
+         * @param bytes
+         *            encoded text.
+         */
+        private EncodedText(Charset charset, byte[] bytes) {
+            this.charset = charset;
+            this.bytes = bytes;
+        }
+    }
+
     /**
      * Textual data of node
      */
     private String text;
 
+    /** Text encoded in the last requested charset, null if never requested. */
+    private volatile EncodedText encoded;
+
     /**
      * Constructs a read-only TextNode with string text.
      * 
@@ -26,6 +61,23 @@ public class TextNode extends Node {
         visitor.visitTextNode(this);
     }
 
+    /**
+     * Gets textual data of TextNode encoded in the given charset. The encoded
+     * bytes are remembered, so the returned array must not be modified.
+     * 
+     * @param charset
+     *            in which the text is encoded.
+     * @return encoded text of node.
+     */
+    public byte[] getBytes(Charset charset) {
+        EncodedText current = encoded;
+        if (current == null || !current.charset.equals(charset)) {
+            current = new EncodedText(charset, text.getBytes(charset));
+            encoded = current;
+        }
+        return current.bytes;
+    }
+
     /**
      * Gets textual data of TextNode.
      * 
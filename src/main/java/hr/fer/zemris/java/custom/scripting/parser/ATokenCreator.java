@@ -4,15 +4,17 @@ import hr.fer.zemris.java.custom.scripting.tokens.Token;
 
 /**
  * Class specifying a creator of token, which returns the actual token and the
- * index of the end of token inside the document String.
+ * index of the end of token inside the document text. Creators read the
+ * document in place, so creating a token takes time proportional only to the
+ * length of the token.
  * 
  * @author Erik Banek
  */
 public abstract class ATokenCreator {
     /** Start index of token in String. */
     private int fromIndex;
-    /** String containing all document text. */
-    private String docString;
+    /** Sequence containing all document text. */
+    private CharSequence document;
     /** Token which is created. */
     protected Token token;
     /** End of created token. */
@@ -21,17 +23,17 @@ public abstract class ATokenCreator {
     /**
      * Constructor.
      * 
-     * @param docString
+     * @param document
      *            containing all document text.
      * @param fromIndex
      *            start of token which is parsed.
      * @throws IllegalArgumentException
      *             if a problem occurs with parsing the token.
      */
-    public ATokenCreator(String docString, int fromIndex)
+    public ATokenCreator(CharSequence document, int fromIndex)
             throws IllegalArgumentException {
         this.fromIndex = fromIndex;
-        this.docString = docString;
+        this.document = document;
     }
 
     /**
@@ -50,7 +52,7 @@ public abstract class ATokenCreator {
      * @return String of token.
      */
     public String getString() {
-        return docString.substring(fromIndex, getEnd());
+        return document.subSequence(fromIndex, getEnd()).toString();
     }
 
     /**
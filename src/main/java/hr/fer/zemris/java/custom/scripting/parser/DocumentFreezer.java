@@ -0,0 +1,145 @@
+package hr.fer.zemris.java.custom.scripting.parser;
+
+import hr.fer.zemris.java.custom.scripting.nodes.CacheNode;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.nodes.INodeVisitor;
+import hr.fer.zemris.java.custom.scripting.nodes.IncludeNode;
+import hr.fer.zemris.java.custom.scripting.nodes.Node;
+import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+import hr.fer.zemris.java.custom.scripting.tokens.Token;
+import hr.fer.zemris.java.custom.scripting.tokens.TokenConstantDouble;
+import hr.fer.zemris.java.custom.scripting.tokens.TokenConstantInteger;
+import hr.fer.zemris.java.custom.scripting.tokens.TokenFunction;
+import hr.fer.zemris.java.custom.scripting.tokens.TokenOperator;
+import hr.fer.zemris.java.custom.scripting.tokens.TokenString;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Prepares a parsed document for being kept in memory and shared by threads.
+ * Variables of the document are resolved if they were not, equal constant,
+ * function and operator tokens in tags are replaced by a single token from a
+ * pool, and then all nodes are frozen, so that their children are held in
+ * arrays of exact size and cannot change anymore.
+ * 
+ * <p>
+ * Variable tokens are not pooled, because their slots are set by the
+ * {@code VariableResolver}.
+ * 
+ * @author Erik Banek
+ */
+public class DocumentFreezer implements INodeVisitor {
+    /**
+     * Freezes the document, unless it is already frozen.
+     * 
+     * @param documentNode
+     *            which is frozen.
+     * @return number of tokens replaced by a pooled token.
+     */
+    public static int freeze(DocumentNode documentNode) {
+        if (documentNode.isFrozen()) {
+            return 0;
+        }
+        if (documentNode.getVariableSlots() < 0) {
+            VariableResolver.resolve(documentNode);
+        }
+        DocumentFreezer freezer = new DocumentFreezer();
+        documentNode.accept(freezer);
+        documentNode.freeze();
+        return freezer.shared;
+    }
+
+    /**
+     * Gets the key under which the token is pooled.
+     * 
+     * @param token
+     *            which is pooled.
+     * @return key of the token, or null if the token is not pooled.
+     */
+    private static Object getKey(Token token) {
+        if (token instanceof TokenString) {
+            return "s" + ((TokenString) token).getValue();
+        } else if (token instanceof TokenConstantInteger) {
+            return ((TokenConstantInteger) token).getValue();
+        } else if (token instanceof TokenConstantDouble) {
+            return Double.doubleToRawLongBits(
+                    ((TokenConstantDouble) token).getValue());
+        } else if (token instanceof TokenFunction) {
+            return "f" + ((TokenFunction) token).getName();
+        } else if (token instanceof TokenOperator) {
+            return "o" + ((TokenOperator) token).getSymbol();
+        }
+        return null;
+    }
+
+    /** Pooled tokens mapped to their keys. */
+    private Map<Object, Token> pool = new HashMap<>();
+    /** Number of tokens replaced by a pooled token. */
+    private int shared;
+
+    /**
+     * Replaces the tokens in the array by pooled tokens, and pools the tokens
+     * which were not pooled yet.
+     * 
+     * @param tokens
+     *            which are pooled.
+     */
+    private void poolTokens(Token[] tokens) {
+        for (int i = 0; i < tokens.length; i++) {
+            Object key = getKey(tokens[i]);
+            if (key == null) {
+                continue;
+            }
+            Token pooled = pool.putIfAbsent(key, tokens[i]);
+            if (pooled != null && pooled != tokens[i]) {
+                tokens[i] = pooled;
+                shared++;
+            }
+        }
+    }
+
+    /**
+     * Visits all children of the node.
+     * 
+     * @param node
+     *            whose children are visited.
+     */
+    private void visitChildren(Node node) {
+        int size = node.numberOfChildren();
+        for (int i = 0; i < size; i++) {
+            node.getChild(i).accept(this);
+        }
+    }
+
+    @Override
+    public void visitCacheNode(CacheNode node) {
+        poolTokens(node.getVaryTokens());
+        visitChildren(node);
+    }
+
+    @Override
+    public void visitDocumentNode(DocumentNode node) {
+        visitChildren(node);
+    }
+
+    @Override
+    public void visitEchoNode(EchoNode node) {
+        poolTokens(node.getTokens());
+    }
+
+    @Override
+    public void visitForLoopNode(ForLoopNode node) {
+        visitChildren(node);
+    }
+
+    @Override
+    public void visitIncludeNode(IncludeNode node) {
+    }
+
+    @Override
+    public void visitTextNode(TextNode node) {
+    }
+}
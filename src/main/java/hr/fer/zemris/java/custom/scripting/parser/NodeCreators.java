@@ -1,11 +1,17 @@
 package hr.fer.zemris.java.custom.scripting.parser;
 
+import hr.fer.zemris.java.custom.scripting.nodes.CacheNode;
 import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
 import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.nodes.IncludeNode;
 import hr.fer.zemris.java.custom.scripting.nodes.Node;
 import hr.fer.zemris.java.custom.scripting.tokens.Token;
+import hr.fer.zemris.java.custom.scripting.tokens.TokenConstantDouble;
+import hr.fer.zemris.java.custom.scripting.tokens.TokenConstantInteger;
+import hr.fer.zemris.java.custom.scripting.tokens.TokenString;
 import hr.fer.zemris.java.custom.scripting.tokens.TokenVariable;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -15,6 +21,41 @@ import java.util.Map;
  * @author Erik Banek
  */
 public class NodeCreators {
+    /**
+     * Creator of a cache node.
+     * 
+     * @author Erik Banek
+     */
+    public static class CacheCreator implements INodeCreator {
+        @Override
+        public Node create(Token[] tokens) {
+            if (tokens.length < 2) {
+                throw new IllegalArgumentException(
+                        "Wrong number of tokens in cache tag!");
+            }
+            if (!(tokens[0] instanceof TokenString)) {
+                throw new IllegalArgumentException(
+                        "First token in cache tag should be a string!");
+            }
+            if (!(tokens[1] instanceof TokenConstantInteger)
+                    && !(tokens[1] instanceof TokenConstantDouble)) {
+                throw new IllegalArgumentException(
+                        "Second token in cache tag should be a number!");
+            }
+            Token[] varyTokens = Arrays.copyOfRange(tokens, 2, tokens.length);
+            for (Token t : varyTokens) {
+                if (!(t instanceof TokenString)
+                        && !(t instanceof TokenVariable)) {
+                    throw new IllegalArgumentException(
+                            "Cache tag can vary only by parameters and variables!");
+                }
+            }
+            return new CacheNode((TokenString) tokens[0], tokens[1],
+                    varyTokens);
+        }
+
+    }
+
     /**
      * Creator of an echo node.
      * 
@@ -46,11 +87,30 @@ public class NodeCreators {
     }
 
     /**
-     * Creator of a for loop node.
+     * Creator of a for loop node, sequential or parallel.
      * 
      * @author Erik Banek
      */
     public static class ForCreator implements INodeCreator {
+        /** True if the created loops are parallel. */
+        private boolean parallel;
+
+        /**
+         * Constructs a creator of sequential loops.
+         */
+        public ForCreator() {
+            this(false);
+        }
+
+        /**
+         * Constructor.
+         * 
+         * @param parallel
+         *            true if the created loops are parallel.
+         */
+        public ForCreator(boolean parallel) {
+            this.parallel = parallel;
+        }
 
         @Override
         public Node create(Token[] tokens) {
@@ -67,11 +127,29 @@ public class NodeCreators {
             }
 
             if (tokens.length == 3) {
-                return new ForLoopNode(variable, tokens[1], tokens[2]);
+                return new ForLoopNode(variable, tokens[1], tokens[2], null,
+                        parallel);
             } else {
                 return new ForLoopNode(variable, tokens[1], tokens[2],
-                        tokens[3]);
+                        tokens[3], parallel);
+            }
+        }
+
+    }
+
+    /**
+     * Creator of an include node.
+     * 
+     * @author Erik Banek
+     */
+    public static class IncludeCreator implements INodeCreator {
+        @Override
+        public Node create(Token[] tokens) {
+            if (tokens.length != 1 || !(tokens[0] instanceof TokenString)) {
+                throw new IllegalArgumentException(
+                        "Include tag should contain only a path string!");
             }
+            return new IncludeNode((TokenString) tokens[0]);
         }
 
     }
@@ -82,6 +160,9 @@ public class NodeCreators {
     static {
         Map<String, INodeCreator> map = new HashMap<>();
         map.put("for", new ForCreator());
+        map.put("pfor", new ForCreator(true));
+        map.put("cache", new CacheCreator());
+        map.put("include", new IncludeCreator());
         map.put("=", new EchoCreator());
         map.put("end", new EndCreator());
         creators = map;
@@ -0,0 +1,402 @@
+package hr.fer.zemris.java.custom.scripting.parser;
+
+import hr.fer.zemris.java.custom.scripting.nodes.CacheNode;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.nodes.INodeVisitor;
+import hr.fer.zemris.java.custom.scripting.nodes.IncludeNode;
+import hr.fer.zemris.java.custom.scripting.nodes.Node;
+import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+import hr.fer.zemris.java.custom.scripting.tokens.Token;
+import hr.fer.zemris.java.custom.scripting.tokens.TokenConstantDouble;
+import hr.fer.zemris.java.custom.scripting.tokens.TokenConstantInteger;
+import hr.fer.zemris.java.custom.scripting.tokens.TokenFunction;
+import hr.fer.zemris.java.custom.scripting.tokens.TokenOperator;
+import hr.fer.zemris.java.custom.scripting.tokens.TokenString;
+import hr.fer.zemris.java.custom.scripting.tokens.TokenVariable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes parsed documents into a compact binary form and reads them back, so
+ * that a parsed document can be stored and later used without parsing the
+ * script again. Resolved slots of variables are stored as well, so a read
+ * document can be executed right away.
+ * 
+ * <p>
+ * The form starts with {@code VERSION}, and a document written with a
+ * different version cannot be read. The version must be changed whenever the
+ * nodes, the tokens or the parsing of scripts change.
+ * 
+ * @author Erik Banek
+ */
+public class ScriptSerializer implements INodeVisitor {
+    /** Version of the form, and of the parser that produced the documents. */
+    public static final int VERSION = 1;
+    /** Number with which every written document starts. */
+    private static final int MAGIC = 0x534D5343;
+
+    /** Marks a missing token. */
+    private static final byte NO_TOKEN = 0;
+    /** Marks a variable token. */
+    private static final byte VARIABLE = 1;
+    /** Marks a string token. */
+    private static final byte STRING = 2;
+    /** Marks an integer token. */
+    private static final byte INTEGER = 3;
+    /** Marks a double token. */
+    private static final byte DOUBLE = 4;
+    /** Marks a function token. */
+    private static final byte FUNCTION = 5;
+    /** Marks an operator token. */
+    private static final byte OPERATOR = 6;
+
+    /** Marks a text node. */
+    private static final byte TEXT_NODE = 1;
+    /** Marks an echo node. */
+    private static final byte ECHO_NODE = 2;
+    /** Marks a for loop node. */
+    private static final byte FOR_NODE = 3;
+    /** Marks a parallel for loop node. */
+    private static final byte PARALLEL_FOR_NODE = 4;
+    /** Marks a cache node. */
+    private static final byte CACHE_NODE = 5;
+    /** Marks an include node. */
+    private static final byte INCLUDE_NODE = 6;
+
+    /**
+     * Reads a document written by {@code write}.
+     * 
+     * @param is
+     *            stream from which the document is read.
+     * @return read document, with resolved variables.
+     * @throws IOException
+     *             if a problem occurs with reading, or the stream does not
+     *             hold a document of this version.
+     */
+    public static DocumentNode read(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(is);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Stream does not hold a script!");
+        }
+        if (in.readInt() != VERSION) {
+            throw new IOException("Script was written by another version!");
+        }
+        DocumentNode documentNode = new DocumentNode();
+        documentNode.setVariableSlots(in.readInt());
+        readChildren(in, documentNode);
+        return documentNode;
+    }
+
+    /**
+     * Reads the children of the node and adds them to it.
+     * 
+     * @param in
+     *            stream from which the children are read.
+     * @param node
+     *            to which the children are added.
+     * @throws IOException
+     *             if a problem occurs with reading.
+     */
+    private static void readChildren(DataInputStream in, Node node)
+            throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            node.addChildNode(readNode(in));
+        }
+    }
+
+    /**
+     * Reads a node with all of its children.
+     * 
+     * @param in
+     *            stream from which the node is read.
+     * @return read node.
+     * @throws IOException
+     *             if a problem occurs with reading, or the node is unknown.
+     */
+    private static Node readNode(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        Node node;
+        switch (type) {
+        case TEXT_NODE:
+            return new TextNode(readString(in));
+        case ECHO_NODE:
+            return new EchoNode(readTokens(in));
+        case FOR_NODE:
+        case PARALLEL_FOR_NODE:
+            node = new ForLoopNode((TokenVariable) readToken(in),
+                    readToken(in), readToken(in), readToken(in),
+                    type == PARALLEL_FOR_NODE);
+            break;
+        case CACHE_NODE:
+            node = new CacheNode((TokenString) readToken(in), readToken(in),
+                    readTokens(in));
+            break;
+        case INCLUDE_NODE:
+            return new IncludeNode((TokenString) readToken(in));
+        default:
+            throw new IOException("Unknown node type " + type + "!");
+        }
+        readChildren(in, node);
+        return node;
+    }
+
+    /**
+     * Reads a string written as its length and its bytes in UTF-8.
+     * 
+     * @param in
+     *            stream from which the string is read.
+     * @return read string.
+     * @throws IOException
+     *             if a problem occurs with reading.
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a token.
+     * 
+     * @param in
+     *            stream from which the token is read.
+     * @return read token, or null if a missing token was written.
+     * @throws IOException
+     *             if a problem occurs with reading, or the token is unknown.
+     */
+    private static Token readToken(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+        case NO_TOKEN:
+            return null;
+        case VARIABLE:
+            TokenVariable variable = new TokenVariable(readString(in));
+            variable.setSlot(in.readInt());
+            return variable;
+        case STRING:
+            return new TokenString(readString(in));
+        case INTEGER:
+            return new TokenConstantInteger(in.readInt());
+        case DOUBLE:
+            return new TokenConstantDouble(in.readDouble());
+        case FUNCTION:
+            return new TokenFunction(readString(in));
+        case OPERATOR:
+            return new TokenOperator(readString(in));
+        default:
+            throw new IOException("Unknown token type " + type + "!");
+        }
+    }
+
+    /**
+     * Reads an array of tokens.
+     * 
+     * @param in
+     *            stream from which the tokens are read.
+     * @return read tokens.
+     * @throws IOException
+     *             if a problem occurs with reading.
+     */
+    private static Token[] readTokens(DataInputStream in) throws IOException {
+        Token[] tokens = new Token[in.readInt()];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = readToken(in);
+        }
+        return tokens;
+    }
+
+    /**
+     * Writes the document into the stream. The stream is not closed.
+     * 
+     * @param documentNode
+     *            which is written, with resolved variables.
+     * @param os
+     *            stream to which the document is written.
+     * @throws IOException
+     *             if a problem occurs with writing.
+     */
+    public static void write(DocumentNode documentNode, OutputStream os)
+            throws IOException {
+        DataOutputStream out = new DataOutputStream(os);
+        try {
+            documentNode.accept(new ScriptSerializer(out));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.flush();
+    }
+
+    /** Stream to which the nodes are written. */
+    private DataOutputStream out;
+
+    /**
+     * Constructor.
+     * 
+     * @param out
+     *            stream to which the nodes are written.
+     */
+    private ScriptSerializer(DataOutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void visitCacheNode(CacheNode node) {
+        try {
+            out.writeByte(CACHE_NODE);
+            writeToken(node.getName());
+            writeToken(node.getTimeToLive());
+            writeTokens(node.getVaryTokens());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        writeChildren(node);
+    }
+
+    @Override
+    public void visitDocumentNode(DocumentNode node) {
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(node.getVariableSlots());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        writeChildren(node);
+    }
+
+    @Override
+    public void visitEchoNode(EchoNode node) {
+        try {
+            out.writeByte(ECHO_NODE);
+            writeTokens(node.getTokens());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void visitForLoopNode(ForLoopNode node) {
+        try {
+            out.writeByte(node.isParallel() ? PARALLEL_FOR_NODE : FOR_NODE);
+            writeToken(node.getVariable());
+            writeToken(node.getStartExpression());
+            writeToken(node.getEndExpression());
+            writeToken(node.getStepExpression());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        writeChildren(node);
+    }
+
+    @Override
+    public void visitIncludeNode(IncludeNode node) {
+        try {
+            out.writeByte(INCLUDE_NODE);
+            writeToken(node.getPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void visitTextNode(TextNode node) {
+        try {
+            out.writeByte(TEXT_NODE);
+            writeString(node.getText());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the number of children of the node, and then all children.
+     * 
+     * @param node
+     *            whose children are written.
+     */
+    private void writeChildren(Node node) {
+        int size = node.numberOfChildren();
+        try {
+            out.writeInt(size);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (int i = 0; i < size; i++) {
+            node.getChild(i).accept(this);
+        }
+    }
+
+    /**
+     * Writes a string as its length and its bytes in UTF-8, so that strings
+     * are not limited in length as with {@code writeUTF}.
+     * 
+     * @param s
+     *            string which is written.
+     * @throws IOException
+     *             if a problem occurs with writing.
+     */
+    private void writeString(String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes a token.
+     * 
+     * @param token
+     *            which is written, or null for a missing token.
+     * @throws IOException
+     *             if a problem occurs with writing, or the token is unknown.
+     */
+    private void writeToken(Token token) throws IOException {
+        if (token == null) {
+            out.writeByte(NO_TOKEN);
+        } else if (token instanceof TokenVariable) {
+            out.writeByte(VARIABLE);
+            writeString(((TokenVariable) token).getName());
+            out.writeInt(((TokenVariable) token).getSlot());
+        } else if (token instanceof TokenString) {
+            out.writeByte(STRING);
+            writeString(((TokenString) token).getValue());
+        } else if (token instanceof TokenConstantInteger) {
+            out.writeByte(INTEGER);
+            out.writeInt(((TokenConstantInteger) token).getValue());
+        } else if (token instanceof TokenConstantDouble) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(((TokenConstantDouble) token).getValue());
+        } else if (token instanceof TokenFunction) {
+            out.writeByte(FUNCTION);
+            writeString(((TokenFunction) token).getName());
+        } else if (token instanceof TokenOperator) {
+            out.writeByte(OPERATOR);
+            writeString(((TokenOperator) token).getSymbol());
+        } else {
+            throw new IOException("Unknown token " + token.asText() + "!");
+        }
+    }
+
+    /**
+     * Writes an array of tokens.
+     * 
+     * @param tokens
+     *            which are written.
+     * @throws IOException
+     *             if a problem occurs with writing.
+     */
+    private void writeTokens(Token[] tokens) throws IOException {
+        out.writeInt(tokens.length);
+        for (Token token : tokens) {
+            writeToken(token);
+        }
+    }
+}
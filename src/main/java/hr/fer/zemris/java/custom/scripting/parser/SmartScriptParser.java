@@ -2,6 +2,7 @@ package hr.fer.zemris.java.custom.scripting.parser;
 
 import hr.fer.zemris.java.custom.collections.EmptyStackException;
 import hr.fer.zemris.java.custom.collections.ObjectStack;
+import hr.fer.zemris.java.custom.scripting.nodes.CacheNode;
 import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
 import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
 import hr.fer.zemris.java.custom.scripting.nodes.INodeVisitor;
@@ -16,6 +17,13 @@ import java.util.List;
  * Parses a custom type script, parsing results are located in main Node. Throws
  * SmartScriptParserException if there is any problem anywhere.
  * 
+ * <p>
+ * The document is read in a single pass from start to end. Text is unescaped
+ * while it is read, and tokens of tags are created in place, so parsing takes
+ * time and memory linear in the length of the document. Any
+ * {@code CharSequence} can be parsed, for example a {@code CharBuffer} decoded
+ * from a memory-mapped file.
+ * 
  * @author Erik Banek
  */
 public class SmartScriptParser {
@@ -32,35 +40,111 @@ public class SmartScriptParser {
     }
 
     /**
-     * Head node that contains all document information after parsing, actually
-     * the node hierarchy of the document.
+     * Creates the node of a tag from its tokens.
+     * 
+     * @param tokens
+     *            of tag, starting with the tag name.
+     * @return Node representing the tag.
+     * @throws SmartScriptParserException
+     *             if the tokens do not form a valid tag.
      */
-    private DocumentNode mainNode;
-    /** String of document to parse. */
-    private String docString;
+    static Node createTagNode(List<Token> tokens) {
+        Node node = null;
+        try {
+            node = NodeCreators.create(tokens.toArray(new Token[1]));
+        } catch (IllegalArgumentException e) {
+            throw new SmartScriptParserException(e.getMessage());
+        }
+        return node;
+    }
 
     /**
-     * Array of characters of document to parse.
+     * Reads the tokens of a tag, from the given index until the end of tag. A
+     * tag end inside a string token does not end the tag.
+     * 
+     * @param document
+     *            containing the tag.
+     * @param from
+     *            index after the start of tag.
+     * @param tokens
+     *            list to which the read tokens are added.
+     * @return index after the end of tag.
+     * @throws SmartScriptParserException
+     *             if the tag is not closed or contains a faulty token.
      */
-    private char[] docArray;
+    static int readTagTokens(CharSequence document, int from,
+            List<Token> tokens) {
+        int position = from;
+        while (!isPair(document, position, '$', '}')) {
+            if (position >= document.length()) {
+                throw new SmartScriptParserException("Unclosed tag!");
+            }
+            char c = document.charAt(position);
+            if (c == ' ' || c == '\n' || c == '\t') {
+                position++;
+                continue;
+            }
+            ATokenCreator creator = null;
+            try {
+                creator = TokenCreators.getCreator(document, position);
+            } catch (IllegalArgumentException e) {
+                throw new SmartScriptParserException(e.getMessage());
+            }
+
+            position = creator.getEnd();
+            tokens.add(creator.getToken());
+        }
+        return position + 2;
+    }
+
+    /**
+     * Checks if the two characters at given index are the given characters.
+     * 
+     * @param document
+     *            whose characters are checked.
+     * @param index
+     *            of first character.
+     * @param first
+     *            expected first character.
+     * @param second
+     *            expected second character.
+     * @return true iff both characters are as expected.
+     */
+    private static boolean isPair(CharSequence document, int index,
+            char first, char second) {
+        return index + 1 < document.length()
+                && document.charAt(index) == first
+                && document.charAt(index + 1) == second;
+    }
+
+    /**
+     * Head node that contains all document information after parsing, actually
+     * the node hierarchy of the document.
+     */
+    private DocumentNode mainNode;
+    /** Text of document to parse. */
+    private CharSequence document;
+    /** Index of next character of document to be read. */
+    private int position;
 
     /** Makes generating graph of nodes easier. */
     private ObjectStack stack;
 
     /**
      * Constructs a read-only parser, that will contain all the parsed
-     * information in the mainNode field.
+     * information in the mainNode field. Variables of the parsed document are
+     * resolved into slots.
      * 
      * @param docBody
-     *            String to be parsed.
+     *            text to be parsed.
      */
-    public SmartScriptParser(String docBody) {
-        docString = docBody;
-        docArray = docBody.toCharArray();
+    public SmartScriptParser(CharSequence docBody) {
+        document = docBody;
         stack = new ObjectStack();
         mainNode = new DocumentNode();
         stack.push(mainNode);
         parseIt();
+        VariableResolver.resolve(mainNode);
     }
 
     /**
@@ -80,79 +164,6 @@ public class SmartScriptParser {
         topNode.addChildNode(node);
     }
 
-    /**
-     * Finds the index of tag end starting from index in the argument.
-     * 
-     * @param currentIndex
-     *            index from which the tag end is searched for.
-     * @return index of tag end, that is after currentIndex.
-     */
-    private int findNextTagEnd(int currentIndex) {
-        while (currentIndex < docArray.length) {
-            int possibleEnd = docString.indexOf("$}", currentIndex);
-
-            int nextQuoteIndex = currentIndex;
-            boolean openedQuote = false;
-            boolean isContained = false;
-
-            while (nextQuoteIndex < possibleEnd) {
-                int nextQuote = docString.indexOf("\"", nextQuoteIndex);
-
-                if (nextQuote == -1 && openedQuote) {
-                    throw new SmartScriptParserException("Unclosed quote!");
-                } else if (nextQuote == -1) {
-                    break;
-                }
-
-                if (isEscaped(nextQuote)) {
-                    nextQuoteIndex = nextQuote + 1;
-                    continue;
-                }
-
-                if (openedQuote && nextQuote > possibleEnd) {
-                    currentIndex = nextQuote + 1;
-                    isContained = true;
-                    break;
-                } else if (openedQuote) {
-                    openedQuote = false;
-                    nextQuoteIndex = nextQuote + 1;
-                } else {
-                    openedQuote = true;
-                    nextQuoteIndex = nextQuote + 1;
-                }
-            }
-            if (!isContained) {
-                return possibleEnd;
-            } else {
-                currentIndex = Math.max(currentIndex, possibleEnd + 1);
-            }
-        }
-
-        return docArray.length;
-    }
-
-    /**
-     * Finds the next start of opened tag.
-     * 
-     * @param currentIndex
-     *            from which the start of opened tag is searched for.
-     * @return next index of start of opened tag, or length of document if no
-     *         start was found.
-     */
-    private int findNextTagStart(int currentIndex) {
-        while (currentIndex < docArray.length) {
-            int possibleStart = docString.indexOf("{$", currentIndex);
-            if (possibleStart == -1) {
-                return docArray.length;
-            }
-            if (possibleStart == 0 || docArray[possibleStart - 1] != '\\') {
-                return possibleStart;
-            }
-            currentIndex = possibleStart + 2;
-        }
-        return docArray.length;
-    }
-
     /**
      * Gets the mainNode that contains parsed string information that was passed
      * as an argument to the constructor.
@@ -166,49 +177,38 @@ public class SmartScriptParser {
     }
 
     /**
-     * Checks if current char at given position is escaped.
-     * 
-     * @param currentIndex
-     *            position of char whose escaping is checked.
-     * @return true iff the char is escaped.
-     */
-    private boolean isEscaped(int currentIndex) {
-        int numberOfEscapes = 0;
-        while (currentIndex > 0 && docArray[currentIndex - 1] == '\\') {
-            currentIndex--;
-            numberOfEscapes++;
-        }
-        return numberOfEscapes % 2 == 1;
-    }
-
-    /**
-     * Main body of parser. Goes through sequence of chars in string and
-     * separates TextNodes and tags.
+     * Main body of parser. Goes through sequence of chars in document and
+     * separates TextNodes and tags. Escaping of text is handled while reading.
      * 
      * @throws SmartScriptParserException
      *             if a problem occurs with parsing
      */
     private void parseIt() {
-        int currentIndex = 0;
-
-        while (currentIndex < docArray.length) {
-            int tagStart = findNextTagStart(currentIndex);
-            int tagEnd = findNextTagEnd(tagStart + 2); // inclusive
-
-            if (tagStart != docArray.length && tagEnd == docArray.length) {
-                throw new SmartScriptParserException("Unclosed tag!");
+        int length = document.length();
+        StringBuilder text = new StringBuilder();
+        position = 0;
+
+        while (position < length) {
+            char c = document.charAt(position);
+            if (isPair(document, position, '\\', '\\')
+                    || isPair(document, position, '\\', '{')) {
+                // append that which is escaped, and skip
+                text.append(document.charAt(position + 1));
+                position += 2;
+                continue;
             }
-
-            if (tagStart != currentIndex) {
-                TextNode text = stringToTextNode(docString.substring(
-                        currentIndex, tagStart));
-                addNodeToTopNode(text);
-                if (tagStart == docArray.length) {
-                    break;
-                }
+            if (!isPair(document, position, '{', '$')) {
+                text.append(c);
+                position++;
+                continue;
             }
 
-            Node tagNode = parseTag(tagStart, tagEnd);
+            if (text.length() > 0) {
+                addNodeToTopNode(new TextNode(text.toString()));
+                text.setLength(0);
+            }
+            position += 2;
+            Node tagNode = parseTag();
 
             if (tagNode instanceof EndNode) {
                 try {
@@ -221,10 +221,13 @@ public class SmartScriptParser {
                 addNodeToTopNode(tagNode);
             }
 
-            if (tagNode instanceof ForLoopNode) {
+            if (tagNode instanceof ForLoopNode
+                    || tagNode instanceof CacheNode) {
                 stack.push(tagNode);
             }
-            currentIndex = tagEnd + 2;
+        }
+        if (text.length() > 0) {
+            addNodeToTopNode(new TextNode(text.toString()));
         }
 
         if (stack.size() != 1) {
@@ -234,70 +237,14 @@ public class SmartScriptParser {
     }
 
     /**
-     * Parses a tag into a node.
+     * Parses a tag into a node. Reads tokens from the current position until
+     * the end of tag, and leaves the position after the end of tag.
      * 
-     * @param tagStart
-     *            index of tag start in {@code docString}.
-     * @param tagEnd
-     *            index of tag end in {@code docString}.
      * @return Node representing the tag.
      */
-    private Node parseTag(int tagStart, int tagEnd) {
-        tagStart += 2;
-        // String tagString = docString.substring(tagStart, tagEnd);
-        List<Token> tokenList = new ArrayList<>();
-        int currentIndex = tagStart;
-        while (currentIndex < tagEnd) {
-            char c = docArray[currentIndex];
-            if (c == ' ' || c == '\n' || c == '\t') {
-                currentIndex++;
-                continue;
-            }
-            ATokenCreator creator = null;
-            try {
-                creator = TokenCreators.getCreator(docString,
-                        currentIndex);
-            } catch (IllegalArgumentException e) {
-                throw new SmartScriptParserException(e.getMessage());
-            }
-
-            currentIndex = creator.getEnd();
-            tokenList.add(creator.getToken());
-        }
-
-        Node node = null;
-        try {
-            node = NodeCreators.create(tokenList.toArray(new Token[1]));
-        } catch (IllegalArgumentException e) {
-            throw new SmartScriptParserException(e.getMessage());
-        }
-        return node;
-    }
-
-    /**
-     * Converts text for TextNode to form that acknowledges escaping.
-     * 
-     * @param toConvert
-     *            String with escaping, should be parsed.
-     * @return TextNode that contains the text from String without escaping.
-     */
-    private TextNode stringToTextNode(String toConvert) {
-        char[] arrayToConvert = toConvert.toCharArray();
-        StringBuilder convertBuilder = new StringBuilder();
-
-        for (int i = 0; i < arrayToConvert.length; i++) {
-            if (arrayToConvert[i] == '\\'
-                    && i != (arrayToConvert.length - 1)
-                    && (arrayToConvert[i + 1] == '\\' || arrayToConvert[i + 1] == '{')) {
-                // append that which is escaped, and skip
-                convertBuilder.append(arrayToConvert[i + 1]);
-                i++;
-                continue;
-            }
-            // if there is no escape, standard append
-            convertBuilder.append(arrayToConvert[i]);
-        }
-
-        return new TextNode(convertBuilder.toString());
+    private Node parseTag() {
+        List<Token> tokens = new ArrayList<>();
+        position = readTagTokens(document, position, tokens);
+        return createTagNode(tokens);
     }
 }
@@ -0,0 +1,214 @@
+package hr.fer.zemris.java.custom.scripting.parser;
+
+import hr.fer.zemris.java.custom.collections.ObjectStack;
+import hr.fer.zemris.java.custom.scripting.nodes.CacheNode;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.nodes.Node;
+import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser.EndNode;
+import hr.fer.zemris.java.custom.scripting.tokens.Token;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses a custom type script incrementally from a {@code Reader}. Instead of
+ * building the node hierarchy of the whole document, the parser gives the
+ * document in sections: small document nodes holding consecutive top-level
+ * nodes, which can be executed and forgotten before the rest of document is
+ * read. A file channel can be parsed through
+ * {@code Channels.newReader(channel, charset)}.
+ * 
+ * <p>
+ * A section ends after each top-level tag, and top-level text is split into
+ * sections of about {@code TEXT_SECTION_SIZE} characters, so memory used by
+ * parsing is proportional to the largest for loop of the document, and not to
+ * the size of the document. The syntax and errors are the same as in
+ * {@code SmartScriptParser}, but errors are found only when the section that
+ * contains them is read.
+ * 
+ * @author Erik Banek
+ */
+public class SmartScriptStreamParser {
+    /** Number of characters after which top-level text ends its section. */
+    public static final int TEXT_SECTION_SIZE = 8192;
+    /** Size of buffer of read characters. */
+    private static final int BUFFER_SIZE = 8192;
+    /** Reader from which the document is read. */
+    private Reader reader;
+    /** Buffer of characters read from the reader. */
+    private char[] buffer = new char[BUFFER_SIZE];
+    /** Index of next character in buffer. */
+    private int bufferPosition;
+    /** Number of valid characters in buffer. */
+    private int bufferLimit;
+
+    /**
+     * Constructor.
+     * 
+     * @param reader
+     *            from which the document is read.
+     * @throws IllegalArgumentException
+     *             if reader is null.
+     */
+    public SmartScriptStreamParser(Reader reader) {
+        if (reader == null) {
+            throw new IllegalArgumentException("Reader cannot be null!");
+        }
+        this.reader = reader;
+    }
+
+    /**
+     * Adds the text as a text node to the top node on the stack, if there is
+     * any text, and empties the builder.
+     * 
+     * @param stack
+     *            of open nodes.
+     * @param text
+     *            builder of text.
+     */
+    private void addText(ObjectStack stack, StringBuilder text) {
+        if (text.length() > 0) {
+            ((Node) stack.peek()).addChildNode(new TextNode(text.toString()));
+            text.setLength(0);
+        }
+    }
+
+    /**
+     * Reads the next section of the document. Variables of the section are
+     * resolved into slots.
+     * 
+     * @return document node holding the next top-level nodes, or null if the
+     *         whole document was read.
+     * @throws IOException
+     *             if a problem occurs with reading the document.
+     * @throws SmartScriptParserException
+     *             if the section is not a valid script.
+     */
+    public DocumentNode nextSection() throws IOException {
+        DocumentNode section = new DocumentNode();
+        ObjectStack stack = new ObjectStack();
+        stack.push(section);
+        StringBuilder text = new StringBuilder();
+
+        int c;
+        while ((c = read()) != -1) {
+            if (c == '\\' && (peek() == '\\' || peek() == '{')) {
+                // append that which is escaped, and skip
+                text.append((char) read());
+            } else if (c == '{' && peek() == '$') {
+                read();
+                addText(stack, text);
+                Node tagNode = readTag();
+
+                if (tagNode instanceof EndNode) {
+                    if (stack.size() == 1) {
+                        throw new SmartScriptParserException(
+                                "More end tags than for tags!");
+                    }
+                    stack.pop();
+                } else {
+                    ((Node) stack.peek()).addChildNode(tagNode);
+                }
+                if (tagNode instanceof ForLoopNode
+                        || tagNode instanceof CacheNode) {
+                    stack.push(tagNode);
+                }
+
+                if (stack.size() == 1) {
+                    break;
+                }
+                continue;
+            } else {
+                text.append((char) c);
+            }
+
+            // a surrogate pair is never split between two sections
+            if (stack.size() == 1 && text.length() >= TEXT_SECTION_SIZE
+                    && !Character.isHighSurrogate(
+                            text.charAt(text.length() - 1))) {
+                break;
+            }
+        }
+
+        if (c == -1 && stack.size() != 1) {
+            throw new SmartScriptParserException(
+                    "Wrong number of closing tags!");
+        }
+        addText(stack, text);
+        if (section.numberOfChildren() == 0) {
+            return null;
+        }
+        VariableResolver.resolve(section);
+        return section;
+    }
+
+    /**
+     * Gets the next character of the document without reading it.
+     * 
+     * @return next character, or -1 if the document has ended.
+     * @throws IOException
+     *             if a problem occurs with reading the document.
+     */
+    private int peek() throws IOException {
+        if (bufferPosition == bufferLimit) {
+            bufferLimit = reader.read(buffer);
+            bufferPosition = 0;
+            if (bufferLimit <= 0) {
+                bufferLimit = 0;
+                return -1;
+            }
+        }
+        return buffer[bufferPosition];
+    }
+
+    /**
+     * Reads the next character of the document.
+     * 
+     * @return read character, or -1 if the document has ended.
+     * @throws IOException
+     *             if a problem occurs with reading the document.
+     */
+    private int read() throws IOException {
+        int c = peek();
+        if (c != -1) {
+            bufferPosition++;
+        }
+        return c;
+    }
+
+    /**
+     * Reads the rest of a tag whose start was already read, and parses it
+     * into a node. The end of tag inside a string does not end the tag.
+     * 
+     * @return Node representing the tag.
+     * @throws IOException
+     *             if a problem occurs with reading the document.
+     */
+    private Node readTag() throws IOException {
+        StringBuilder tag = new StringBuilder();
+        boolean inString = false;
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw new SmartScriptParserException("Unclosed tag!");
+            }
+            tag.append((char) c);
+            if (inString && c == '\\' && peek() != -1) {
+                tag.append((char) read());
+            } else if (c == '"') {
+                inString = !inString;
+            } else if (!inString && c == '$' && peek() == '}') {
+                tag.append((char) read());
+                break;
+            }
+        }
+
+        List<Token> tokens = new ArrayList<>();
+        SmartScriptParser.readTagTokens(tag, 0, tokens);
+        return SmartScriptParser.createTagNode(tokens);
+    }
+}
@@ -0,0 +1,253 @@
+package hr.fer.zemris.java.custom.scripting.parser;
+
+import hr.fer.zemris.java.custom.scripting.nodes.CacheNode;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.nodes.INodeVisitor;
+import hr.fer.zemris.java.custom.scripting.nodes.IncludeNode;
+import hr.fer.zemris.java.custom.scripting.nodes.Node;
+import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Removes from HTML the bytes that browsers ignore. Every run of whitespace
+ * is replaced by a single new line if it holds one, or a single space
+ * otherwise, and comments are removed. Contents of {@code pre},
+ * {@code textarea}, {@code script} and {@code style} elements are kept as
+ * they are, as are conditional comments. Inside tags, whitespace between
+ * attributes is replaced as well, but quoted attribute values are kept as
+ * they are.
+ * 
+ * <p>
+ * In a script, only the text outside tags is minified, once, when the script
+ * is loaded. Texts are minified in the order in which they are output, so an
+ * element opened in one text and closed in another is recognized. A comment
+ * that holds a tag is kept, because the output of the tag would not be
+ * hidden anymore.
+ * 
+ * @author Erik Banek
+ */
+public class TextMinifier implements INodeVisitor {
+    /** Elements whose contents are kept as they are. */
+    private static final String[] RAW_ELEMENTS = { "pre", "textarea",
+            "script", "style" };
+
+    /**
+     * Finds the first occurrence of the string, ignoring case.
+     * 
+     * @param text
+     *            which is searched.
+     * @param s
+     *            string which is found.
+     * @param from
+     *            index from which the text is searched.
+     * @return index of the string, or -1 if it does not occur.
+     */
+    private static int indexOfIgnoreCase(String text, String s, int from) {
+        for (int i = from; i <= text.length() - s.length(); i++) {
+            if (text.regionMatches(true, i, s, 0, s.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks if the character is whitespace in HTML.
+     * 
+     * @param c
+     *            which is checked.
+     * @return true if the character is whitespace.
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f';
+    }
+
+    /**
+     * Minifies the text outside tags of the document.
+     * 
+     * @param documentNode
+     *            which is minified, and is not frozen.
+     * @return number of bytes in UTF-8 by which the text was reduced.
+     */
+    public static long minify(DocumentNode documentNode) {
+        TextMinifier minifier = new TextMinifier();
+        documentNode.accept(minifier);
+        return minifier.saved;
+    }
+
+    /**
+     * Minifies a whole HTML document.
+     * 
+     * @param html
+     *            which is minified.
+     * @return minified document.
+     */
+    public static String minify(String html) {
+        return new TextMinifier().minifyText(html);
+    }
+
+    /**
+     * Gets the name of the raw element whose start tag is at the index.
+     * 
+     * @param text
+     *            which holds the tag.
+     * @param index
+     *            of character {@code <}.
+     * @return name of the element, or null if no raw element starts there.
+     */
+    private static String rawElement(String text, int index) {
+        for (String name : RAW_ELEMENTS) {
+            int end = index + 1 + name.length();
+            if (text.regionMatches(true, index + 1, name, 0, name.length())
+                    && (end == text.length() || text.charAt(end) == '>'
+                            || text.charAt(end) == '/'
+                            || isWhitespace(text.charAt(end)))) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Text which ends the raw part that is being copied, such as the end tag
+     * of a raw element or the quote ending an attribute value, or null if the
+     * text is minified.
+     */
+    private String closing;
+    /** True while the minified text is inside a tag. */
+    private boolean inTag;
+    /** Number of bytes by which the texts were reduced. */
+    private long saved;
+
+    /**
+     * Minifies the text, which continues the texts minified before.
+     * 
+     * @param text
+     *            which is minified.
+     * @return minified text.
+     */
+    private String minifyText(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            if (closing != null) {
+                int end = indexOfIgnoreCase(text, closing, i);
+                if (end < 0) {
+                    sb.append(text, i, n);
+                    break;
+                }
+                end += closing.length();
+                sb.append(text, i, end);
+                i = end;
+                closing = null;
+                continue;
+            }
+
+            char c = text.charAt(i);
+            if (isWhitespace(c)) {
+                boolean newLine = false;
+                while (i < n && isWhitespace(text.charAt(i))) {
+                    newLine |= text.charAt(i) == '\n';
+                    i++;
+                }
+                int last = sb.length() - 1;
+                if (last >= 0 && isWhitespace(sb.charAt(last))) {
+                    // whitespace left before a removed comment
+                    if (newLine) {
+                        sb.setCharAt(last, '\n');
+                    }
+                } else {
+                    sb.append(newLine ? '\n' : ' ');
+                }
+            } else if (inTag) {
+                sb.append(c);
+                i++;
+                if (c == '"' || c == '\'') {
+                    closing = String.valueOf(c);
+                } else if (c == '>') {
+                    inTag = false;
+                }
+            } else if (text.startsWith("<!--", i)) {
+                int end = text.indexOf("-->", i + 4);
+                if (end < 0 || text.startsWith("<!--[", i)) {
+                    closing = "-->";
+                    sb.append("<!--");
+                    i += 4;
+                } else {
+                    i = end + 3;
+                }
+            } else {
+                String raw = c == '<' ? rawElement(text, i) : null;
+                if (raw != null) {
+                    closing = "</" + raw;
+                    sb.append(text, i, i + closing.length() - 1);
+                    i += closing.length() - 1;
+                } else {
+                    inTag = c == '<' && i + 1 < n
+                            && (Character.isLetter(text.charAt(i + 1))
+                                    || text.charAt(i + 1) == '/'
+                                    || text.charAt(i + 1) == '!');
+                    sb.append(c);
+                    i++;
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Visits all children of the node, and replaces its text children by
+     * minified ones.
+     * 
+     * @param node
+     *            whose children are visited.
+     */
+    private void visitChildren(Node node) {
+        int size = node.numberOfChildren();
+        for (int i = 0; i < size; i++) {
+            Node child = node.getChild(i);
+            if (!(child instanceof TextNode)) {
+                child.accept(this);
+                continue;
+            }
+            String text = ((TextNode) child).getText();
+            String minified = minifyText(text);
+            if (minified.length() != text.length()) {
+                saved += text.getBytes(StandardCharsets.UTF_8).length
+                        - minified.getBytes(StandardCharsets.UTF_8).length;
+                node.setChild(i, new TextNode(minified));
+            }
+        }
+    }
+
+    @Override
+    public void visitCacheNode(CacheNode node) {
+        visitChildren(node);
+    }
+
+    @Override
+    public void visitDocumentNode(DocumentNode node) {
+        visitChildren(node);
+    }
+
+    @Override
+    public void visitEchoNode(EchoNode node) {
+    }
+
+    @Override
+    public void visitForLoopNode(ForLoopNode node) {
+        visitChildren(node);
+    }
+
+    @Override
+    public void visitIncludeNode(IncludeNode node) {
+    }
+
+    @Override
+    public void visitTextNode(TextNode node) {
+    }
+}
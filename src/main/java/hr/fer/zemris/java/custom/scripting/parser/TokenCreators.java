@@ -28,17 +28,17 @@ public class TokenCreators {
         /**
          * Constructor.
          * 
-         * @param docString
+         * @param document
          *            containing all text of script.
          * @param fromIndex
-         *            index of start of token in docString.
+         *            index of start of token in document.
          * @throws IllegalArgumentException
          *             if a faulty document String is passed.
          */
-        public FunctionTokenCreator(String docString, int fromIndex)
+        public FunctionTokenCreator(CharSequence document, int fromIndex)
                 throws IllegalArgumentException {
-            super(docString, fromIndex);
-            variableCreator = new VariableTokenCreator(docString, fromIndex + 1);
+            super(document, fromIndex);
+            variableCreator = new VariableTokenCreator(document, fromIndex + 1);
             end = variableCreator.end;
             token = new TokenFunction(variableCreator.getString());
         }
@@ -54,22 +54,22 @@ public class TokenCreators {
         /**
          * Constructor.
          * 
-         * @param docString
+         * @param document
          *            containing all text of script.
          * @param fromIndex
-         *            index of start of token in docString.
+         *            index of start of token in document.
          * @throws IllegalArgumentException
          *             if a faulty document String is passed.
          */
-        public NumberTokenCreator(String docString, int fromIndex)
+        public NumberTokenCreator(CharSequence document, int fromIndex)
                 throws IllegalArgumentException {
 
-            super(docString, fromIndex);
+            super(document, fromIndex);
             boolean dotAppeared = false;
             int currentIndex = fromIndex;
 
-            while (currentIndex < docString.length()) {
-                Character c = docString.charAt(currentIndex);
+            while (currentIndex < document.length()) {
+                char c = document.charAt(currentIndex);
                 if (Character.isDigit(c) || c == '.') {
                     if (c == '.') {
                         dotAppeared = true;
@@ -80,7 +80,7 @@ public class TokenCreators {
                 end = currentIndex;
 
                 try {
-                    String num = docString.substring(fromIndex, end);
+                    String num = getString();
                     if (dotAppeared) {
                         double d = Double.parseDouble(num);
                         token = new TokenConstantDouble(d);
@@ -108,124 +108,89 @@ public class TokenCreators {
         /**
          * Constructor.
          * 
-         * @param docString
+         * @param document
          *            containing all text of script.
          * @param fromIndex
-         *            index of start of token in docString.
+         *            index of start of token in document.
          */
-        public OperatorTokenCreator(String docString, int fromIndex) {
-            super(docString, fromIndex);
-            token = new TokenOperator(docString.substring(fromIndex,
-                    fromIndex + 1));
+        public OperatorTokenCreator(CharSequence document, int fromIndex) {
+            super(document, fromIndex);
+            token = new TokenOperator(String.valueOf(document
+                    .charAt(fromIndex)));
             end = fromIndex + 1;
         }
     }
 
     /**
-     * Creator of {@code TokenString}.
+     * Creator of {@code TokenString}. The string is read and unescaped in a
+     * single pass.
      * 
      * @author Erik Banek
      */
     public static class StringTokenCreator extends ATokenCreator {
         /**
-         * Converts string in tag to TokenString. Escaping is handled and
-         * converted here.
+         * Gets the character that an escape sequence stands for.
          * 
-         * @param toConvert
-         *            String to be parsed into token String.
-         * @return parsed token String
+         * @param c
+         *            character after the backslash.
+         * @return escaped character, or 0 if the sequence is not an escape.
          */
-        private static TokenString stringToTokenString(String toConvert) {
-            // get rid of "", and convert to array
-            char[] arrayToConvert = toConvert.substring(1,
-                    toConvert.length() - 1).toCharArray();
-            StringBuilder convertBuilder = new StringBuilder();
-
-            for (int i = 0; i < arrayToConvert.length; i++) {
-                if (arrayToConvert[i] == '\\'
-                        && i != (arrayToConvert.length - 1)
-                        && (arrayToConvert[i + 1] == '\\'
-                                || arrayToConvert[i + 1] == 'n'
-                                || arrayToConvert[i + 1] == '\"'
-                                || arrayToConvert[i + 1] == 't'
-                                || arrayToConvert[i + 1] == 'r')) {
-                    char toAppend = 0;
-                    switch (arrayToConvert[i + 1]) {
-                    case '\\':
-                        toAppend = '\\';
-                        break;
-                    case '\"':
-                        toAppend = '\"';
-                        break;
-                    case 'n':
-                        toAppend = '\n';
-                        break;
-                    case 't':
-                        toAppend = '\t';
-                        break;
-                    case 'r':
-                        toAppend = '\r';
-                        break;
-                    }
-
-                    convertBuilder.append(toAppend);
-                    i++;
-                    continue;
-                }
-                // if there is no escape, standard append
-                convertBuilder.append(arrayToConvert[i]);
+        private static char unescape(char c) {
+            switch (c) {
+            case '\\':
+                return '\\';
+            case '\"':
+                return '\"';
+            case 'n':
+                return '\n';
+            case 't':
+                return '\t';
+            case 'r':
+                return '\r';
+            default:
+                return 0;
             }
-            return new TokenString(convertBuilder.toString());
         }
 
-        /** Array of characters in document, equivalent to docString. */
-        private char[] docArray;
-
         /**
          * Constructor.
          * 
-         * @param docString
+         * @param document
          *            containing all text of script.
          * @param fromIndex
-         *            index of start of token in docString.
+         *            index of start of token in document.
          * @throws IllegalArgumentException
          *             if a faulty document String is passed.
          */
-        public StringTokenCreator(String docString, int fromIndex)
+        public StringTokenCreator(CharSequence document, int fromIndex)
                 throws IllegalArgumentException {
-            super(docString, fromIndex);
-            int currentIndex = fromIndex;
-            docArray = docString.toCharArray();
-            while (currentIndex < docString.length()) {
-                int possibleEnd = docString.indexOf("\"", currentIndex + 1);
-                if (!isEscaped(possibleEnd)) {
-                    end = possibleEnd + 1;
-                    token = stringToTokenString(docString.substring(fromIndex,
-                            end));
+            super(document, fromIndex);
+            StringBuilder convertBuilder = new StringBuilder();
+            int length = document.length();
+            int currentIndex = fromIndex + 1;
+
+            while (currentIndex < length) {
+                char c = document.charAt(currentIndex);
+                if (c == '\"') {
+                    end = currentIndex + 1;
+                    token = new TokenString(convertBuilder.toString());
                     return;
                 }
-                currentIndex = possibleEnd;
-
+                if (c == '\\' && currentIndex + 1 < length) {
+                    char escaped = unescape(document.charAt(currentIndex + 1));
+                    if (escaped != 0) {
+                        convertBuilder.append(escaped);
+                        currentIndex += 2;
+                        continue;
+                    }
+                }
+                // if there is no escape, standard append
+                convertBuilder.append(c);
+                currentIndex++;
             }
             throw new IllegalArgumentException(
                     "String token extends to end of document!");
         }
-
-        /**
-         * Checks if current char at given position is escaped.
-         * 
-         * @param currentIndex
-         *            position of char whose escaping is checked.
-         * @return true iff the char is escaped.
-         */
-        private boolean isEscaped(int currentIndex) {
-            int numberOfEscapes = 0;
-            while (currentIndex > 0 && docArray[currentIndex - 1] == '\\') {
-                currentIndex--;
-                numberOfEscapes++;
-            }
-            return numberOfEscapes % 2 == 1;
-        }
     }
 
     /**
@@ -248,23 +213,22 @@ public class TokenCreators {
         /**
          * Constructor.
          * 
-         * @param docString
+         * @param document
          *            containing all text of script.
          * @param fromIndex
-         *            index of start of token in docString.
+         *            index of start of token in document.
          * @throws IllegalArgumentException
          *             if a faulty document String is passed.
          */
-        public VariableTokenCreator(String docString, int fromIndex)
+        public VariableTokenCreator(CharSequence document, int fromIndex)
                 throws IllegalArgumentException {
-            super(docString, fromIndex);
+            super(document, fromIndex);
             int currentIndex = fromIndex;
-            while (currentIndex < docString.length()) {
-                Character c = docString.charAt(currentIndex);
+            while (currentIndex < document.length()) {
+                char c = document.charAt(currentIndex);
                 if (!isVariableChar(c)) {
                     end = currentIndex;
-                    token = new TokenVariable(docString.substring(fromIndex,
-                            end));
+                    token = new TokenVariable(getString());
                     return;
                 }
                 currentIndex++;
@@ -288,30 +252,30 @@ public class TokenCreators {
     }
 
     /**
-     * Gets the token creator created from the document String and starting
+     * Gets the token creator created from the document text and starting
      * index of token. Helpful fact: which token is created is known from the
      * first character of token.
      * 
-     * @param docString
+     * @param document
      *            containing all text of script.
      * @param fromIndex
-     *            index of start of token in docString.
+     *            index of start of token in document.
      * @return token creator.
      */
-    public static ATokenCreator getCreator(String docString, int fromIndex) {
-        String tokenStringStart = docString.substring(fromIndex);
-        Character start = tokenStringStart.charAt(0);
+    public static ATokenCreator getCreator(CharSequence document,
+            int fromIndex) {
+        char start = document.charAt(fromIndex);
 
         if (Character.isLetter(start)) {
-            return new VariableTokenCreator(docString, fromIndex);
+            return new VariableTokenCreator(document, fromIndex);
         } else if (start == '\"') {
-            return new StringTokenCreator(docString, fromIndex);
+            return new StringTokenCreator(document, fromIndex);
         } else if (Character.isDigit(start)) {
-            return new NumberTokenCreator(docString, fromIndex);
+            return new NumberTokenCreator(document, fromIndex);
         } else if (start == '@') {
-            return new FunctionTokenCreator(docString, fromIndex);
+            return new FunctionTokenCreator(document, fromIndex);
         } else if (operators.contains(start)) {
-            return new OperatorTokenCreator(docString, fromIndex);
+            return new OperatorTokenCreator(document, fromIndex);
         } else {
             throw new IllegalArgumentException(
                     "Unkown token starting character!");
@@ -0,0 +1,127 @@
+package hr.fer.zemris.java.custom.scripting.parser;
+
+import hr.fer.zemris.java.custom.scripting.nodes.CacheNode;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.nodes.INodeVisitor;
+import hr.fer.zemris.java.custom.scripting.nodes.IncludeNode;
+import hr.fer.zemris.java.custom.scripting.nodes.Node;
+import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+import hr.fer.zemris.java.custom.scripting.tokens.Token;
+import hr.fer.zemris.java.custom.scripting.tokens.TokenVariable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Resolves the variables of a parsed document into numeric slots, so that the
+ * engine can access a variable by an array index instead of its name.
+ * 
+ * <p>
+ * Each for loop holds its variable in the slot equal to its nesting depth, so
+ * a nested loop with the same variable name shadows the outer one. Variables
+ * in echo and cache tags are resolved to the slot of the innermost enclosing
+ * loop with the same name, or to -1 if no such loop exists.
+ * 
+ * @author Erik Banek
+ */
+public class VariableResolver implements INodeVisitor {
+    /**
+     * Resolves all variables in the document, and stores the number of needed
+     * slots in the document.
+     * 
+     * @param documentNode
+     *            whose variables are resolved.
+     */
+    public static void resolve(DocumentNode documentNode) {
+        VariableResolver resolver = new VariableResolver();
+        documentNode.accept(resolver);
+        documentNode.setVariableSlots(resolver.maxDepth);
+    }
+
+    /** Names of variables of enclosing loops, indexed by slot. */
+    private List<String> declared = new ArrayList<>();
+    /** Deepest nesting of loops found. */
+    private int maxDepth;
+
+    /**
+     * Finds the slot of innermost declared variable with given name.
+     * 
+     * @param name
+     *            of variable.
+     * @return slot of variable, or -1 if it is not declared.
+     */
+    private int findSlot(String name) {
+        for (int i = declared.size() - 1; i >= 0; i--) {
+            if (declared.get(i).equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Resolves the variables among the tokens.
+     * 
+     * @param tokens
+     *            whose variables are resolved.
+     */
+    private void resolveTokens(Token[] tokens) {
+        for (Token t : tokens) {
+            if (t instanceof TokenVariable) {
+                TokenVariable variable = (TokenVariable) t;
+                variable.setSlot(findSlot(variable.getName()));
+            }
+        }
+    }
+
+    /**
+     * Visits all children of the node.
+     * 
+     * @param node
+     *            whose children are visited.
+     */
+    private void visitChildren(Node node) {
+        int size = node.numberOfChildren();
+        for (int i = 0; i < size; i++) {
+            node.getChild(i).accept(this);
+        }
+    }
+
+    @Override
+    public void visitCacheNode(CacheNode node) {
+        resolveTokens(node.getVaryTokens());
+        visitChildren(node);
+    }
+
+    @Override
+    public void visitDocumentNode(DocumentNode node) {
+        visitChildren(node);
+    }
+
+    @Override
+    public void visitEchoNode(EchoNode node) {
+        resolveTokens(node.getTokens());
+    }
+
+    @Override
+    public void visitForLoopNode(ForLoopNode node) {
+        TokenVariable variable = node.getVariable();
+        variable.setSlot(declared.size());
+        declared.add(variable.getName());
+        maxDepth = Math.max(maxDepth, declared.size());
+
+        visitChildren(node);
+
+        declared.remove(declared.size() - 1);
+    }
+
+    @Override
+    public void visitIncludeNode(IncludeNode node) {
+    }
+
+    @Override
+    public void visitTextNode(TextNode node) {
+    }
+}
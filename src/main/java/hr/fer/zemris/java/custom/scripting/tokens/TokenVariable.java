@@ -8,6 +8,11 @@ package hr.fer.zemris.java.custom.scripting.tokens;
 public class TokenVariable extends Token {
     /** Name of variable in token. */
     private String name;
+    /**
+     * Index of the slot in which the engine holds the value of variable, or
+     * -1 if the variable is not declared by an enclosing for loop.
+     */
+    private int slot = -1;
 
     /**
      * Constructs a read-only token, that holds a variable name.
@@ -33,6 +38,26 @@ public class TokenVariable extends Token {
         return this.name;
     }
 
+    /**
+     * Gets the index of slot holding the value of variable.
+     * 
+     * @return slot index, or -1 if the variable is not resolved.
+     */
+    public int getSlot() {
+        return this.slot;
+    }
+
+    /**
+     * Sets the index of slot holding the value of variable. Set once while the
+     * script is loaded.
+     * 
+     * @param slot
+     *            index of slot, or -1 if the variable is not declared.
+     */
+    public void setSlot(int slot) {
+        this.slot = slot;
+    }
+
     @Override
     public String toString() {
         return this.name;
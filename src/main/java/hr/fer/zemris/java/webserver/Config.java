@@ -33,6 +33,21 @@ public interface Config {
      * Default name of server properties file that contains worker packages.
      */
     String DEFAULT_WORKERS_FILE = "worker.properties";
+    /**
+     * Default name of server properties file that contains rules of response
+     * cache.
+     */
+    String DEFAULT_RESPONSE_CACHE_FILE = "responseCache.properties";
+    /**
+     * Default name of server properties file that contains execution limits
+     * of scripts on chosen paths.
+     */
+    String DEFAULT_SCRIPT_LIMITS_FILE = "scriptLimits.properties";
+    /**
+     * Default name of server properties file that contains scripts which are
+     * rendered in advance.
+     */
+    String DEFAULT_PRE_RENDER_FILE = "preRender.properties";
     /** Default server address. */
     String DEFAULT_ADDRESS = "127.0.0.1";
     /** Default number of supported threads in the server. */
@@ -44,6 +59,48 @@ public interface Config {
      * remembered.
      */
     String DEFAULT_SESSION_TIMEOUT = "10";
+    /**
+     * Default setting of rendering independent top-level sections of scripts
+     * in parallel.
+     */
+    String DEFAULT_PARALLEL_SECTIONS = "false";
+    /**
+     * Default size in bytes above which scripts are streamed instead of being
+     * parsed whole and cached.
+     */
+    String DEFAULT_STREAMING_THRESHOLD = "1048576";
+    /**
+     * Default time in milliseconds for which a request waits for the response
+     * of an identical request.
+     */
+    String DEFAULT_COALESCING_TIMEOUT = "5000";
+    /** Default setting of parsing all scripts when the server starts. */
+    String DEFAULT_PRECOMPILE = "true";
+    /**
+     * Default setting of aborting the server start when a script is not
+     * valid.
+     */
+    String DEFAULT_PRECOMPILE_ABORT_ON_ERROR = "false";
+    /**
+     * Default folder in which parsed scripts are stored, empty if they are
+     * not stored.
+     */
+    String DEFAULT_SCRIPT_DISK_CACHE = "";
+    /** Default number of executions after which a script is compiled. */
+    String DEFAULT_PROMOTION_THRESHOLD = "2";
+    /** Default number of loop iterations after which a script is compiled. */
+    String DEFAULT_PROMOTION_ITERATIONS = "10000";
+    /** Default execution limits of scripts, empty if they are not limited. */
+    String DEFAULT_SCRIPT_LIMITS = "";
+    /** Default maximal size in bytes of the cache of script fragments. */
+    String DEFAULT_FRAGMENT_CACHE_SIZE = "16777216";
+    /**
+     * Default capacities of memoized functions, empty if no function is
+     * memoized.
+     */
+    String DEFAULT_SCRIPT_MEMOIZE = "";
+    /** Default setting whether scripts and HTML files are minified. */
+    String DEFAULT_MINIFY = "false";
     /**
      * Default start path which indicates that a worker with some name is
      * wanted.
@@ -0,0 +1,25 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Computes a response whose bytes can be stored by the
+ * {@code ResponseCache}.
+ * 
+ * @author Erik Banek
+ */
+public interface IResponseLoader {
+    /**
+     * Computes the whole response, header and body, and writes it to the
+     * stream.
+     * 
+     * @param os
+     *            to which the response is written.
+     * @return true if the response can be cached and shared with other
+     *         requests.
+     * @throws IOException
+     *             if a problem occurs with computing or writing the response.
+     */
+    boolean load(OutputStream os) throws IOException;
+}
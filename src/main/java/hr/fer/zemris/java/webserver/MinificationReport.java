@@ -0,0 +1,89 @@
+package hr.fer.zemris.java.webserver;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sizes of minified files before and after minification, recorded every time
+ * a file is minified. For a script, the size after minification is the size
+ * of the script file reduced by the bytes removed from its text.
+ * 
+ * <p>
+ * A single report is shared by the server and the worker showing it.
+ * 
+ * @author Erik Banek
+ */
+public class MinificationReport {
+    /** Report shared by the server and its workers. */
+    private static final MinificationReport instance =
+            new MinificationReport();
+
+    /**
+     * Gets the report shared by the server and its workers.
+     * 
+     * @return shared report.
+     */
+    public static MinificationReport getInstance() {
+        return instance;
+    }
+
+    /** Original and minified sizes mapped to paths of files. */
+    private Map<Path, long[]> sizes = new ConcurrentHashMap<>();
+
+    /**
+     * Removes all recorded files.
+     */
+    public void clear() {
+        sizes.clear();
+    }
+
+    /**
+     * Gets the paths of all minified files.
+     * 
+     * @return paths of files.
+     */
+    public Set<Path> getFiles() {
+        return sizes.keySet();
+    }
+
+    /**
+     * Gets the size of the file after its last minification.
+     * 
+     * @param path
+     *            to the file.
+     * @return size in bytes, -1 if the file was not minified.
+     */
+    public long getMinifiedSize(Path path) {
+        long[] size = sizes.get(path.toAbsolutePath().normalize());
+        return size == null ? -1 : size[1];
+    }
+
+    /**
+     * Gets the size of the file before its last minification.
+     * 
+     * @param path
+     *            to the file.
+     * @return size in bytes, -1 if the file was not minified.
+     */
+    public long getOriginalSize(Path path) {
+        long[] size = sizes.get(path.toAbsolutePath().normalize());
+        return size == null ? -1 : size[0];
+    }
+
+    /**
+     * Records a minification of the file.
+     * 
+     * @param path
+     *            to the file.
+     * @param originalSize
+     *            size in bytes before minification.
+     * @param minifiedSize
+     *            size in bytes after minification.
+     */
+    public void record(Path path, long originalSize, long minifiedSize) {
+        sizes.put(path.toAbsolutePath().normalize(),
+                new long[] { originalSize, minifiedSize });
+    }
+}
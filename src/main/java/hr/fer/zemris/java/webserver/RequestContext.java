@@ -2,13 +2,19 @@ package hr.fer.zemris.java.webserver;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 /**
@@ -124,10 +130,92 @@ public class RequestContext {
             return sb.toString();
         }
     }
+
+    /**
+     * Encoder of character sequences into a buffer, kept by every thread and
+     * reused by all contexts written on that thread, since a sequence is
+     * always encoded and written in a single call.
+     * 
+     * @author Erik Banek
+     */
+    private static class TextEncoder {
+        /** Charset of encoder. */
+        private final Charset charset;
+        /** Encoder of character sequences. */
+        private final CharsetEncoder encoder;
+        /** Buffer into which character sequences are encoded. */
+        private final ByteBuffer buffer;
+
+        /**
+         * Constructor.
+         * 
+         * @param charset
+         *            of encoder.
+         * @param buffer
+         *            into which character sequences are encoded.
+         */
+        private TextEncoder(Charset charset, ByteBuffer buffer) {
+            this.charset = charset;
+            this.encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.buffer = buffer;
+        }
+    }
+
     /** Protocol which is used. */
     private final static String PROTOCOL = "HTTP/1.1";
     /** Default encoding of the header of http response. */
     private final static Charset HEADER_ENCODING = StandardCharsets.US_ASCII;
+    /** Size of buffer into which character sequences are encoded. */
+    private final static int ENCODE_BUFFER_SIZE = 4096;
+    /** Encoder of the current thread, null before its first use. */
+    private final static ThreadLocal<TextEncoder> encoders = new ThreadLocal<>();
+
+    /**
+     * Applies the changes to the target map.
+     * 
+     * @param changes
+     *            values of changed parameters, null for removed ones.
+     * @param target
+     *            map to which changes are applied.
+     */
+    private static void applyChanges(Map<String, String> changes,
+            Map<String, String> target) {
+        for (Map.Entry<String, String> entry : changes.entrySet()) {
+            if (entry.getValue() == null) {
+                target.remove(entry.getKey());
+            } else {
+                target.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Records the differences between the changed map and the original map.
+     * 
+     * @param original
+     *            map from which the changed map was made.
+     * @param changed
+     *            map with changes.
+     * @param changes
+     *            to which values of changed parameters are put, and null for
+     *            removed ones.
+     */
+    private static void recordChanges(Map<String, String> original,
+            Map<String, String> changed, Map<String, String> changes) {
+        for (String name : original.keySet()) {
+            if (!changed.containsKey(name)) {
+                changes.put(name, null);
+            }
+        }
+        for (Map.Entry<String, String> entry : changed.entrySet()) {
+            if (!Objects.equals(original.get(entry.getKey()), entry.getValue())) {
+                changes.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
     /** Stream to which the context sends bytes of data. */
     private OutputStream outputStream;
     /**
@@ -166,6 +254,30 @@ public class RequestContext {
      * properties cannot be changed after the header has been generated.
      */
     private boolean headerGenerated = false;
+    /** True if persistent parameters were read or changed. */
+    private boolean persistentParametersUsed = false;
+    /**
+     * Temporary parameters of the parent context when the fragment was
+     * created, null if this context is not a fragment.
+     */
+    private Map<String, String> temporaryBase;
+    /**
+     * Persistent parameters of the parent context when the fragment was
+     * created, null if this context is not a fragment.
+     */
+    private Map<String, String> persistentBase;
+    /**
+     * Changes of temporary parameters made in finished runs of the fragment,
+     * with null for removed parameters.
+     */
+    private Map<String, String> temporaryChanges;
+    /**
+     * Changes of persistent parameters made in finished runs of the fragment,
+     * with null for removed parameters.
+     */
+    private Map<String, String> persistentChanges;
+    /** True if parameters were changed since the fragment was (re)started. */
+    private boolean parametersChanged;
 
     /**
      * Constructor.
@@ -209,6 +321,66 @@ public class RequestContext {
         outputCookies.add(rcCookie);
     }
 
+    /**
+     * Creates a fragment of this context, a context whose output is a part of
+     * the body of this context. The fragment writes no header, and its header
+     * properties and cookies cannot be changed. It reads the parameters of
+     * this context, and works on its own copies of temporary and persistent
+     * parameters. The parameters are remembered as they were when the fragment
+     * was created, and only the parameters which the fragment changed since
+     * then are given back to this context by {@code mergeFragments}.
+     * 
+     * <p>
+     * Fragments can be created and used from multiple threads at once, as long
+     * as this context is not used until they are merged.
+     * 
+     * @param outputStream
+     *            to which the fragment writes its output.
+     * @return new fragment.
+     */
+    public RequestContext createFragment(OutputStream outputStream) {
+        Map<String, String> temporary = new HashMap<>(temporaryParameters);
+        Map<String, String> persistent = new HashMap<>(persistentParameters);
+        RequestContext fragment = new RequestContext(outputStream, parameters,
+                new HashMap<>(persistent),
+                Collections.unmodifiableList(outputCookies));
+        fragment.temporaryParameters = new HashMap<>(temporary);
+        fragment.temporaryBase = temporary;
+        fragment.persistentBase = persistent;
+        fragment.temporaryChanges = new HashMap<>();
+        fragment.persistentChanges = new HashMap<>();
+        fragment.encoding = encoding;
+        fragment.statusCode = statusCode;
+        fragment.statusText = statusText;
+        fragment.mimeType = mimeType;
+        fragment.charset = getCharset();
+        fragment.headerGenerated = true;
+        return fragment;
+    }
+
+    /**
+     * Sends all written data to the client. Does not generate the header.
+     * 
+     * @throws IOException
+     *             if a problem occurs with flushing data to client.
+     */
+    public void flush() throws IOException {
+        outputStream.flush();
+    }
+
+    /**
+     * Gets the charset with which textual data is turned into bytes. Before the
+     * header is generated the charset is derived from the current encoding.
+     * 
+     * @return charset of textual data.
+     */
+    public Charset getCharset() {
+        if (headerGenerated) {
+            return charset;
+        }
+        return Charset.forName(encoding);
+    }
+
     /**
      * Retrieves the value from parameters map with the given name.
      * 
@@ -238,6 +410,7 @@ public class RequestContext {
      * @return wanted value.
      */
     public String getPersistentParameter(String name) {
+        persistentParametersUsed = true;
         return persistentParameters.get(name);
     }
 
@@ -248,9 +421,19 @@ public class RequestContext {
      * @return read-only persistent parameters map.
      */
     public Set<String> getPersistentParameterNames() {
+        persistentParametersUsed = true;
         return Collections.unmodifiableSet(persistentParameters.keySet());
     }
 
+    /**
+     * Gets the status code of http response.
+     * 
+     * @return status code of response.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
     /**
      * Retrieves the value from temporary parameters map with the given name.
      * 
@@ -272,6 +455,62 @@ public class RequestContext {
         return Collections.unmodifiableSet(temporaryParameters.keySet());
     }
 
+    /**
+     * Checks if the header was already written, after which the status, mime
+     * type, encoding and cookies cannot be changed.
+     * 
+     * @return true if the header was written.
+     */
+    public boolean isHeaderGenerated() {
+        return headerGenerated;
+    }
+
+    /**
+     * Checks if persistent parameters of this context were read or changed,
+     * either directly or through merged fragments. A response that used them
+     * depends on the session of the client.
+     * 
+     * @return true if persistent parameters were used.
+     */
+    public boolean isPersistentParametersUsed() {
+        return persistentParametersUsed;
+    }
+
+    /**
+     * Applies the changes of temporary and persistent parameters made in the
+     * fragments of this context, in all of their runs. Fragments are applied
+     * in the given order, so if more fragments changed the same parameter,
+     * the last one wins. Parameters which a fragment did not change keep
+     * their values in this context, even if they were changed after the
+     * fragment was created.
+     * 
+     * @param fragments
+     *            created by {@code createFragment} of this context.
+     */
+    public void mergeFragments(List<RequestContext> fragments) {
+        for (RequestContext fragment : fragments) {
+            fragment.recordChanges();
+            applyChanges(fragment.temporaryChanges, temporaryParameters);
+            applyChanges(fragment.persistentChanges, persistentParameters);
+            parametersChanged |= !fragment.temporaryChanges.isEmpty()
+                    || !fragment.persistentChanges.isEmpty();
+            persistentParametersUsed |= fragment.persistentParametersUsed;
+        }
+    }
+
+    /**
+     * Records the changes of parameters made in the current run of this
+     * fragment.
+     */
+    private void recordChanges() {
+        if (parametersChanged) {
+            recordChanges(temporaryBase, temporaryParameters,
+                    temporaryChanges);
+            recordChanges(persistentBase, persistentParameters,
+                    persistentChanges);
+        }
+    }
+
     /**
      * Removes a value from temporaryParameters map.
      * 
@@ -279,6 +518,8 @@ public class RequestContext {
      *            of value to be removed.
      */
     public void removePersistentParameter(String name) {
+        persistentParametersUsed = true;
+        parametersChanged = true;
         persistentParameters.remove(name);
     }
 
@@ -289,9 +530,32 @@ public class RequestContext {
      *            of value to be removed.
      */
     public void removeTemporaryParameter(String name) {
+        parametersChanged = true;
         temporaryParameters.remove(name);
     }
 
+    /**
+     * Starts a new run of this fragment, such as the next iteration of a
+     * parallel loop. The changes of parameters made so far are kept for
+     * {@code mergeFragments}, and the parameters are restored to what they
+     * were when the fragment was created.
+     * 
+     * @throws IllegalStateException
+     *             if this context is not a fragment.
+     */
+    public void restartFragment() {
+        if (temporaryBase == null) {
+            throw new IllegalStateException("Context is not a fragment!");
+        }
+        if (!parametersChanged) {
+            return;
+        }
+        recordChanges();
+        temporaryParameters = new HashMap<>(temporaryBase);
+        persistentParameters = new HashMap<>(persistentBase);
+        parametersChanged = false;
+    }
+
     /**
      * Sets the encoding which the client will be told to use for interpreting
      * textual data.
@@ -337,6 +601,8 @@ public class RequestContext {
      *            to be stored.
      */
     public void setPersistentParameter(String name, String value) {
+        persistentParametersUsed = true;
+        parametersChanged = true;
         persistentParameters.put(name, value);
     }
 
@@ -379,6 +645,7 @@ public class RequestContext {
      *            to be stored.
      */
     public void setTemporaryParameter(String name, String value) {
+        parametersChanged = true;
         temporaryParameters.put(name, value);
     }
 
@@ -392,10 +659,67 @@ public class RequestContext {
      *             if a problem occurs with writing data to user.
      */
     public RequestContext write(byte[] data) throws IOException {
+        return write(data, 0, data.length);
+    }
+
+    /**
+     * Writes a slice of byte data to user. Used for data that was already
+     * encoded, such as pre-encoded static parts of scripts.
+     * 
+     * @param data
+     *            array containing the slice to be sent to user.
+     * @param offset
+     *            index of first byte of slice.
+     * @param length
+     *            number of bytes in slice.
+     * @return this.
+     * @throws IOException
+     *             if a problem occurs with writing data to user.
+     */
+    public RequestContext write(byte[] data, int offset, int length)
+            throws IOException {
         if (!headerGenerated) {
             writeHeader();
         }
-        outputStream.write(data, 0, data.length);
+        outputStream.write(data, offset, length);
+        return this;
+    }
+
+    /**
+     * Writes a character sequence to the user, generates the header if it was
+     * not generated. The sequence is encoded through an encoder and a buffer
+     * of the current thread, reused by all contexts, so no intermediate String
+     * or byte array is created.
+     * 
+     * @param text
+     *            that the user will be sent.
+     * @return this.
+     * @throws IOException
+     *             if a problem occurs with writing text to user.
+     */
+    public RequestContext write(CharSequence text) throws IOException {
+        if (!headerGenerated) {
+            writeHeader();
+        }
+        TextEncoder textEncoder = encoders.get();
+        if (textEncoder == null || !textEncoder.charset.equals(charset)) {
+            textEncoder = new TextEncoder(charset, textEncoder == null
+                    ? ByteBuffer.allocate(ENCODE_BUFFER_SIZE)
+                    : textEncoder.buffer);
+            encoders.set(textEncoder);
+        }
+        CharsetEncoder encoder = textEncoder.encoder;
+        ByteBuffer buffer = textEncoder.buffer;
+        CharBuffer in = CharBuffer.wrap(text);
+        encoder.reset();
+        buffer.clear();
+        while (encoder.encode(in, buffer, true) == CoderResult.OVERFLOW) {
+            writeEncodeBuffer(buffer);
+        }
+        while (encoder.flush(buffer) == CoderResult.OVERFLOW) {
+            writeEncodeBuffer(buffer);
+        }
+        writeEncodeBuffer(buffer);
         return this;
     }
 
@@ -417,6 +741,20 @@ public class RequestContext {
         return this;
     }
 
+    /**
+     * Writes the encoded bytes from the encode buffer to the client and clears
+     * the buffer.
+     * 
+     * @param buffer
+     *            which holds the encoded bytes.
+     * @throws IOException
+     *             if something wrong occurs with writing to client.
+     */
+    private void writeEncodeBuffer(ByteBuffer buffer) throws IOException {
+        outputStream.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+    }
+
     /**
      * Writes the header that contains all current information contained in the
      * context that a typical header needs.
@@ -0,0 +1,606 @@
+package hr.fer.zemris.java.webserver;
+
+import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+/**
+ * Cache of whole responses of the server, so that identical requests are not
+ * processed again. Only responses to paths that match one of the rules of the
+ * cache are cached. A rule gives a pattern of paths, in which {@code *} matches
+ * any sequence of characters, the time for which a response stays fresh, and
+ * names of request headers whose values select separate copies of the
+ * response. If more rules match a path, the one with the longest pattern is
+ * used.
+ * 
+ * <p>
+ * A response is stored as the bytes of its header and body, under a key made
+ * of the path, the request parameters in sorted order and the values of the
+ * chosen headers. Characters which separate the parts of a key are
+ * percent-encoded in the parts, so different requests never get the same
+ * key. The cookies of the client are not stored, they are added to
+ * the header every time the response is sent.
+ * 
+ * <p>
+ * Concurrent identical requests are coalesced: while the response to a
+ * request is computed, identical requests wait for it and share its bytes,
+ * instead of computing it again. If waiting takes longer than the coalescing
+ * timeout, or the computed response cannot be shared, they compute their own
+ * responses. A rule can also give a time for which a response is served after
+ * it became stale, while a single refresh of it is computed in the
+ * background. Refreshes run on a small pool of their own, and refreshes
+ * which do not fit into its queue are skipped. A refresh is computed by a
+ * separate loader, because it runs after the request which started it is
+ * finished, and must not use the session of its client.
+ * 
+ * @author Erik Banek
+ */
+public class ResponseCache {
+    /**
+     * Response split into its header and body.
+     * 
+     * @author Erik Banek
+     */
+    private static class Response {
+        /** Header lines of response, without the ending empty line. */
+        private final byte[] header;
+        /** Body of response. */
+        private final byte[] body;
+        /** Time in milliseconds after which the response is stale. */
+        private final long expiresAt;
+        /** Time in milliseconds after which the response is not served. */
+        private final long staleUntil;
+
+        /**
+         * Constructor.
+         * 
+         * @param header
+         *            lines of response, without the ending empty line.
+         * @param body
+         *            of response.
+         * @param expiresAt
+         *            time in milliseconds after which the response is stale.
+         * @param staleUntil
+         *            time in milliseconds after which the response is not
+         *            served.
+         */
+        private Response(byte[] header, byte[] body, long expiresAt,
+                long staleUntil) {
+            this.header = header;
+            this.body = body;
+            this.expiresAt = expiresAt;
+            this.staleUntil = staleUntil;
+        }
+
+        /**
+         * Writes the response with the given cookies added to its header.
+         * 
+         * @param os
+         *            to which the response is written.
+         * @param cookies
+         *            which are added to the header.
+         * @throws IOException
+         *             if a problem occurs with writing the response.
+         */
+        private void writeTo(OutputStream os, List<RCCookie> cookies)
+                throws IOException {
+            os.write(header);
+            for (RCCookie cookie : cookies) {
+                os.write(("Set-cookie: " + cookie + "\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+            }
+            os.write('\n');
+            os.write(body);
+            os.flush();
+        }
+    }
+    /**
+     * Rule that tells which responses are cached.
+     * 
+     * @author Erik Banek
+     */
+    private static class Rule {
+        /** Pattern as given in configuration. */
+        private final String source;
+        /** Pattern of paths to which the rule applies. */
+        private final Pattern pattern;
+        /** Number of milliseconds for which a response is fresh. */
+        private final long timeToLive;
+        /** Number of milliseconds for which a stale response is served. */
+        private final long staleTime;
+        /** Names of headers whose values select copies of response. */
+        private final List<String> headers;
+
+        /**
+         * Constructor.
+         * 
+         * @param source
+         *            pattern as given in configuration.
+         * @param timeToLive
+         *            number of milliseconds for which a response is fresh.
+         * @param staleTime
+         *            number of milliseconds for which a stale response is
+         *            served.
+         * @param headers
+         *            names of headers whose values select copies of response.
+         */
+        private Rule(String source, long timeToLive, long staleTime,
+                List<String> headers) {
+            String[] parts = source.split("\\*", -1);
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = Pattern.quote(parts[i]);
+            }
+            this.source = source;
+            this.pattern = Pattern.compile(String.join(".*", parts));
+            this.timeToLive = timeToLive;
+            this.staleTime = staleTime;
+            this.headers = headers;
+        }
+    }
+
+    /** Number of threads which refresh stale responses. */
+    private static final int REFRESH_THREADS = 2;
+    /** Number of refreshes which wait for a thread. */
+    private static final int REFRESH_QUEUE_SIZE = 64;
+
+    /**
+     * Appends a part of a key, with the characters which separate parts of
+     * keys, and {@code %}, percent-encoded.
+     * 
+     * @param key
+     *            to which the part is appended.
+     * @param part
+     *            which is appended.
+     */
+    private static void appendEscaped(StringBuilder key, String part) {
+        for (int i = 0; i < part.length(); i++) {
+            char c = part.charAt(i);
+            switch (c) {
+            case '%':
+            case '?':
+            case '&':
+            case '=':
+            case '\0':
+                key.append('%').append(Character.forDigit(c >> 4, 16))
+                        .append(Character.forDigit(c & 0xF, 16));
+                break;
+            default:
+                key.append(c);
+            }
+        }
+    }
+
+    /**
+     * Creates the executor of refreshes, whose daemon threads stop when they
+     * are idle.
+     * 
+     * @return executor of refreshes.
+     */
+    private static ThreadPoolExecutor createRefreshExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(REFRESH_THREADS,
+                REFRESH_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(REFRESH_QUEUE_SIZE), r -> {
+                    Thread thread = new Thread(r, "response-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Splits the bytes of a response into its header and body. The header
+     * ends with the first empty line.
+     * 
+     * @param response
+     *            bytes of whole response.
+     * @param expiresAt
+     *            time in milliseconds after which the response is stale.
+     * @param staleUntil
+     *            time in milliseconds after which the response is not served.
+     * @return split response, or null if the response has no header.
+     */
+    private static Response split(byte[] response, long expiresAt,
+            long staleUntil) {
+        for (int i = 0; i + 1 < response.length; i++) {
+            if (response[i] == '\n' && response[i + 1] == '\n') {
+                return new Response(Arrays.copyOf(response, i + 1),
+                        Arrays.copyOfRange(response, i + 2, response.length),
+                        expiresAt, staleUntil);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes a response with the given cookies added to its header.
+     * 
+     * @param response
+     *            bytes of whole response.
+     * @param os
+     *            to which the response is written.
+     * @param cookies
+     *            which are added to the header.
+     * @throws IOException
+     *             if a problem occurs with writing the response.
+     */
+    public static void write(byte[] response, OutputStream os,
+            List<RCCookie> cookies) throws IOException {
+        Response split = split(response, 0, 0);
+        if (split == null) {
+            os.write(response);
+            os.flush();
+        } else {
+            split.writeTo(os, cookies);
+        }
+    }
+
+    /** Rules of the cache, longest patterns first. */
+    private List<Rule> rules = new ArrayList<>();
+    /** Cached responses mapped to their keys. */
+    private Map<String, Response> responses = new ConcurrentHashMap<>();
+    /**
+     * Responses that are being computed mapped to their keys. A future
+     * completes with null if its response cannot be shared.
+     */
+    private Map<String, CompletableFuture<Response>> computing =
+            new ConcurrentHashMap<>();
+    /** Milliseconds for which a request waits for an identical request. */
+    private long coalescingTimeout = 5000;
+    /** Executor of refreshes of stale responses. */
+    private ThreadPoolExecutor refreshExecutor = createRefreshExecutor();
+
+    /**
+     * Adds a rule for caching responses. Rules are expected to be added before
+     * the cache is used.
+     * 
+     * @param pattern
+     *            of paths to which the rule applies.
+     * @param timeToLive
+     *            number of milliseconds for which a response is fresh.
+     * @param staleTime
+     *            number of milliseconds for which a stale response is served
+     *            while it is refreshed.
+     * @param headers
+     *            names of headers whose values select copies of response.
+     * @throws IllegalArgumentException
+     *             if time to live is not positive, or stale time is negative.
+     */
+    public void addRule(String pattern, long timeToLive, long staleTime,
+            List<String> headers) {
+        if (timeToLive <= 0) {
+            throw new IllegalArgumentException(
+                    "Time to live of responses must be positive!");
+        }
+        if (staleTime < 0) {
+            throw new IllegalArgumentException(
+                    "Stale time of responses cannot be negative!");
+        }
+        rules.add(new Rule(pattern, timeToLive, staleTime,
+                new ArrayList<>(headers)));
+        rules.sort((a, b) -> b.source.length() - a.source.length());
+    }
+
+    /**
+     * Removes responses that are no longer served.
+     */
+    public void clean() {
+        long time = System.currentTimeMillis();
+        Iterator<Response> it = responses.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().staleUntil <= time) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all responses.
+     */
+    public void clear() {
+        responses.clear();
+    }
+
+    /**
+     * Gets the key under which the response to a request is cached.
+     * 
+     * @param path
+     *            requested path, without parameters.
+     * @param parameters
+     *            of the request.
+     * @param request
+     *            header lines of the request.
+     * @return key of response, or null if responses to the path are not
+     *         cached.
+     */
+    public String getKey(String path, Map<String, String> parameters,
+            List<String> request) {
+        Rule rule = getRule(path);
+        if (rule == null) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder();
+        appendEscaped(key, path);
+        char separator = '?';
+        for (Map.Entry<String, String> entry : new TreeMap<>(parameters)
+                .entrySet()) {
+            key.append(separator);
+            appendEscaped(key, entry.getKey());
+            key.append('=');
+            appendEscaped(key, entry.getValue());
+            separator = '&';
+        }
+        for (String name : rule.headers) {
+            key.append('\0');
+            for (String line : request) {
+                int colon = line.indexOf(':');
+                if (colon != -1
+                        && line.substring(0, colon).trim()
+                                .equalsIgnoreCase(name)) {
+                    appendEscaped(key, line.substring(colon + 1).trim());
+                    break;
+                }
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Gets the rule that applies to the path.
+     * 
+     * @param path
+     *            requested path, without parameters.
+     * @return rule of the path, or null if no rule applies.
+     */
+    private Rule getRule(String path) {
+        for (Rule rule : rules) {
+            if (rule.pattern.matcher(path).matches()) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Computes a response with the loader, and stores it if it can be cached.
+     * Requests waiting for the response are given it, or null if it cannot be
+     * cached.
+     * 
+     * @param key
+     *            of response.
+     * @param rule
+     *            of the requested path, or null if the response is not
+     *            stored.
+     * @param loader
+     *            which computes the response.
+     * @param flight
+     *            future of response given to waiting requests, or null if
+     *            there is none.
+     * @return bytes of whole response.
+     * @throws IOException
+     *             if a problem occurs with computing the response.
+     */
+    private byte[] load(String key, Rule rule, IResponseLoader loader,
+            CompletableFuture<Response> flight) throws IOException {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            boolean cacheable = loader.load(buffer);
+            byte[] data = buffer.toByteArray();
+            if (cacheable && rule != null) {
+                long time = System.currentTimeMillis();
+                Response response = split(data, time + rule.timeToLive, time
+                        + rule.timeToLive + rule.staleTime);
+                if (response != null) {
+                    responses.put(key, response);
+                    if (flight != null) {
+                        flight.complete(response);
+                    }
+                }
+            }
+            return data;
+        } finally {
+            if (flight != null) {
+                flight.complete(null);
+                computing.remove(key, flight);
+            }
+        }
+    }
+
+    /**
+     * Stores a response under the key. The response is fresh for the time
+     * given by the rule of its path. Responses without a header are not
+     * stored.
+     * 
+     * @param key
+     *            of response, given by {@code getKey}.
+     * @param path
+     *            requested path, without parameters.
+     * @param response
+     *            bytes of whole response.
+     */
+    public void put(String key, String path, byte[] response) {
+        Rule rule = getRule(path);
+        if (rule == null) {
+            return;
+        }
+        long time = System.currentTimeMillis();
+        Response split = split(response, time + rule.timeToLive, time
+                + rule.timeToLive + rule.staleTime);
+        if (split != null) {
+            responses.put(key, split);
+        }
+    }
+
+    /**
+     * Starts computing a fresh response in the background, unless the
+     * response is already being computed, or the queue of refreshes is full.
+     * 
+     * @param key
+     *            of response.
+     * @param rule
+     *            of the requested path.
+     * @param loader
+     *            which computes the response without the state of the client.
+     */
+    private void refresh(String key, Rule rule, IResponseLoader loader) {
+        CompletableFuture<Response> flight = new CompletableFuture<>();
+        if (computing.putIfAbsent(key, flight) != null) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    load(key, rule, loader, flight);
+                } catch (IOException | RuntimeException ignorable) {
+                    // the stale response stays until it is no longer served
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            flight.complete(null);
+            computing.remove(key, flight);
+        }
+    }
+
+    /**
+     * Sets the time for which a request waits for the response of an
+     * identical request, before computing its own response.
+     * 
+     * @param coalescingTimeout
+     *            number of milliseconds to wait.
+     * @throws IllegalArgumentException
+     *             if timeout is negative.
+     */
+    public void setCoalescingTimeout(long coalescingTimeout) {
+        if (coalescingTimeout < 0) {
+            throw new IllegalArgumentException(
+                    "Timeout cannot be negative!");
+        }
+        this.coalescingTimeout = coalescingTimeout;
+    }
+
+    /**
+     * Gets the number of stored responses.
+     * 
+     * @return number of responses.
+     */
+    public int size() {
+        return responses.size();
+    }
+
+    /**
+     * Writes the fresh response stored under the key, with the given cookies
+     * added to its header.
+     * 
+     * @param key
+     *            of response, given by {@code getKey}.
+     * @param os
+     *            to which the response is written.
+     * @param cookies
+     *            which are added to the header.
+     * @return true if a fresh response was written, false if there is none.
+     * @throws IOException
+     *             if a problem occurs with writing the response.
+     */
+    public boolean write(String key, OutputStream os, List<RCCookie> cookies)
+            throws IOException {
+        Response response = responses.get(key);
+        if (response == null) {
+            return false;
+        }
+        long time = System.currentTimeMillis();
+        if (response.expiresAt <= time) {
+            if (response.staleUntil <= time) {
+                responses.remove(key, response);
+            }
+            return false;
+        }
+        response.writeTo(os, cookies);
+        return true;
+    }
+
+    /**
+     * Writes the response to a request, with the given cookies added to its
+     * header. A fresh stored response is written if there is one. A stale one
+     * is written if it is still served, and a refresh of it is started. If
+     * there is none, the response is computed by the loader, or taken from an
+     * identical request that is computing it.
+     * 
+     * @param key
+     *            of response, given by {@code getKey}.
+     * @param path
+     *            requested path, without parameters.
+     * @param loader
+     *            which computes the response for this request.
+     * @param refreshLoader
+     *            which computes the response in the background, after this
+     *            request is finished, so it must not use the session of the
+     *            client.
+     * @param os
+     *            to which the response is written.
+     * @param cookies
+     *            which are added to the header.
+     * @throws IOException
+     *             if a problem occurs with computing or writing the response,
+     *             or the thread is interrupted while it waits for an
+     *             identical request.
+     */
+    public void write(String key, String path, IResponseLoader loader,
+            IResponseLoader refreshLoader, OutputStream os,
+            List<RCCookie> cookies) throws IOException {
+        Rule rule = getRule(path);
+        Response response = responses.get(key);
+        long time = System.currentTimeMillis();
+        if (rule == null) {
+            write(load(key, null, loader, null), os, cookies);
+            return;
+        }
+        if (response != null && response.staleUntil > time) {
+            if (response.expiresAt <= time) {
+                refresh(key, rule, refreshLoader);
+            }
+            response.writeTo(os, cookies);
+            return;
+        }
+
+        CompletableFuture<Response> flight = new CompletableFuture<>();
+        CompletableFuture<Response> leader = computing.putIfAbsent(key,
+                flight);
+        if (leader == null) {
+            write(load(key, rule, loader, flight), os, cookies);
+            return;
+        }
+        Response shared = null;
+        try {
+            shared = leader.get(coalescingTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted while waiting for an identical request!");
+        } catch (ExecutionException | TimeoutException ignorable) {
+        }
+        if (shared != null) {
+            shared.writeTo(os, cookies);
+        } else {
+            write(load(key, rule, loader, null), os, cookies);
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package hr.fer.zemris.java.webserver;
+
+import hr.fer.zemris.java.custom.scripting.exec.IIncludeLoader;
+import hr.fer.zemris.java.custom.scripting.exec.SectionAnalyzer;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.IncludeNode;
+import hr.fer.zemris.java.custom.scripting.nodes.Node;
+import hr.fer.zemris.java.custom.scripting.parser.DocumentFreezer;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.custom.scripting.parser.TextMinifier;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Cache of parsed scripts, so that a script is parsed only once and not on
+ * every request. A cached script is parsed again if its file was modified
+ * after it was cached. Parsed scripts are prepared by the
+ * {@code SectionAnalyzer} and frozen when they are cached, and are only read
+ * while executing, so they can be shared between threads.
+ * 
+ * <p>
+ * If minification is on, the text of scripts is minified once, before they
+ * are frozen, and so are the bytes of HTML files, and the reduction of every
+ * file is recorded in the {@code MinificationReport}.
+ * 
+ * <p>
+ * The cache is also the loader of documents included by scripts, whose paths
+ * are relative to the document root. Included scripts are shared between all
+ * scripts that include them, and other included files are kept as bytes, so
+ * they are not read again. The cache remembers which scripts include which
+ * documents, and when a document is modified, every script that includes it,
+ * directly or through other scripts, is removed from the cache as well.
+ * 
+ * <p>
+ * If a cache on disk is set, scripts are read from it instead of being
+ * parsed, so scripts are parsed only once across restarts of the server.
+ * 
+ * @author Erik Banek
+ */
+public class ScriptCache implements IIncludeLoader {
+    /**
+     * Parsed script or bytes of a file, together with the modification time
+     * of its file.
+     * 
+     * @author Erik Banek
+     */
+    private static class CachedScript {
+        /** Modification time of script file when it was parsed. */
+        private final long lastModified;
+        /** Parsed script, or null if the file is not a script. */
+        private final DocumentNode documentNode;
+        /** Bytes of the file if it is not a script. */
+        private final byte[] bytes;
+
+        /**
+         * Constructor.
+         * 
+         * @param lastModified
+         *            modification time of script file.
+         * @param documentNode
+         *            parsed script, or null if the file is not a script.
+         * @param bytes
+         *            of the file if it is not a script.
+         */
+        private CachedScript(long lastModified, DocumentNode documentNode,
+                byte[] bytes) {
+            this.lastModified = lastModified;
+            this.documentNode = documentNode;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Adds the paths of all documents included by the node to the set.
+     * 
+     * @param node
+     *            whose includes are collected.
+     * @param root
+     *            against which the paths are resolved.
+     * @param includes
+     *            to which paths are added.
+     */
+    private static void collectIncludes(Node node, Path root,
+            Set<Path> includes) {
+        if (node instanceof IncludeNode) {
+            includes.add(resolve(root,
+                    ((IncludeNode) node).getPath().getValue()));
+        }
+        int size = node.numberOfChildren();
+        for (int i = 0; i < size; i++) {
+            collectIncludes(node.getChild(i), root, includes);
+        }
+    }
+
+    /**
+     * Checks if the file holds HTML, judging by its extension.
+     * 
+     * @param path
+     *            to the file.
+     * @return true if the file holds HTML.
+     */
+    public static boolean isHtml(Path path) {
+        String name = path.getFileName().toString().toLowerCase();
+        return name.endsWith(".html") || name.endsWith(".htm");
+    }
+
+    /**
+     * Resolves the path of an included document against the document root.
+     * 
+     * @param root
+     *            of documents.
+     * @param path
+     *            of the document, as written in the include tag.
+     * @return resolved path.
+     */
+    private static Path resolve(Path root, String path) {
+        return root.resolve(path.startsWith("/") ? path.substring(1) : path)
+                .normalize();
+    }
+
+    /** Root against which included paths are resolved. */
+    private Path documentRoot;
+    /** Parsed scripts mapped to paths of their files. */
+    private Map<Path, CachedScript> scripts = new ConcurrentHashMap<>();
+    /** Scripts including a document mapped to the path of the document. */
+    private Map<Path, Set<Path>> includers = new ConcurrentHashMap<>();
+    /** Cache on disk from which scripts are read, or null if there is none. */
+    private ScriptDiskCache diskCache;
+    /** True if text of scripts and HTML files is minified. */
+    private volatile boolean minify;
+
+    /**
+     * Constructs a cache whose scripts cannot include other documents.
+     */
+    public ScriptCache() {
+        this(null);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param documentRoot
+     *            root against which included paths are resolved.
+     */
+    public ScriptCache(Path documentRoot) {
+        this.documentRoot = documentRoot == null ? null : documentRoot
+                .toAbsolutePath().normalize();
+    }
+
+    /**
+     * Removes all cached scripts.
+     */
+    public void clear() {
+        scripts.clear();
+        includers.clear();
+    }
+
+    /**
+     * Gets the parsed script from the given file, parsing it if it is not
+     * cached or if the cached version is outdated.
+     * 
+     * @param path
+     *            to script file.
+     * @return parsed script.
+     * @throws IOException
+     *             if a problem occurs with reading the script.
+     */
+    public DocumentNode get(Path path) throws IOException {
+        return load(path, true).documentNode;
+    }
+
+    /**
+     * Gets the bytes of an included file that is not a script, reading it
+     * only if it is not cached or if the cached version is outdated.
+     * 
+     * @throws IOException
+     *             if the file cannot be read, or is outside the document root.
+     */
+    @Override
+    public byte[] getFile(String path) throws IOException {
+        return load(resolveIncluded(path), false).bytes;
+    }
+
+    /**
+     * Gets the parsed included script, if the path has the script extension.
+     * 
+     * @throws IOException
+     *             if the script cannot be read, or is outside the document
+     *             root.
+     */
+    @Override
+    public DocumentNode getScript(String path) throws IOException {
+        if (!path.endsWith(Config.SCRIPT_EXTENSION)) {
+            return null;
+        }
+        return load(resolveIncluded(path), true).documentNode;
+    }
+
+    /**
+     * Removes the cached document, and all cached scripts that include it,
+     * directly or through other scripts.
+     * 
+     * @param path
+     *            of the document.
+     */
+    public void invalidate(Path path) {
+        path = path.toAbsolutePath().normalize();
+        scripts.remove(path);
+        Set<Path> including = includers.remove(path);
+        if (including != null) {
+            for (Path includer : including) {
+                invalidate(includer);
+            }
+        }
+    }
+
+    /**
+     * Checks if the script is cached as a parsed script. The cached version
+     * may be outdated.
+     * 
+     * @param path
+     *            to script file.
+     * @return true if the script is cached.
+     */
+    public boolean isCached(Path path) {
+        CachedScript cached = scripts.get(path.toAbsolutePath().normalize());
+        return cached != null && cached.documentNode != null;
+    }
+
+    /**
+     * Checks if text of scripts and HTML files is minified when they are
+     * loaded.
+     * 
+     * @return true if documents are minified.
+     */
+    public boolean isMinify() {
+        return minify;
+    }
+
+    /**
+     * Gets the cached document, reading it if it is not cached or if the
+     * cached version is outdated.
+     * 
+     * @param path
+     *            to the document.
+     * @param script
+     *            true if the document is parsed as a script.
+     * @return cached document.
+     * @throws IOException
+     *             if a problem occurs with reading the document.
+     */
+    private CachedScript load(Path path, boolean script) throws IOException {
+        path = path.toAbsolutePath().normalize();
+        long lastModified;
+        try {
+            lastModified = Files.getLastModifiedTime(path).toMillis();
+        } catch (NoSuchFileException e) {
+            invalidate(path);
+            throw e;
+        }
+        CachedScript cached = scripts.get(path);
+        if (cached != null && cached.lastModified == lastModified
+                && (cached.documentNode != null) == script) {
+            return cached;
+        }
+        if (cached != null) {
+            invalidate(path);
+        }
+
+        if (script) {
+            String documentBody = SmartServerUtility.getDocumentText(
+                    path.toString());
+            DocumentNode documentNode = diskCache == null
+                    ? new SmartScriptParser(documentBody).getDocumentNode()
+                    : diskCache.get(documentBody);
+            if (minify) {
+                long size = documentBody.getBytes(StandardCharsets.UTF_8)
+                        .length;
+                MinificationReport.getInstance().record(path, size,
+                        size - TextMinifier.minify(documentNode));
+            }
+            SectionAnalyzer.prepare(documentNode);
+            DocumentFreezer.freeze(documentNode);
+            cached = new CachedScript(lastModified, documentNode, null);
+            if (documentRoot != null) {
+                Set<Path> includes = ConcurrentHashMap.newKeySet();
+                collectIncludes(documentNode, documentRoot, includes);
+                for (Path included : includes) {
+                    includers.computeIfAbsent(included,
+                            p -> ConcurrentHashMap.newKeySet()).add(path);
+                }
+            }
+        } else {
+            byte[] bytes = Files.readAllBytes(path);
+            if (minify && isHtml(path)) {
+                int size = bytes.length;
+                bytes = TextMinifier.minify(new String(bytes,
+                        StandardCharsets.UTF_8)).getBytes(
+                        StandardCharsets.UTF_8);
+                MinificationReport.getInstance().record(path, size,
+                        bytes.length);
+            }
+            cached = new CachedScript(lastModified, null, bytes);
+        }
+        scripts.put(path, cached);
+        return cached;
+    }
+
+    /**
+     * Parses all scripts in the folder and its subfolders in parallel, and
+     * caches them, so that no request has to wait for parsing. Scripts larger
+     * than the given size are skipped, because they are not executed from the
+     * cache.
+     * 
+     * @param folder
+     *            which is searched for scripts.
+     * @param maxSize
+     *            size in bytes above which scripts are skipped.
+     * @return messages of errors mapped to paths of scripts that could not be
+     *         parsed.
+     * @throws IOException
+     *             if a problem occurs with searching the folder.
+     */
+    public Map<Path, String> preload(Path folder, long maxSize)
+            throws IOException {
+        List<Path> paths;
+        try (Stream<Path> files = Files.walk(folder)) {
+            paths = files.filter(p -> p.toString()
+                    .endsWith(Config.SCRIPT_EXTENSION))
+                    .filter(Files::isRegularFile)
+                    .collect(Collectors.toList());
+        }
+        Map<Path, String> failures = new ConcurrentSkipListMap<>();
+        paths.parallelStream().forEach(path -> {
+            try {
+                if (Files.size(path) <= maxSize) {
+                    get(path);
+                }
+            } catch (IOException | RuntimeException e) {
+                failures.put(path, String.valueOf(e.getMessage()));
+            }
+        });
+        return failures;
+    }
+
+    /**
+     * Resolves the path of an included document against the document root.
+     * 
+     * @param path
+     *            of the document, as written in the include tag.
+     * @return resolved path.
+     * @throws IOException
+     *             if documents cannot be included, or the path is outside the
+     *             document root.
+     */
+    private Path resolveIncluded(String path) throws IOException {
+        if (documentRoot == null) {
+            throw new IOException("Including is not supported!");
+        }
+        Path resolved = resolve(documentRoot, path);
+        if (!resolved.startsWith(documentRoot)) {
+            throw new IOException("Included path is outside document root!");
+        }
+        return resolved;
+    }
+
+    /**
+     * Sets the cache on disk from which scripts are read instead of being
+     * parsed, and into which parsed scripts are stored.
+     * 
+     * @param diskCache
+     *            cache on disk, or null if scripts are always parsed.
+     */
+    public void setDiskCache(ScriptDiskCache diskCache) {
+        this.diskCache = diskCache;
+    }
+
+    /**
+     * Sets whether text of scripts and HTML files is minified when they are
+     * loaded. Documents which are already cached are removed, so that they
+     * are loaded again.
+     * 
+     * @param minify
+     *            true if documents are minified.
+     */
+    public void setMinify(boolean minify) {
+        if (this.minify != minify) {
+            this.minify = minify;
+            clear();
+        }
+    }
+
+    /**
+     * Gets the number of cached documents.
+     * 
+     * @return number of cached documents.
+     */
+    public int size() {
+        return scripts.size();
+    }
+}
@@ -0,0 +1,164 @@
+package hr.fer.zemris.java.webserver;
+
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.parser.ScriptSerializer;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParserException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of parsed scripts stored in a folder on disk, so that scripts which
+ * did not change are not parsed again after the server is restarted. A parsed
+ * script is stored in a file named by the SHA-256 hash of the script text and
+ * {@code ScriptSerializer.VERSION}, so a changed script or a new version of
+ * the parser never finds an outdated file.
+ * 
+ * <p>
+ * Files which cannot be read are ignored and the script is parsed again, and
+ * files which cannot be written are skipped, so a broken cache folder only
+ * makes the cache useless, and never breaks the scripts. Files are written
+ * under a temporary name and then moved, so a file is never read before it is
+ * whole.
+ * 
+ * @author Erik Banek
+ */
+public class ScriptDiskCache {
+    /** Extension of files holding parsed scripts. */
+    private static final String EXTENSION = ".smsc";
+    /** Digits of hexadecimal numbers. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Gets the name of the file in which the parsed script is stored.
+     * 
+     * @param text
+     *            of the script.
+     * @return name of the file.
+     */
+    private static String getFileName(String text) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(Integer.toString(ScriptSerializer.VERSION)
+                .getBytes(StandardCharsets.UTF_8));
+        byte[] hash = digest.digest(text.getBytes(StandardCharsets.UTF_8));
+        StringBuilder name = new StringBuilder(hash.length * 2
+                + EXTENSION.length());
+        for (byte b : hash) {
+            name.append(HEX_DIGITS[(b >> 4) & 0xF]);
+            name.append(HEX_DIGITS[b & 0xF]);
+        }
+        return name.append(EXTENSION).toString();
+    }
+
+    /** Folder in which the parsed scripts are stored. */
+    private Path folder;
+    /** Number of scripts read from the folder. */
+    private AtomicLong hits = new AtomicLong();
+    /** Number of scripts which were parsed. */
+    private AtomicLong misses = new AtomicLong();
+
+    /**
+     * Constructor, which creates the folder if it does not exist.
+     * 
+     * @param folder
+     *            in which the parsed scripts are stored.
+     * @throws IOException
+     *             if the folder cannot be created.
+     */
+    public ScriptDiskCache(Path folder) throws IOException {
+        this.folder = Files.createDirectories(folder);
+    }
+
+    /**
+     * Gets the parsed script, reading it from the folder if it was stored, or
+     * parsing it and storing it otherwise.
+     * 
+     * @param text
+     *            of the script.
+     * @return parsed script.
+     * @throws SmartScriptParserException
+     *             if the script is not valid.
+     */
+    public DocumentNode get(String text) {
+        Path file = folder.resolve(getFileName(text));
+        if (Files.isRegularFile(file)) {
+            try (InputStream is = new BufferedInputStream(
+                    Files.newInputStream(file))) {
+                DocumentNode documentNode = ScriptSerializer.read(is);
+                hits.incrementAndGet();
+                return documentNode;
+            } catch (IOException | RuntimeException e) {
+                // damaged file is replaced below
+            }
+        }
+
+        misses.incrementAndGet();
+        DocumentNode documentNode = new SmartScriptParser(text)
+                .getDocumentNode();
+        store(file, documentNode);
+        return documentNode;
+    }
+
+    /**
+     * Gets the number of scripts read from the folder.
+     * 
+     * @return number of hits.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of scripts which were not stored in the folder, and
+     * had to be parsed.
+     * 
+     * @return number of misses.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Writes the parsed script into the file, unless a problem occurs.
+     * 
+     * @param file
+     *            into which the script is written.
+     * @param documentNode
+     *            parsed script.
+     */
+    private void store(Path file, DocumentNode documentNode) {
+        Path temporary = null;
+        try {
+            temporary = Files.createTempFile(folder, "script", ".tmp");
+            try (OutputStream os = new BufferedOutputStream(
+                    Files.newOutputStream(temporary))) {
+                ScriptSerializer.write(documentNode, os);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            try {
+                if (temporary != null) {
+                    Files.deleteIfExists(temporary);
+                }
+            } catch (IOException ignorable) {
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package hr.fer.zemris.java.webserver;
+
+import hr.fer.zemris.java.custom.scripting.exec.ExecutionLimits;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Execution limits of scripts, for each requested path. Rules give limits to
+ * paths that match their patterns, where {@code *} matches any sequence of
+ * characters, and other paths get the default limits. If more rules match a
+ * path, the one with the longest pattern is used.
+ * 
+ * @author Erik Banek
+ */
+public class ScriptLimits {
+    /**
+     * Rule that gives limits to paths which match its pattern.
+     * 
+     * @author Erik Banek
+     */
+    private static class Rule {
+        /** Pattern as given in configuration. */
+        private final String source;
+        /** Pattern of paths to which the rule applies. */
+        private final Pattern pattern;
+        /** Limits of scripts whose paths match the pattern. */
+        private final ExecutionLimits limits;
+
+        /**
+         * Constructor.
+         * 
+         * @param source
+         *            pattern as given in configuration.
+         * @param limits
+         *            of scripts whose paths match the pattern.
+         */
+        private Rule(String source, ExecutionLimits limits) {
+            String[] parts = source.split("\\*", -1);
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = Pattern.quote(parts[i]);
+            }
+            this.source = source;
+            this.pattern = Pattern.compile(String.join(".*", parts));
+            this.limits = limits;
+        }
+    }
+
+    /** Rules, ordered from the longest pattern. */
+    private List<Rule> rules = new ArrayList<>();
+    /** Limits of paths which match no rule. */
+    private ExecutionLimits defaults = ExecutionLimits.NONE;
+
+    /**
+     * Adds a rule. Rules are expected to be added before limits are used.
+     * 
+     * @param pattern
+     *            of paths to which the rule applies.
+     * @param limits
+     *            of scripts whose paths match the pattern.
+     */
+    public void addRule(String pattern, ExecutionLimits limits) {
+        rules.add(new Rule(pattern, limits));
+        rules.sort((a, b) -> b.source.length() - a.source.length());
+    }
+
+    /**
+     * Gets the limits of the script at the path.
+     * 
+     * @param path
+     *            requested path, without parameters.
+     * @return limits of the rule that applies to the path, or default limits
+     *         if no rule applies.
+     */
+    public ExecutionLimits get(String path) {
+        for (Rule rule : rules) {
+            if (rule.pattern.matcher(path).matches()) {
+                return rule.limits;
+            }
+        }
+        return defaults;
+    }
+
+    /**
+     * Gets the limits of paths which match no rule.
+     * 
+     * @return default limits.
+     */
+    public ExecutionLimits getDefaults() {
+        return defaults;
+    }
+
+    /**
+     * Sets the limits of paths which match no rule.
+     * 
+     * @param defaults
+     *            default limits.
+     */
+    public void setDefaults(ExecutionLimits defaults) {
+        this.defaults = defaults;
+    }
+}
@@ -0,0 +1,608 @@
+package hr.fer.zemris.java.webserver;
+
+import hr.fer.zemris.java.custom.scripting.exec.SectionAnalyzer;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Renders scripts in advance into static files in the document root, so that
+ * the server sends their output as any other file, without executing them.
+ * Every job is a script with a set of request parameters, and all jobs are
+ * rendered in parallel on a {@code ForkJoinPool}. Scripts whose output does
+ * not depend on anything but the script, as found by the
+ * {@code SectionAnalyzer}, can be added as jobs automatically.
+ * 
+ * <p>
+ * The output of a job is written next to its script, into a file named as
+ * the script, followed by the names and values of the parameters, with the
+ * extension of the mime type set by the script. For example,
+ * {@code /scripts/summation.smscr} with parameters {@code a=1&b=2} is written
+ * into {@code /scripts/summation_a-1_b-2.txt}. Characters of names and
+ * values other than letters and digits are percent-encoded in UTF-8, so
+ * different parameters never give the same name. A job whose script sets
+ * cookies or uses persistent parameters is not written.
+ * 
+ * <p>
+ * Jobs are rendered in parallel, but their outputs are written one by one, in
+ * the order in which the jobs were added, so that a job whose file was already
+ * written by an earlier job fails. Created files are listed in the file
+ * {@code .preRendered} in the document root, and the renderer never replaces
+ * a file which it did not create.
+ * 
+ * @author Erik Banek
+ */
+public class ScriptPreRenderer {
+    /**
+     * Script with a set of request parameters.
+     * 
+     * @author Erik Banek
+     */
+    private static class Job {
+        /** Path of the script, relative to the document root. */
+        private final String script;
+        /** Request parameters, sorted by name. */
+        private final Map<String, String> parameters;
+
+        /**
+         * Constructor.
+         * 
+         * @param script
+         *            path of the script, relative to the document root.
+         * @param parameters
+         *            request parameters.
+         */
+        private Job(String script, Map<String, String> parameters) {
+            this.script = script;
+            this.parameters = new TreeMap<>(parameters);
+        }
+
+        /**
+         * Gets the request which the job answers, as the path of the script
+         * followed by the query.
+         * 
+         * @return request of the job.
+         */
+        private String getRequest() {
+            if (parameters.isEmpty()) {
+                return script;
+            }
+            return script + "?" + parameters.entrySet().stream()
+                    .map(e -> e.getKey() + "=" + e.getValue())
+                    .collect(Collectors.joining("&"));
+        }
+    }
+
+    /**
+     * Output of a job which is not written yet.
+     * 
+     * @author Erik Banek
+     */
+    private static class Rendering {
+        /** Job which was rendered. */
+        private final Job job;
+        /** Extension of the file into which the output is written. */
+        private final String extension;
+        /** Output without the header. */
+        private final byte[] body;
+        /** Reason why the job failed, or null if it did not. */
+        private final String error;
+
+        /**
+         * Constructor.
+         * 
+         * @param job
+         *            which was rendered.
+         * @param extension
+         *            of the file into which the output is written.
+         * @param body
+         *            output without the header.
+         * @param error
+         *            why the job failed, or null.
+         */
+        private Rendering(Job job, String extension, byte[] body,
+                String error) {
+            this.job = job;
+            this.extension = extension;
+            this.body = body;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Outcome of a rendered job.
+     * 
+     * @author Erik Banek
+     */
+    public static class Result {
+        /** Request which the job answers. */
+        private final String request;
+        /** File into which the output was written, or null if it was not. */
+        private final Path file;
+        /** Size of the output in bytes. */
+        private final long size;
+        /** Reason why the output was not written, or null if it was. */
+        private final String error;
+
+        /**
+         * Constructor.
+         * 
+         * @param request
+         *            which the job answers.
+         * @param file
+         *            into which the output was written, or null.
+         * @param size
+         *            of the output in bytes.
+         * @param error
+         *            why the output was not written, or null.
+         */
+        private Result(String request, Path file, long size, String error) {
+            this.request = request;
+            this.file = file;
+            this.size = size;
+            this.error = error;
+        }
+
+        /**
+         * Gets the reason why the output was not written.
+         * 
+         * @return reason, or null if the output was written.
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * Gets the file into which the output was written.
+         * 
+         * @return file, or null if the output was not written.
+         */
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * Gets the request which the job answers.
+         * 
+         * @return path of the script, followed by the query.
+         */
+        public String getRequest() {
+            return request;
+        }
+
+        /**
+         * Gets the size of the written output.
+         * 
+         * @return size in bytes.
+         */
+        public long getSize() {
+            return size;
+        }
+    }
+
+    /** Name of the file listing created files, in the document root. */
+    private static final String MANIFEST = ".preRendered";
+    /** Digits of hexadecimal numbers. */
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * Percent-encodes the bytes in UTF-8 of all characters which are not
+     * letters or digits.
+     * 
+     * @param s
+     *            string which is encoded.
+     * @return encoded string.
+     */
+    private static String encode(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            if (b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z'
+                    || b >= '0' && b <= '9') {
+                sb.append((char) b);
+            } else {
+                sb.append('%').append(HEX_DIGITS[(b >> 4) & 0xF])
+                        .append(HEX_DIGITS[b & 0xF]);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Renders the scripts of the server whose configuration is in the given
+     * folder. The jobs are read from the file set by {@code server.preRender},
+     * which maps paths of scripts to sets of parameters separated by spaces,
+     * as in {@code /scripts/summation.smscr = a=1&b=2 a=4&b=2}. Static scripts
+     * are added as well.
+     * 
+     * @param args
+     *            a single argument showing path to a folder containing the
+     *            server.properties file.
+     * @throws IOException
+     *             if a problem occurs with reading the configuration or the
+     *             scripts.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.out.println("Wrong number of arguments, "
+                    + "expected one path to folder containing "
+                    + "server.properties.");
+            return;
+        }
+        Properties properties = loadProperties(Paths.get(args[0]
+                + Config.SERVER_PROP_FILE));
+
+        Map<String, String> mimeTypes = new HashMap<>();
+        Properties mimes = loadProperties(Paths.get(properties.getProperty(
+                "server.mimeConfig", args[0] + Config.DEFAULT_MIME_FILE)));
+        for (String key : mimes.stringPropertyNames()) {
+            mimeTypes.put(key, mimes.getProperty(key));
+        }
+        ScriptPreRenderer renderer = new ScriptPreRenderer(
+                Paths.get(properties.getProperty("server.documentRoot")),
+                mimeTypes);
+
+        Properties jobs = loadProperties(Paths.get(properties.getProperty(
+                "server.preRender",
+                args[0] + Config.DEFAULT_PRE_RENDER_FILE)));
+        for (String script : jobs.stringPropertyNames()) {
+            renderer.addJobs(script, jobs.getProperty(script));
+        }
+        renderer.addStaticScripts();
+
+        for (Result result : renderer.render(ForkJoinPool.commonPool())) {
+            System.out.println(result.getRequest() + ": "
+                    + (result.getError() == null ? result.getFile() + ", "
+                            + result.getSize() + " bytes"
+                            : result.getError()));
+        }
+    }
+
+    /**
+     * Loads the properties from the file, if it exists.
+     * 
+     * @param path
+     *            to the file.
+     * @return loaded properties, empty if the file does not exist.
+     * @throws IOException
+     *             if a problem occurs with reading the file.
+     */
+    private static Properties loadProperties(Path path) throws IOException {
+        Properties properties = new Properties();
+        if (Files.isRegularFile(path)) {
+            try (Reader reader = Files.newBufferedReader(path,
+                    Config.CONFIG_CHARSET)) {
+                properties.load(reader);
+            }
+        }
+        return properties;
+    }
+
+    /** Root of documents, into which outputs are written. */
+    private Path documentRoot;
+    /** Cache from which scripts and included documents are loaded. */
+    private ScriptCache scriptCache;
+    /** Extensions of files mapped to mime types. */
+    private Map<String, String> extensions = new HashMap<>();
+    /** Jobs which are rendered. */
+    private List<Job> jobs = new ArrayList<>();
+    /** Files created by the renderer, as listed in the manifest. */
+    private Set<Path> created = new LinkedHashSet<>();
+
+    /**
+     * Constructor.
+     * 
+     * @param documentRoot
+     *            root of documents, into which outputs are written.
+     * @param mimeTypes
+     *            mime types mapped to extensions of files.
+     * @throws IOException
+     *             if the list of created files cannot be read.
+     */
+    public ScriptPreRenderer(Path documentRoot,
+            Map<String, String> mimeTypes) throws IOException {
+        this.documentRoot = documentRoot.toAbsolutePath().normalize();
+        this.scriptCache = new ScriptCache(this.documentRoot);
+        Path manifest = this.documentRoot.resolve(MANIFEST);
+        if (Files.isRegularFile(manifest)) {
+            for (String line : Files.readAllLines(manifest,
+                    StandardCharsets.UTF_8)) {
+                if (!line.isEmpty()) {
+                    created.add(this.documentRoot.resolve(line).normalize());
+                }
+            }
+        }
+        // the extension equal to the subtype wins, and then the first one
+        for (Entry<String, String> e : new TreeMap<>(mimeTypes).entrySet()) {
+            String mimeType = e.getValue();
+            if (mimeType.endsWith("/" + e.getKey())) {
+                extensions.put(mimeType, e.getKey());
+            } else {
+                extensions.putIfAbsent(mimeType, e.getKey());
+            }
+        }
+    }
+
+    /**
+     * Adds a job.
+     * 
+     * @param script
+     *            path of the script, relative to the document root.
+     * @param parameters
+     *            request parameters.
+     */
+    public void addJob(String script, Map<String, String> parameters) {
+        jobs.add(new Job(script.startsWith("/") ? script : "/" + script,
+                parameters));
+    }
+
+    /**
+     * Adds a job for every set of parameters.
+     * 
+     * @param script
+     *            path of the script, relative to the document root.
+     * @param parameterSets
+     *            sets of parameters separated by spaces, each written as a
+     *            query, as in {@code a=1&b=2}. If it is empty, a single job
+     *            without parameters is added.
+     */
+    public void addJobs(String script, String parameterSets) {
+        String[] sets = parameterSets.trim().split("\\s+");
+        for (String set : sets) {
+            Map<String, String> parameters = new HashMap<>();
+            for (String parameter : set.split("&")) {
+                if (parameter.isEmpty()) {
+                    continue;
+                }
+                int index = parameter.indexOf('=');
+                if (index < 0) {
+                    parameters.put(parameter, "");
+                } else {
+                    parameters.put(parameter.substring(0, index),
+                            parameter.substring(index + 1));
+                }
+            }
+            addJob(script, parameters);
+        }
+    }
+
+    /**
+     * Adds a job without parameters for every static script in the document
+     * root, unless such a job was already added. Scripts which are not valid
+     * are skipped.
+     * 
+     * @return number of added jobs.
+     * @throws IOException
+     *             if a problem occurs with searching the document root.
+     */
+    public int addStaticScripts() throws IOException {
+        List<Path> paths;
+        try (Stream<Path> files = Files.walk(documentRoot)) {
+            paths = files.filter(p -> p.toString()
+                    .endsWith(Config.SCRIPT_EXTENSION))
+                    .filter(Files::isRegularFile)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        int added = 0;
+        for (Path path : paths) {
+            String script = "/" + documentRoot.relativize(path).toString()
+                    .replace('\\', '/');
+            if (jobs.stream().anyMatch(j -> j.script.equals(script)
+                    && j.parameters.isEmpty())) {
+                continue;
+            }
+            try {
+                if (SectionAnalyzer.isStatic(SectionAnalyzer
+                        .analyze(scriptCache.get(path)))) {
+                    addJob(script, new HashMap<>());
+                    added++;
+                }
+            } catch (RuntimeException ignorable) {
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Gets the name of the file into which the output of the job is written.
+     * 
+     * @param job
+     *            whose output is written.
+     * @param extension
+     *            of the file.
+     * @return name of the file.
+     */
+    private String getFileName(Job job, String extension) {
+        String name = Paths.get(job.script).getFileName().toString();
+        StringBuilder sb = new StringBuilder(name.substring(0,
+                name.length() - Config.SCRIPT_EXTENSION.length()));
+        for (Entry<String, String> e : job.parameters.entrySet()) {
+            sb.append('_').append(encode(e.getKey())).append('-')
+                    .append(encode(e.getValue()));
+        }
+        return sb.append('.').append(extension).toString();
+    }
+
+    /**
+     * Renders all jobs in parallel on the pool, and then writes their
+     * outputs in the order in which the jobs were added.
+     * 
+     * @param pool
+     *            on which the jobs are rendered.
+     * @return outcomes of the jobs, in the order in which they were added.
+     * @throws IOException
+     *             if the list of created files cannot be written.
+     */
+    public List<Result> render(ForkJoinPool pool) throws IOException {
+        List<ForkJoinTask<Rendering>> tasks = new ArrayList<>();
+        for (Job job : jobs) {
+            tasks.add(pool.submit(() -> render(job)));
+        }
+        Set<Path> claimed = new HashSet<>();
+        List<Result> results = new ArrayList<>();
+        for (ForkJoinTask<Rendering> task : tasks) {
+            results.add(write(task.join(), claimed));
+        }
+        writeManifest();
+        return results;
+    }
+
+    /**
+     * Renders the job.
+     * 
+     * @param job
+     *            which is rendered.
+     * @return output of the job.
+     */
+    private Rendering render(Job job) {
+        Path script = getScript(job);
+        if (!script.startsWith(documentRoot)
+                || !job.script.endsWith(Config.SCRIPT_EXTENSION)) {
+            return new Rendering(job, null, null, "not a script in the root");
+        }
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        List<RCCookie> cookies = new ArrayList<>();
+        RequestContext rc = new RequestContext(os,
+                new HashMap<>(job.parameters), new HashMap<>(), cookies);
+        try {
+            DocumentNode documentNode = scriptCache.get(script);
+            SmartScriptEngine engine = new SmartScriptEngine(documentNode,
+                    rc);
+            engine.setIncludeLoader(scriptCache);
+            engine.execute();
+            if (!rc.isHeaderGenerated()) {
+                rc.write(new byte[0]);
+            }
+        } catch (IOException | RuntimeException e) {
+            return new Rendering(job, null, null, e.toString());
+        }
+        if (!cookies.isEmpty() || rc.isPersistentParametersUsed()) {
+            return new Rendering(job, null, null,
+                    "sets cookies or uses persistent parameters");
+        }
+
+        // the header ends with the first empty line
+        byte[] response = os.toByteArray();
+        String text = new String(response, StandardCharsets.ISO_8859_1);
+        int end = text.indexOf("\n\n");
+        String mimeType = "text/html";
+        for (String line : text.substring(0, end).split("\n")) {
+            if (line.startsWith("Content-Type: ")) {
+                mimeType = line.substring(14).split(";")[0].trim();
+            }
+        }
+        String extension = extensions.get(mimeType);
+        if (extension == null) {
+            return new Rendering(job, null, null, "no extension for "
+                    + mimeType);
+        }
+        return new Rendering(job, extension, Arrays.copyOfRange(response,
+                end + 2, response.length), null);
+    }
+
+    /**
+     * Gets the path of the script of the job.
+     * 
+     * @param job
+     *            whose script is found.
+     * @return path of the script.
+     */
+    private Path getScript(Job job) {
+        return documentRoot.resolve(job.script.substring(1)).normalize();
+    }
+
+    /**
+     * Writes the output of a rendered job into its file, unless the file was
+     * claimed by an earlier job, or exists and was not created by the
+     * renderer.
+     * 
+     * @param rendering
+     *            output of the job.
+     * @param claimed
+     *            files written by earlier jobs, to which the file is added.
+     * @return outcome of the job.
+     */
+    private Result write(Rendering rendering, Set<Path> claimed) {
+        String request = rendering.job.getRequest();
+        if (rendering.error != null) {
+            return new Result(request, null, 0, rendering.error);
+        }
+        Path file = getScript(rendering.job).resolveSibling(
+                getFileName(rendering.job, rendering.extension));
+        if (!claimed.add(file)) {
+            return new Result(request, null, 0, file
+                    + " is written by another job");
+        }
+        if (Files.exists(file) && !created.contains(file)) {
+            return new Result(request, null, 0, file
+                    + " exists and was not pre-rendered");
+        }
+
+        Path temporary = null;
+        try {
+            temporary = Files.createTempFile(file.getParent(), "render",
+                    ".tmp");
+            Files.write(temporary, rendering.body);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            created.add(file);
+        } catch (IOException e) {
+            try {
+                if (temporary != null) {
+                    Files.deleteIfExists(temporary);
+                }
+            } catch (IOException ignorable) {
+            }
+            return new Result(request, null, 0, e.toString());
+        }
+        return new Result(request, file, rendering.body.length, null);
+    }
+
+    /**
+     * Writes the list of files created by the renderer.
+     * 
+     * @throws IOException
+     *             if a problem occurs with writing.
+     */
+    private void writeManifest() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (Path file : created) {
+            lines.add(documentRoot.relativize(file).toString()
+                    .replace('\\', '/'));
+        }
+        Path temporary = Files.createTempFile(documentRoot, "render", ".tmp");
+        try {
+            Files.write(temporary, lines, StandardCharsets.UTF_8);
+            Files.move(temporary, documentRoot.resolve(MANIFEST),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+}
@@ -1,5 +1,11 @@
 package hr.fer.zemris.java.webserver;
 
+import hr.fer.zemris.java.custom.scripting.exec.ExecutionBudget;
+import hr.fer.zemris.java.custom.scripting.exec.ExecutionLimitException;
+import hr.fer.zemris.java.custom.scripting.exec.ExecutionLimitException.Reason;
+import hr.fer.zemris.java.custom.scripting.exec.ExecutionLimits;
+import hr.fer.zemris.java.custom.scripting.exec.FragmentCache;
+import hr.fer.zemris.java.custom.scripting.exec.functions.SmartScriptFunctions;
 import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
 
 import java.io.BufferedReader;
@@ -226,7 +232,12 @@ public class SmartHttpServer {
             try {
                 rc.setMimeType(mimeTypes.getOrDefault(extension,
                         Config.DEFAULT_MIME_TYPE));
-                rc.write(Files.readAllBytes(path));
+                // minified HTML is kept in the script cache
+                if (scriptCache.isMinify() && ScriptCache.isHtml(path)) {
+                    rc.write(scriptCache.getFile(requestPath));
+                } else {
+                    rc.write(Files.readAllBytes(path));
+                }
             } catch (IOException e) {
                 SmartServerUtility.log("Error reading requested file.", bw);
             }
@@ -320,8 +331,14 @@ public class SmartHttpServer {
             String requestPath = initializeVariables(request.get(0));
             initializeParameters(requestPath);
 
-            RequestContext rc = initializeRequestContext();
-            serve(rc, requestPath);
+            String cacheKey = responseCache.getKey(requestPath.split("\\?")[0],
+                    params, request);
+            if (cacheKey == null) {
+                RequestContext rc = initializeRequestContext();
+                serve(rc, requestPath);
+            } else {
+                serveCached(requestPath, cacheKey);
+            }
 
             if (!sessionSaved) {
                 saveSession();
@@ -348,14 +365,38 @@ public class SmartHttpServer {
          *            which the user requested.
          */
         private void script(RequestContext rc, String requestPath) {
-            if (!checkIfDocumentExists(rc, requestPath.split("\\?")[0])) {
+            String scriptPath = requestPath.split("\\?")[0];
+            if (!checkIfDocumentExists(rc, scriptPath)) {
                 return;
             }
-            Path path = Paths.get(documentRoot + requestPath.split("\\?")[0]);
-            try {
-                SmartServerUtility.executeScript(rc, path);
+            Path path = Paths.get(documentRoot + scriptPath);
+            try (ExecutionBudget budget = new ExecutionBudget(
+                    scriptLimits.get(scriptPath))) {
+                if (Files.size(path) > streamingThreshold) {
+                    SmartServerUtility.executeScript(rc, path, scriptCache,
+                            budget);
+                } else {
+                    TieredScriptExecutor.getInstance().execute(rc, path,
+                            scriptCache, parallelSections, budget);
+                }
+                // a script without output still gets its header
+                if (!rc.isHeaderGenerated()) {
+                    rc.write(new byte[0]);
+                }
             } catch (IOException e) {
                 SmartServerUtility.log("Error writing to client", bw);
+            } catch (ExecutionLimitException e) {
+                SmartServerUtility.log(scriptPath + " stopped: "
+                        + e.getMessage(), bw);
+                // once output was sent, the response can only be cut short
+                if (!rc.isHeaderGenerated()) {
+                    if (e.getReason() == Reason.TIME
+                            || e.getReason() == Reason.CANCELLED) {
+                        sendError(rc, 503, "Service Unavailable");
+                    } else {
+                        sendError(rc, 500, "Internal Server Error");
+                    }
+                }
             }
         }
 
@@ -419,6 +460,58 @@ public class SmartHttpServer {
             }
         }
 
+        /**
+         * Serves the client request whose response can be cached, through the
+         * response cache. When the request has to be served, it is served into
+         * a buffer, and the response is cached unless it set cookies, used
+         * persistent parameters or was not successful. A refresh of a stale
+         * response runs after this request is finished, so it is served with
+         * its own copy of the parameters and without the session.
+         * 
+         * @param requestPath
+         *            which the user requested.
+         * @param cacheKey
+         *            key of the response in the response cache.
+         */
+        private void serveCached(String requestPath, String cacheKey) {
+            Map<String, String> parameters = new HashMap<>(params);
+            try {
+                responseCache.write(cacheKey, requestPath.split("\\?")[0],
+                        os -> serveResponse(os, requestPath, params,
+                                permParams),
+                        os -> serveResponse(os, requestPath, parameters,
+                                new HashMap<>()), ostream, outputCookies);
+            } catch (IOException e) {
+                SmartServerUtility.log("Error writing to client", bw);
+            }
+        }
+
+        /**
+         * Serves the request into the stream, as a response which is cached
+         * if it can be.
+         * 
+         * @param os
+         *            to which the response is written.
+         * @param requestPath
+         *            which the user requested.
+         * @param parameters
+         *            of the request.
+         * @param persistentParameters
+         *            of the session which is used.
+         * @return true if the response can be cached.
+         */
+        private boolean serveResponse(OutputStream os, String requestPath,
+                Map<String, String> parameters,
+                Map<String, String> persistentParameters) {
+            List<RCCookie> cookies = new ArrayList<>();
+            RequestContext rc = new RequestContext(os, parameters,
+                    persistentParameters, cookies);
+            rc.setStatusCode(200);
+            serve(rc, requestPath);
+            return rc.getStatusCode() == 200 && cookies.isEmpty()
+                    && !rc.isPersistentParametersUsed();
+        }
+
         /**
          * Puts a new cookie in the cookie array using the given random String.
          * 
@@ -570,6 +663,20 @@ public class SmartHttpServer {
     private ExecutorService threadPool;
     /** Path do root of server folder. */
     private Path documentRoot;
+    /** Scripts and included documents that were already read. */
+    private ScriptCache scriptCache;
+    /** Cached responses to requests. */
+    private ResponseCache responseCache = new ResponseCache();
+    /** Execution limits of scripts. */
+    private ScriptLimits scriptLimits = new ScriptLimits();
+    /** True if independent top-level sections of scripts run in parallel. */
+    private boolean parallelSections;
+    /** Size in bytes above which scripts are streamed. */
+    private long streamingThreshold;
+    /** True if all scripts are parsed when the server is constructed. */
+    private boolean precompileScripts;
+    /** True if the server is not constructed when a script is not valid. */
+    private boolean abortOnScriptError;
     /** Paths that are specially mapped to workers. */
     private Map<String, IWebWorker> workersMap = new HashMap<>();
     /** Variable that tells the server if it should shutdown. */
@@ -603,6 +710,9 @@ public class SmartHttpServer {
             initProperties(configFileFolderPath);
             createLogFile();
             bw = Files.newBufferedWriter(logFile, Config.LOG_CHARSET);
+            if (precompileScripts) {
+                precompileScripts();
+            }
         } catch (IOException e) {
             throw new IllegalArgumentException(
                     "Problem with initializing server configuration, please try again.");
@@ -618,7 +728,7 @@ public class SmartHttpServer {
     }
 
     /**
-     * Work of cleaning the sessions map. It is used by the cleaner thread.
+     * Work of cleaning the sessions map and stale cached responses. It is used by the cleaner thread.
      */
     public synchronized void clean() {
         Iterator<Entry<String, SessionMapEntry>> it = sessions.entrySet()
@@ -630,6 +740,7 @@ public class SmartHttpServer {
                 it.remove();
             }
         }
+        responseCache.clean();
     }
 
     /**
@@ -766,9 +877,43 @@ public class SmartHttpServer {
         if (!documentRoot.toFile().isDirectory()) {
             throw new IllegalArgumentException("Root document is not a folder!");
         }
+        scriptCache = new ScriptCache(documentRoot);
+        String diskCache = properties.getProperty("script.diskCache",
+                Config.DEFAULT_SCRIPT_DISK_CACHE).trim();
+        if (!diskCache.isEmpty()) {
+            scriptCache.setDiskCache(new ScriptDiskCache(Paths.get(diskCache)));
+        }
+        scriptCache.setMinify(Boolean.parseBoolean(properties.getProperty(
+                "script.minify", Config.DEFAULT_MINIFY)));
 
         sessionTimeout = Integer.parseInt(properties.getProperty(
                 "session.timeout", Config.DEFAULT_SESSION_TIMEOUT));
+        parallelSections = Boolean.parseBoolean(properties.getProperty(
+                "script.parallelSections", Config.DEFAULT_PARALLEL_SECTIONS));
+        streamingThreshold = Long.parseLong(properties.getProperty(
+                "script.streamingThreshold",
+                Config.DEFAULT_STREAMING_THRESHOLD));
+        responseCache.setCoalescingTimeout(Long.parseLong(
+                properties.getProperty("server.coalescingTimeout",
+                        Config.DEFAULT_COALESCING_TIMEOUT)));
+        precompileScripts = Boolean.parseBoolean(properties.getProperty(
+                "script.precompile", Config.DEFAULT_PRECOMPILE));
+        abortOnScriptError = Boolean.parseBoolean(properties.getProperty(
+                "script.precompileAbortOnError",
+                Config.DEFAULT_PRECOMPILE_ABORT_ON_ERROR));
+        TieredScriptExecutor.getInstance().setPromotionThreshold(
+                Integer.parseInt(properties.getProperty(
+                        "script.promotionThreshold",
+                        Config.DEFAULT_PROMOTION_THRESHOLD)));
+        TieredScriptExecutor.getInstance().setIterationThreshold(
+                Long.parseLong(properties.getProperty(
+                        "script.promotionIterations",
+                        Config.DEFAULT_PROMOTION_ITERATIONS)));
+        FragmentCache.getInstance().setMaxBytes(Long.parseLong(
+                properties.getProperty("script.fragmentCacheSize",
+                        Config.DEFAULT_FRAGMENT_CACHE_SIZE)));
+        SmartScriptFunctions.memoize(properties.getProperty("script.memoize",
+                Config.DEFAULT_SCRIPT_MEMOIZE));
 
         initMimeTypes(Paths.get(properties.getProperty(
                 "server.mimeConfig",
@@ -776,7 +921,79 @@ public class SmartHttpServer {
         initWorkersConfig(Paths.get(properties.getProperty(
                 "server.workers",
                 propFilePath + Config.DEFAULT_WORKERS_FILE)));
+        initResponseCache(Paths.get(properties.getProperty(
+                "server.responseCache",
+                propFilePath + Config.DEFAULT_RESPONSE_CACHE_FILE)));
+        scriptLimits.setDefaults(ExecutionLimits.parse(properties.getProperty(
+                "script.limits", Config.DEFAULT_SCRIPT_LIMITS),
+                ExecutionLimits.NONE));
+        initScriptLimits(Paths.get(properties.getProperty(
+                "server.scriptLimits",
+                propFilePath + Config.DEFAULT_SCRIPT_LIMITS_FILE)));
+
+    }
 
+    /**
+     * Initializes the rules of response cache. Every property maps a pattern
+     * of paths to the number of seconds for which responses are cached,
+     * optionally followed by {@code stale=seconds}, the time for which a stale
+     * response is served while it is refreshed, and names of request headers
+     * whose values select separate copies of response.
+     * 
+     * @param path
+     *            to file which contains response cache properties.
+     * @throws IOException
+     *             if a problem occurs with file reading.
+     * @throws NumberFormatException
+     *             if a number of seconds is not correctly written.
+     */
+    private void initResponseCache(Path path) throws IOException,
+    NumberFormatException {
+        if (path.toFile().isFile() && path.toFile().canRead()) {
+            Properties cacheProp = new Properties();
+            cacheProp.load(Files.newInputStream(path));
+            for (String pattern : cacheProp.stringPropertyNames()) {
+                String[] split = cacheProp.getProperty(pattern).trim()
+                        .split("\\s+");
+                long staleTime = 0;
+                List<String> headers = new ArrayList<>();
+                for (int i = 1; i < split.length; i++) {
+                    if (split[i].startsWith("stale=")) {
+                        staleTime = Long.parseLong(split[i].substring(6))
+                                * 1000;
+                    } else {
+                        headers.add(split[i]);
+                    }
+                }
+                responseCache.addRule(pattern,
+                        Long.parseLong(split[0]) * 1000, staleTime, headers);
+            }
+        }
+    }
+
+    /**
+     * Initializes the execution limits of scripts on chosen paths. Every
+     * property maps a pattern of paths to its limits, as in
+     * {@code /scripts/* = time=5000 iterations=1000000}. Limits which are not
+     * given are taken from the default limits.
+     * 
+     * @param path
+     *            to file which contains limits of scripts.
+     * @throws IOException
+     *             if a problem occurs with file reading.
+     * @throws IllegalArgumentException
+     *             if limits are not correctly written.
+     */
+    private void initScriptLimits(Path path) throws IOException {
+        if (path.toFile().isFile() && path.toFile().canRead()) {
+            Properties limitsProp = new Properties();
+            limitsProp.load(Files.newInputStream(path));
+            for (String pattern : limitsProp.stringPropertyNames()) {
+                scriptLimits.addRule(pattern, ExecutionLimits.parse(
+                        limitsProp.getProperty(pattern),
+                        scriptLimits.getDefaults()));
+            }
+        }
     }
 
     /**
@@ -822,6 +1039,32 @@ public class SmartHttpServer {
         sessions.put(sid, new SessionMapEntry(time, map));
     }
 
+    /**
+     * Parses all scripts in the document root in parallel and fills the
+     * script cache with them. Scripts that are not valid are reported in the
+     * log file and on the standard error.
+     * 
+     * @throws IOException
+     *             if a problem occurs with searching the document root.
+     * @throws IllegalArgumentException
+     *             if some script is not valid, and the server is configured
+     *             to abort on script errors.
+     */
+    private void precompileScripts() throws IOException {
+        Map<Path, String> failures = scriptCache.preload(documentRoot,
+                streamingThreshold);
+        for (Entry<Path, String> failure : failures.entrySet()) {
+            String message = "Script " + failure.getKey() + " is not valid: "
+                    + failure.getValue();
+            SmartServerUtility.log(message, bw);
+            System.err.println(message);
+        }
+        if (!failures.isEmpty() && abortOnScriptError) {
+            throw new IllegalArgumentException(failures.size()
+                    + " scripts are not valid!");
+        }
+    }
+
     /**
      * Starts the server thread that listens for client request on the address
      * provided in some way from the constructor.
@@ -1,10 +1,14 @@
 package hr.fer.zemris.java.webserver;
 
+import hr.fer.zemris.java.custom.scripting.exec.ExecutionBudget;
+import hr.fer.zemris.java.custom.scripting.exec.ExecutionLimitException;
+import hr.fer.zemris.java.custom.scripting.exec.IIncludeLoader;
 import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
-import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -84,24 +88,56 @@ public class SmartServerUtility {
 
     /**
      * Executes the script from document described by the path to it. Handles
-     * output throught the given context.
+     * output throught the given context. The script is streamed, it is parsed
+     * and executed part by part while it is read.
      * 
      * @param rc
      *            context through which output is handled.
      * @param pathToScript
      *            containing the script to be executed.
+     * @param includeLoader
+     *            which gives documents included by the script.
+     * @param budget
+     *            which limits the execution, or null if it is not limited.
      * @throws IOException
      *             if a problem occurs with reading the script or writing the
      *             output of script to given context.
+     * @throws ExecutionLimitException
+     *             if the execution exceeds its budget.
      */
-    public static void executeScript(RequestContext rc, Path pathToScript)
+    public static void executeScript(RequestContext rc, Path pathToScript,
+            IIncludeLoader includeLoader, ExecutionBudget budget)
             throws IOException {
-        // create engine and execute it
-        String documentBody = SmartServerUtility.getDocumentText(
-                pathToScript.toString());
-        new SmartScriptEngine(
-                new SmartScriptParser(documentBody).getDocumentNode(),
-                rc).execute();
+        try (Reader reader = Files.newBufferedReader(pathToScript,
+                StandardCharsets.UTF_8)) {
+            SmartScriptEngine.execute(reader, rc, includeLoader, null, budget);
+        }
+    }
+
+    /**
+     * Executes the already parsed script. Handles output through the given
+     * context.
+     * 
+     * @param rc
+     *            context through which output is handled.
+     * @param documentNode
+     *            parsed script to be executed.
+     * @param parallelSections
+     *            true if independent top-level sections of script are
+     *            rendered in parallel.
+     * @param includeLoader
+     *            which gives documents included by the script.
+     * @throws IOException
+     *             if a problem occurs with writing the output of script to
+     *             given context.
+     */
+    public static void executeScript(RequestContext rc,
+            DocumentNode documentNode, boolean parallelSections,
+            IIncludeLoader includeLoader) throws IOException {
+        SmartScriptEngine engine = new SmartScriptEngine(documentNode, rc);
+        engine.setParallelSections(parallelSections);
+        engine.setIncludeLoader(includeLoader);
+        engine.execute();
     }
 
     /**
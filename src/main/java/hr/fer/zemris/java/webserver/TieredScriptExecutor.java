@@ -0,0 +1,321 @@
+package hr.fer.zemris.java.webserver;
+
+import hr.fer.zemris.java.custom.scripting.exec.ExecutionBudget;
+import hr.fer.zemris.java.custom.scripting.exec.ExecutionLimitException;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executes scripts in two tiers, so that only scripts which are used often
+ * are kept parsed in memory. A cold script is interpreted: it is parsed and
+ * executed section by section on every execution, and nothing of it is kept.
+ * The executor counts executions and loop iterations of every script, and
+ * once a script was executed {@code promotionThreshold} times, or its loops
+ * ran {@code iterationThreshold} times, the script is parsed into the script
+ * cache in the background. When parsing finishes the script is switched to
+ * the compiled tier at once, and later executions run the cached document.
+ * 
+ * <p>
+ * Scripts which are already in the script cache, for example because they
+ * were parsed when the server started, are compiled from the first execution.
+ * If a script cannot be parsed, it stays interpreted and is tried again after
+ * as many executions or iterations as the first time.
+ * 
+ * <p>
+ * A single executor is shared by the server and the worker reporting its
+ * statistics.
+ * 
+ * @author Erik Banek
+ */
+public class TieredScriptExecutor {
+    /**
+     * Statistics and tier of a single script.
+     * 
+     * @author Erik Banek
+     */
+    private static class Profile {
+        /** Number of executions. */
+        private LongAdder executions = new LongAdder();
+        /** Number of executed loop iterations. */
+        private LongAdder iterations = new LongAdder();
+        /** Number of executions from which the promotion is counted. */
+        private volatile long executionBase;
+        /** Number of iterations from which the promotion is counted. */
+        private volatile long iterationBase;
+        /** True once the script is executed from the script cache. */
+        private volatile boolean compiled;
+        /** True while the script is being parsed for promotion. */
+        private AtomicBoolean promoting = new AtomicBoolean();
+    }
+
+    /** Default number of executions after which a script is compiled. */
+    public static final int DEFAULT_PROMOTION_THRESHOLD = 2;
+    /** Default number of loop iterations after which a script is compiled. */
+    public static final long DEFAULT_ITERATION_THRESHOLD = 10000;
+    /** Executor shared by the server and its workers. */
+    private static final TieredScriptExecutor instance =
+            new TieredScriptExecutor(DEFAULT_PROMOTION_THRESHOLD,
+                    DEFAULT_ITERATION_THRESHOLD);
+
+    /**
+     * Gets the executor shared by the server and its workers.
+     * 
+     * @return shared executor.
+     */
+    public static TieredScriptExecutor getInstance() {
+        return instance;
+    }
+
+    /** Profiles of scripts mapped to paths of their files. */
+    private Map<Path, Profile> profiles = new ConcurrentHashMap<>();
+    /** Number of executions after which a script is compiled. */
+    private volatile int promotionThreshold;
+    /** Number of loop iterations after which a script is compiled. */
+    private volatile long iterationThreshold;
+    /** Number of executions of interpreted scripts. */
+    private LongAdder interpretedExecutions = new LongAdder();
+    /** Number of executions of compiled scripts. */
+    private LongAdder compiledExecutions = new LongAdder();
+    /** Number of scripts promoted to the compiled tier. */
+    private LongAdder promotions = new LongAdder();
+    /** Number of promotions which failed because a script was not valid. */
+    private LongAdder failedPromotions = new LongAdder();
+
+    /**
+     * Constructor.
+     * 
+     * @param promotionThreshold
+     *            number of executions after which a script is compiled, 0 if
+     *            scripts are compiled at once.
+     * @param iterationThreshold
+     *            number of loop iterations after which a script is compiled.
+     */
+    public TieredScriptExecutor(int promotionThreshold,
+            long iterationThreshold) {
+        setPromotionThreshold(promotionThreshold);
+        setIterationThreshold(iterationThreshold);
+    }
+
+    /**
+     * Removes the statistics of all scripts. Scripts in the script cache stay
+     * compiled.
+     */
+    public void clear() {
+        profiles.clear();
+    }
+
+    /**
+     * Executes the script in its current tier, and starts its promotion if it
+     * became hot.
+     * 
+     * @param rc
+     *            context through which output is handled.
+     * @param path
+     *            to the script.
+     * @param scriptCache
+     *            which holds compiled scripts, and gives included documents.
+     * @param parallelSections
+     *            true if independent top-level sections of a compiled script
+     *            are rendered in parallel.
+     * @param budget
+     *            which limits the execution, or null if it is not limited.
+     * @throws IOException
+     *             if a problem occurs with reading the script or writing to
+     *             context.
+     * @throws ExecutionLimitException
+     *             if the execution exceeds its budget.
+     */
+    public void execute(RequestContext rc, Path path, ScriptCache scriptCache,
+            boolean parallelSections, ExecutionBudget budget)
+            throws IOException {
+        Path file = path.toAbsolutePath().normalize();
+        Profile profile = profiles.computeIfAbsent(file, p -> new Profile());
+        profile.executions.increment();
+
+        if (!profile.compiled && (promotionThreshold == 0
+                || scriptCache.isCached(file))) {
+            profile.compiled = true;
+        }
+        if (profile.compiled) {
+            compiledExecutions.increment();
+            SmartScriptEngine engine = new SmartScriptEngine(
+                    scriptCache.get(file), rc);
+            engine.setParallelSections(parallelSections);
+            engine.setIncludeLoader(scriptCache);
+            engine.setIterationCounter(profile.iterations);
+            engine.setBudget(budget);
+            engine.execute();
+            return;
+        }
+
+        interpretedExecutions.increment();
+        try (Reader reader = Files.newBufferedReader(file,
+                StandardCharsets.UTF_8)) {
+            SmartScriptEngine.execute(reader, rc, scriptCache,
+                    profile.iterations, budget);
+        } finally {
+            if (profile.executions.sum() - profile.executionBase
+                    >= promotionThreshold
+                    || profile.iterations.sum() - profile.iterationBase
+                    >= iterationThreshold) {
+                promote(file, profile, scriptCache);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of executions of compiled scripts.
+     * 
+     * @return number of compiled executions.
+     */
+    public long getCompiledExecutions() {
+        return compiledExecutions.sum();
+    }
+
+    /**
+     * Gets the number of executions of the script.
+     * 
+     * @param path
+     *            to the script.
+     * @return number of executions, 0 if the script was not executed.
+     */
+    public long getExecutions(Path path) {
+        Profile profile = profiles.get(path.toAbsolutePath().normalize());
+        return profile == null ? 0 : profile.executions.sum();
+    }
+
+    /**
+     * Gets the number of promotions which failed because a script was not
+     * valid.
+     * 
+     * @return number of failed promotions.
+     */
+    public long getFailedPromotions() {
+        return failedPromotions.sum();
+    }
+
+    /**
+     * Gets the number of executions of interpreted scripts.
+     * 
+     * @return number of interpreted executions.
+     */
+    public long getInterpretedExecutions() {
+        return interpretedExecutions.sum();
+    }
+
+    /**
+     * Gets the number of loop iterations executed by the script.
+     * 
+     * @param path
+     *            to the script.
+     * @return number of iterations, 0 if the script was not executed.
+     */
+    public long getIterations(Path path) {
+        Profile profile = profiles.get(path.toAbsolutePath().normalize());
+        return profile == null ? 0 : profile.iterations.sum();
+    }
+
+    /**
+     * Gets the number of scripts promoted to the compiled tier.
+     * 
+     * @return number of promotions.
+     */
+    public long getPromotions() {
+        return promotions.sum();
+    }
+
+    /**
+     * Gets the paths of all executed scripts.
+     * 
+     * @return paths of scripts.
+     */
+    public Set<Path> getScripts() {
+        return profiles.keySet();
+    }
+
+    /**
+     * Checks if the script is executed from the script cache.
+     * 
+     * @param path
+     *            to the script.
+     * @return true if the script is in the compiled tier.
+     */
+    public boolean isCompiled(Path path) {
+        Profile profile = profiles.get(path.toAbsolutePath().normalize());
+        return profile != null && profile.compiled;
+    }
+
+    /**
+     * Parses the script into the script cache in the background, and switches
+     * it to the compiled tier when parsing is done. Nothing is done if the
+     * script is already being parsed.
+     * 
+     * @param path
+     *            to the script.
+     * @param profile
+     *            of the script.
+     * @param scriptCache
+     *            into which the script is parsed.
+     */
+    private void promote(Path path, Profile profile, ScriptCache scriptCache) {
+        if (!profile.promoting.compareAndSet(false, true)) {
+            return;
+        }
+        CompletableFuture.runAsync(() -> {
+            try {
+                scriptCache.get(path);
+                profile.compiled = true;
+                promotions.increment();
+            } catch (IOException | RuntimeException e) {
+                profile.executionBase = profile.executions.sum();
+                profile.iterationBase = profile.iterations.sum();
+                failedPromotions.increment();
+            } finally {
+                profile.promoting.set(false);
+            }
+        });
+    }
+
+    /**
+     * Sets the number of loop iterations after which a script is compiled.
+     * 
+     * @param iterationThreshold
+     *            number of iterations.
+     * @throws IllegalArgumentException
+     *             if the threshold is negative.
+     */
+    public void setIterationThreshold(long iterationThreshold) {
+        if (iterationThreshold < 0) {
+            throw new IllegalArgumentException(
+                    "Iteration threshold cannot be negative!");
+        }
+        this.iterationThreshold = iterationThreshold;
+    }
+
+    /**
+     * Sets the number of executions after which a script is compiled.
+     * 
+     * @param promotionThreshold
+     *            number of executions, 0 if scripts are compiled at once.
+     * @throws IllegalArgumentException
+     *             if the threshold is negative.
+     */
+    public void setPromotionThreshold(int promotionThreshold) {
+        if (promotionThreshold < 0) {
+            throw new IllegalArgumentException(
+                    "Promotion threshold cannot be negative!");
+        }
+        this.promotionThreshold = promotionThreshold;
+    }
+}
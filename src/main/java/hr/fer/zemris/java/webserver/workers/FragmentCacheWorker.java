@@ -0,0 +1,40 @@
+package hr.fer.zemris.java.webserver.workers;
+
+import hr.fer.zemris.java.custom.scripting.exec.FragmentCache;
+import hr.fer.zemris.java.webserver.IWebWorker;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+import java.io.IOException;
+
+/**
+ * Sends the client the statistics of the cache of script fragments. If the
+ * parameter "invalidate" is given, all fragments with its value as name are
+ * removed first, and if the parameter "clear" is given, the whole cache is
+ * emptied first.
+ * 
+ * @author Erik Banek
+ */
+public class FragmentCacheWorker implements IWebWorker {
+
+    @Override
+    public void processRequest(RequestContext context) throws IOException {
+        FragmentCache cache = FragmentCache.getInstance();
+        String invalidate = context.getParameter("invalidate");
+        if (invalidate != null) {
+            cache.invalidate(invalidate);
+        }
+        if (context.getParameter("clear") != null) {
+            cache.clear();
+        }
+
+        context.setMimeType("text/plain");
+        context.write("fragments: " + cache.size() + "\n");
+        context.write("bytes: " + cache.getBytes() + "\n");
+        context.write("maxBytes: " + cache.getMaxBytes() + "\n");
+        context.write("hits: " + cache.getHits() + "\n");
+        context.write("misses: " + cache.getMisses() + "\n");
+        context.write("hitRatio: " + cache.getHitRatio() + "\n");
+        context.write("evictions: " + cache.getEvictions() + "\n");
+    }
+
+}
@@ -0,0 +1,31 @@
+package hr.fer.zemris.java.webserver.workers;
+
+import hr.fer.zemris.java.custom.scripting.exec.functions.MemoizedFunction;
+import hr.fer.zemris.java.custom.scripting.exec.functions.SmartScriptFunctions;
+import hr.fer.zemris.java.webserver.IWebWorker;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+import java.io.IOException;
+import java.util.Map.Entry;
+
+/**
+ * Sends the client the capacity, hits and misses of every memoized script
+ * function.
+ * 
+ * @author Erik Banek
+ */
+public class FunctionMemoWorker implements IWebWorker {
+
+    @Override
+    public void processRequest(RequestContext context) throws IOException {
+        context.setMimeType("text/plain");
+        for (Entry<String, MemoizedFunction> entry : SmartScriptFunctions
+                .getMemoized().entrySet()) {
+            MemoizedFunction function = entry.getValue();
+            context.write(entry.getKey() + ": capacity "
+                    + function.getCapacity() + ", hits " + function.getHits()
+                    + ", misses " + function.getMisses() + "\n");
+        }
+    }
+
+}
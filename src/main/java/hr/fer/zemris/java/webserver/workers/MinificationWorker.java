@@ -0,0 +1,34 @@
+package hr.fer.zemris.java.webserver.workers;
+
+import hr.fer.zemris.java.webserver.IWebWorker;
+import hr.fer.zemris.java.webserver.MinificationReport;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.TreeSet;
+
+/**
+ * Sends the client the size of every minified file before and after
+ * minification, and the reduction in percents.
+ * 
+ * @author Erik Banek
+ */
+public class MinificationWorker implements IWebWorker {
+
+    @Override
+    public void processRequest(RequestContext context) throws IOException {
+        MinificationReport report = MinificationReport.getInstance();
+
+        context.setMimeType("text/plain");
+        for (Path path : new TreeSet<>(report.getFiles())) {
+            long original = report.getOriginalSize(path);
+            long minified = report.getMinifiedSize(path);
+            context.write(path + ": " + original + " -> " + minified
+                    + " bytes, reduced by "
+                    + (original == 0 ? 0 : 100 * (original - minified)
+                            / original) + "%\n");
+        }
+    }
+
+}
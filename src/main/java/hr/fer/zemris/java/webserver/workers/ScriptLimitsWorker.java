@@ -0,0 +1,35 @@
+package hr.fer.zemris.java.webserver.workers;
+
+import hr.fer.zemris.java.custom.scripting.exec.ExecutionBudget;
+import hr.fer.zemris.java.custom.scripting.exec.ExecutionLimitException.Reason;
+import hr.fer.zemris.java.webserver.IWebWorker;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+import java.io.IOException;
+
+/**
+ * Sends the client the number of running script executions, and the numbers
+ * of executions stopped for each reason. If the parameter "cancel" is given,
+ * all running executions are cancelled first.
+ * 
+ * @author Erik Banek
+ */
+public class ScriptLimitsWorker implements IWebWorker {
+
+    @Override
+    public void processRequest(RequestContext context) throws IOException {
+        int cancelled = 0;
+        if (context.getParameter("cancel") != null) {
+            cancelled = ExecutionBudget.cancelAll();
+        }
+
+        context.setMimeType("text/plain");
+        context.write("cancelled: " + cancelled + "\n");
+        context.write("running: " + ExecutionBudget.getRunning() + "\n");
+        for (Reason reason : Reason.values()) {
+            context.write("stopped " + reason.name().toLowerCase() + ": "
+                    + ExecutionBudget.getStopped(reason) + "\n");
+        }
+    }
+
+}
@@ -0,0 +1,40 @@
+package hr.fer.zemris.java.webserver.workers;
+
+import hr.fer.zemris.java.webserver.IWebWorker;
+import hr.fer.zemris.java.webserver.RequestContext;
+import hr.fer.zemris.java.webserver.TieredScriptExecutor;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.TreeSet;
+
+/**
+ * Sends the client the statistics of tiered execution of scripts: the totals,
+ * and then for every executed script its tier, number of executions and
+ * number of loop iterations.
+ * 
+ * @author Erik Banek
+ */
+public class ScriptTiersWorker implements IWebWorker {
+
+    @Override
+    public void processRequest(RequestContext context) throws IOException {
+        TieredScriptExecutor executor = TieredScriptExecutor.getInstance();
+
+        context.setMimeType("text/plain");
+        context.write("interpretedExecutions: "
+                + executor.getInterpretedExecutions() + "\n");
+        context.write("compiledExecutions: "
+                + executor.getCompiledExecutions() + "\n");
+        context.write("promotions: " + executor.getPromotions() + "\n");
+        context.write("failedPromotions: " + executor.getFailedPromotions()
+                + "\n");
+        for (Path path : new TreeSet<>(executor.getScripts())) {
+            context.write(path + ": "
+                    + (executor.isCompiled(path) ? "compiled" : "interpreted")
+                    + ", executions " + executor.getExecutions(path)
+                    + ", iterations " + executor.getIterations(path) + "\n");
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class FragmentCacheTest {
+
+    @Test
+    public void EvictionTest() {
+        FragmentCache cache = new FragmentCache(10);
+        cache.put("a", "a", new byte[4], 60000);
+        cache.put("b", "b", new byte[4], 60000);
+        cache.get("a");
+        cache.put("c", "c", new byte[4], 60000);
+        assertNull(cache.get("b"));
+        assertEquals(4, cache.get("a").length);
+        assertEquals(4, cache.get("c").length);
+        assertEquals(8, cache.getBytes());
+        assertEquals(1, cache.getEvictions());
+
+        cache.put("d", "d", new byte[11], 60000);
+        assertNull(cache.get("d"));
+        assertEquals(8, cache.getBytes());
+    }
+
+    @Test
+    public void ExpiryTest() {
+        FragmentCache cache = new FragmentCache(10);
+        cache.put("a", "a", new byte[4], 0);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void InvalidateTest() {
+        FragmentCache cache = new FragmentCache(100);
+        cache.put("a\0x", "a", new byte[] { 1 }, 60000);
+        cache.put("a\0y", "a", new byte[] { 2 }, 60000);
+        cache.put("b", "b", new byte[] { 3 }, 60000);
+        cache.invalidate("a");
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getBytes());
+        assertArrayEquals(new byte[] { 3 }, cache.get("b"));
+    }
+
+    @Test
+    public void StatisticsTest() {
+        FragmentCache cache = new FragmentCache(100);
+        assertEquals(0, cache.getHitRatio(), 0);
+        cache.get("a");
+        cache.put("a", "a", new byte[] { 1 }, 60000);
+        cache.get("a");
+        cache.get("a");
+        cache.get("a");
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.75, cache.getHitRatio(), 1e-9);
+    }
+}
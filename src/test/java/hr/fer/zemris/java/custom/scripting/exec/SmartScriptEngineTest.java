@@ -0,0 +1,576 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import hr.fer.zemris.java.custom.scripting.exec.ExecutionLimitException.Reason;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
+import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+import hr.fer.zemris.java.custom.scripting.parser.DocumentFreezer;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParserException;
+import hr.fer.zemris.java.custom.scripting.parser.TextMinifier;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SmartScriptEngineTest {
+    public static final String HEADER =
+            "HTTP/1.1 200 OK\nContent-Type: text/html; charset=UTF-8\n\n";
+
+    private static String execute(String script, Map<String, String> params,
+            Map<String, String> persistent, boolean parallelSections) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RequestContext rc = new RequestContext(out, params, persistent, null);
+        try {
+            SmartScriptEngine engine = new SmartScriptEngine(
+                    new SmartScriptParser(script).getDocumentNode(), rc);
+            engine.setParallelSections(parallelSections);
+            engine.execute();
+        } catch (IOException e) {
+        }
+        String s = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        return s.isEmpty() ? s : s.substring(HEADER.length());
+    }
+
+    private static String execute(String script, Map<String, String> params,
+            Map<String, String> persistent) {
+        return execute(script, params, persistent, false);
+    }
+
+    private static String execute(String script) {
+        return execute(script, null, null);
+    }
+
+    private static String executeIncluding(String script,
+            IIncludeLoader loader) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RequestContext rc = new RequestContext(out, null, null, null);
+        try {
+            SmartScriptEngine engine = new SmartScriptEngine(
+                    new SmartScriptParser(script).getDocumentNode(), rc);
+            engine.setIncludeLoader(loader);
+            engine.execute();
+        } catch (IOException e) {
+        }
+        String s = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        return s.isEmpty() ? s : s.substring(HEADER.length());
+    }
+
+    private static ExecutionLimitException executeLimited(String script,
+            ExecutionBudget budget, boolean streaming) {
+        RequestContext rc = new RequestContext(new ByteArrayOutputStream(),
+                null, null, null);
+        try {
+            if (streaming) {
+                SmartScriptEngine.execute(new StringReader(script), rc, null,
+                        null, budget);
+            } else {
+                SmartScriptEngine engine = new SmartScriptEngine(
+                        new SmartScriptParser(script).getDocumentNode(), rc);
+                engine.setBudget(budget);
+                engine.execute();
+            }
+        } catch (IOException e) {
+        } catch (ExecutionLimitException e) {
+            return e;
+        } finally {
+            budget.close();
+        }
+        return null;
+    }
+
+    private static String executeStreaming(String script) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RequestContext rc = new RequestContext(out, null, null, null);
+        try {
+            SmartScriptEngine.execute(new StringReader(script), rc);
+        } catch (IOException e) {
+        }
+        String s = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        return s.isEmpty() ? s : s.substring(HEADER.length());
+    }
+
+    @Test
+    public void ApplicationScopeTest() {
+        assertEquals("x-y", execute("{$= \"x\" \"appTest\" @gparamSet "
+                + "\"appTest\" 0 @gparamGet \"-\" \"appMissing\" \"y\" @gparamGet $}"));
+        assertEquals("x", ApplicationScope.getInstance()
+                .getParameter("appTest"));
+        execute("{$= \"appTest\" @gparamDel $}");
+        assertNull(ApplicationScope.getInstance().getParameter("appTest"));
+    }
+
+    @Test
+    public void ArithmeticTopIsFirstArgumentTest() {
+        assertEquals("3 5.0 2", execute("{$= 2 5 - \" \" 1 5.0 / \" \" 2 4 / $}"));
+    }
+
+    @Test
+    public void ArithmeticOnStringsTest() {
+        assertEquals("7 1.5", execute("{$= \"3\" \"4\" + \" \" \"0.5\" 1 + $}"));
+    }
+
+    @Test
+    public void CacheTagTest() {
+        String script = "{$ CACHE \"cacheTagTest\" 60 \"a\" $}"
+                + "{$= \"calls\" 0 @pparamGet 1 + \"calls\" @pparamSet "
+                + "\"a\" \"-\" @paramGet $}{$END$}";
+        Map<String, String> persistent = new HashMap<>();
+        Map<String, String> params = new HashMap<>();
+        params.put("a", "x");
+        assertEquals("x", execute(script, params, persistent));
+        assertEquals("x", execute(script, params, persistent));
+        // hits skip the body, so it was executed once
+        assertEquals("1", persistent.get("calls"));
+
+        params.put("a", "y");
+        assertEquals("y", execute(script, params, persistent));
+        assertEquals("2", persistent.get("calls"));
+
+        execute("{$= \"cacheTagTest\" @cacheInvalidate $}");
+        assertEquals("y", execute(script, params, persistent));
+        assertEquals("3", persistent.get("calls"));
+    }
+
+    @Test
+    public void CacheTagVariableTest() {
+        assertEquals("1:1 2:2 1:1 ",
+                execute("{$ FOR i 1 2 $}{$ CACHE \"cacheTagVariableTest\" 60 i $}"
+                        + "{$= i \":\" i \" \" $}{$END$}{$END$}"
+                        + "{$ CACHE \"cacheTagVariableTest\" 60 \"a\" $}"
+                        + "{$= 1 \":\" 1 \" \" $}{$END$}"));
+    }
+
+    @Test
+    public void DecfmtSinTest() {
+        assertEquals("0.000 -0.757",
+                execute("{$= 0 @sin \"0.000\" @decfmt \" \" 2 2 * @sin \"0.000\" @decfmt $}"));
+    }
+
+    @Test
+    public void CounterTest() throws InterruptedException {
+        String script = "{$ PFOR i 1 100 $}{$= 1 \"counterTest\" @counterAdd $}"
+                + "{$END$}";
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> execute(script));
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals("400 0", execute("{$= \"counterTest\" @counterGet \" \" "
+                + "\"counterMissing\" @counterGet $}"));
+    }
+
+    @Test
+    public void DecfmtBoundTest() {
+        Map<String, String> params = new HashMap<>();
+        params.put("f", "0.0#");
+        assertEquals("1.25 2.5 1.0 x",
+                execute("{$ FOR i 1 2 $}{$= i 1.25 * \"0.0#\" @decfmt \" \" $}"
+                        + "{$END$}{$= 1 \"f\" \"0\" @paramGet @decfmt \" x\" $}",
+                        params, null));
+        assertTrue(execute("{$= 1 \"0.0.0\" @decfmt $}").startsWith(
+                "Problem with executing script!"));
+    }
+
+    @Test
+    public void DupSwapTest() {
+        assertEquals("ba4", execute("{$= \"a\" \"b\" @swap 2 @dup + $}"));
+    }
+
+    @Test
+    public void ForLoopTest() {
+        assertEquals("1 2 3 ", execute("{$ FOR i 1 3 $}{$= i \" \" $}{$END$}"));
+        assertEquals("1 3 5 ", execute("{$ FOR i 1 6 2 $}{$= i \" \" $}{$END$}"));
+        assertEquals("1.1 3.1 5.1 ",
+                execute("{$ FOR i 1.1 6 2 $}{$= i \" \" $}{$END$}"));
+        assertEquals("", execute("{$ FOR i 3 1 $}{$= i $}{$END$}"));
+    }
+
+    @Test
+    public void FrozenDocumentTest() throws IOException {
+        String script =
+                "{$ FOR i 1 3 $}{$= i \" \" $}{$= i 2 * \" \" $}{$END$}";
+        DocumentNode documentNode = new SmartScriptParser(script)
+                .getDocumentNode();
+        assertEquals(1, DocumentFreezer.freeze(documentNode));
+        assertTrue(documentNode.getChild(0).isFrozen());
+        assertEquals(0, DocumentFreezer.freeze(documentNode));
+        EchoNode first = (EchoNode) documentNode.getChild(0).getChild(0);
+        EchoNode second = (EchoNode) documentNode.getChild(0).getChild(1);
+        assertSame(first.getTokens()[1], second.getTokens()[3]);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RequestContext rc = new RequestContext(out, null, null, null);
+        new SmartScriptEngine(documentNode, rc).execute();
+        assertEquals(HEADER + "1 2 2 4 3 6 ",
+                new String(out.toByteArray(), StandardCharsets.UTF_8));
+        try {
+            documentNode.addChildNode(new TextNode("x"));
+            fail();
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    @Test
+    public void IncludeTest() {
+        Map<String, String> documents = new HashMap<>();
+        documents.put("header.smscr",
+                "{$ FOR i 1 2 $}{$= i $}{$END$}{$= \"x\" \"t\" @tparamSet $}");
+        documents.put("footer.txt", "</body>");
+        documents.put("loop.smscr", "{$ INCLUDE \"loop.smscr\" $}");
+        IIncludeLoader loader = new IIncludeLoader() {
+            @Override
+            public byte[] getFile(String path) throws IOException {
+                if (!documents.containsKey(path)) {
+                    throw new IOException();
+                }
+                return documents.get(path).getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public DocumentNode getScript(String path) {
+                if (!path.endsWith(".smscr")) {
+                    return null;
+                }
+                return new SmartScriptParser(documents.get(path))
+                        .getDocumentNode();
+            }
+        };
+
+        assertEquals("5 12x5 </body>", executeIncluding("{$ FOR i 5 5 $}{$= i $} "
+                + "{$ INCLUDE \"header.smscr\" $}{$= \"t\" 0 @tparamGet i $} "
+                + "{$ INCLUDE \"footer.txt\" $}{$END$}", loader));
+        assertEquals("Cannot include missing.txt!", executeIncluding(
+                "{$ INCLUDE \"missing.txt\" $}", loader).split("\n")[0]);
+        assertEquals("Includes are nested too deeply!", executeIncluding(
+                "{$ INCLUDE \"loop.smscr\" $}", loader).split("\n")[0]);
+        assertEquals("Including is not supported!", executeIncluding(
+                "{$ INCLUDE \"footer.txt\" $}", null).split("\n")[0]);
+    }
+
+    @Test
+    public void ExecutionLimitsTest() {
+        ExecutionLimits limits = ExecutionLimits.parse("time=5 output=7",
+                new ExecutionLimits(1, 2, 3));
+        assertEquals(5, limits.getMaxTime());
+        assertEquals(2, limits.getMaxIterations());
+        assertEquals(7, limits.getMaxOutput());
+    }
+
+    @Test
+    public void IterationLimitTest() {
+        String loop = "{$ FOR i 1 10 $}{$ FOR j 1 10 $}{$END$}{$END$}";
+        assertNull(executeLimited(loop,
+                new ExecutionBudget(new ExecutionLimits(0, 110, 0)), false));
+        ExecutionLimitException e = executeLimited(loop,
+                new ExecutionBudget(new ExecutionLimits(0, 109, 0)), false);
+        assertEquals(Reason.ITERATIONS, e.getReason());
+        e = executeLimited(loop,
+                new ExecutionBudget(new ExecutionLimits(0, 50, 0)), true);
+        assertEquals(Reason.ITERATIONS, e.getReason());
+        e = executeLimited("{$ PFOR i 1 10 $}{$ FOR j 1 10 $}{$END$}{$END$}",
+                new ExecutionBudget(new ExecutionLimits(0, 50, 0)), false);
+        assertEquals(Reason.ITERATIONS, e.getReason());
+        // counted before any iteration runs
+        e = executeLimited("{$ PFOR i 1 2000000000 $}{$= i $}{$END$}",
+                new ExecutionBudget(new ExecutionLimits(0, 1000, 0)), false);
+        assertEquals(Reason.ITERATIONS, e.getReason());
+    }
+
+    @Test
+    public void OutputLimitTest() {
+        assertNull(executeLimited("abc{$= 12 $}",
+                new ExecutionBudget(new ExecutionLimits(0, 0, 5)), false));
+        ExecutionLimitException e = executeLimited("abc{$= 123 $}",
+                new ExecutionBudget(new ExecutionLimits(0, 0, 5)), false);
+        assertEquals(Reason.OUTPUT, e.getReason());
+    }
+
+    @Test
+    public void IncludeOutputLimitTest() throws IOException {
+        IIncludeLoader loader = new IIncludeLoader() {
+            @Override
+            public byte[] getFile(String path) {
+                return new byte[4];
+            }
+
+            @Override
+            public DocumentNode getScript(String path) {
+                return null;
+            }
+        };
+        ExecutionBudget budget = new ExecutionBudget(
+                new ExecutionLimits(0, 0, 10));
+        SmartScriptEngine engine = new SmartScriptEngine(new SmartScriptParser(
+                "{$ FOR i 1 3 $}{$ INCLUDE \"big.bin\" $}{$END$}")
+                .getDocumentNode(), new RequestContext(
+                new ByteArrayOutputStream(), null, null, null));
+        engine.setIncludeLoader(loader);
+        engine.setBudget(budget);
+        try {
+            engine.execute();
+            fail();
+        } catch (ExecutionLimitException e) {
+            assertEquals(Reason.OUTPUT, e.getReason());
+        } finally {
+            budget.close();
+        }
+    }
+
+    @Test
+    public void TimeLimitTest() {
+        long start = System.currentTimeMillis();
+        ExecutionLimitException e = executeLimited(
+                "{$ FOR i 1 100000000 $}{$= i $}{$END$}",
+                new ExecutionBudget(new ExecutionLimits(50, 0, 0)), false);
+        assertEquals(Reason.TIME, e.getReason());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void CancelledExecutionTest() {
+        ExecutionBudget budget = new ExecutionBudget(ExecutionLimits.NONE);
+        int running = ExecutionBudget.getRunning();
+        assertTrue(ExecutionBudget.cancelAll() >= 1);
+        ExecutionLimitException e = executeLimited(
+                "{$ FOR i 1 10 $}{$END$}", budget, false);
+        assertEquals(Reason.CANCELLED, e.getReason());
+        assertEquals(running - 1, ExecutionBudget.getRunning());
+    }
+
+    @Test
+    public void MinifyTest() throws IOException {
+        assertEquals("<p>\na b</p>\n<pre>  x\n\n  y</pre> "
+                + "<!--[if IE]> x  <![endif]-->",
+                TextMinifier.minify("<p>\n   a  <!-- c -->\tb</p>\n\n"
+                        + "<pre>  x\n\n  y</pre>  <!--[if IE]> x  <![endif]-->"));
+
+        String script = "<ul>\n  {$ FOR i 1 2 $}\n    <li>{$= i $}</li>\n"
+                + "  {$END$}\n</ul>\n<pre>\n  {$= \"a\" $}  </pre>\n"
+                + "<!-- {$= \"b\" $} -->";
+        DocumentNode documentNode = new SmartScriptParser(script)
+                .getDocumentNode();
+        assertEquals(8, TextMinifier.minify(documentNode));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RequestContext rc = new RequestContext(out, null, null, null);
+        new SmartScriptEngine(documentNode, rc).execute();
+        assertEquals(HEADER + "<ul>\n\n<li>1</li>\n\n<li>2</li>\n\n"
+                + "</ul>\n<pre>\n  a  </pre>\n<!-- b -->",
+                new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void LargeDocumentTest() {
+        StringBuilder script = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            script.append("line \\{$ {$= \"x\" ").append(i).append(" $}\n");
+            expected.append("line {$ x").append(i).append('\n');
+        }
+        assertEquals(expected.toString(), execute(script.toString()));
+    }
+
+    @Test
+    public void NestedForLoopTest() {
+        assertEquals("11 12 21 22 ",
+                execute("{$ FOR i 1 2 $}{$ FOR j 1 2 $}{$= i j \" \" $}{$END$}{$END$}"));
+        assertEquals("1:12 2:12 ",
+                execute("{$ FOR i 1 2 $}{$= i \":\" $}{$ FOR i 1 2 $}{$= i $}{$END$}{$= \" \" $}{$END$}"));
+    }
+
+    @Test
+    public void ParallelForLoopTest() {
+        StringBuilder expected = new StringBuilder();
+        for (int i = 1; i <= 500; i++) {
+            expected.append(i).append(":12 ");
+        }
+        assertEquals(expected.toString(),
+                execute("{$ PFOR i 1 500 $}{$= i \":\" $}{$ FOR j 1 2 $}{$= j $}"
+                        + "{$END$}{$= \" \" $}{$END$}"));
+        assertEquals("1.5 2.0 2.5 ",
+                execute("{$ PFOR i 1.5 2.5 0.5 $}{$= i \" \" $}{$END$}"));
+        assertEquals("", execute("{$ PFOR i 3 1 $}{$= i $}{$END$}"));
+        assertEquals(
+                "Step of parallel loop must be positive!\nError occured with executing script. Check URL parameters.",
+                execute("{$ PFOR i 1 3 0 $}{$= i $}{$END$}"));
+    }
+
+    @Test
+    public void ParallelForLoopParametersTest() {
+        Map<String, String> persistent = new HashMap<>();
+        persistent.put("calls", "3");
+        // iterations see parameters as they were before the loop, and the
+        // changes of the last iteration win
+        assertEquals("000 3 4",
+                execute("{$= 0 \"a\" @tparamSet $}{$ PFOR i 1 3 $}"
+                        + "{$= \"a\" \"x\" @tparamGet i \"a\" @tparamSet "
+                        + "\"calls\" 0 @pparamGet 1 + \"calls\" @pparamSet $}"
+                        + "{$END$}{$= \" \" \"a\" 0 @tparamGet \" \" "
+                        + "\"calls\" 0 @pparamGet $}", null, persistent));
+        assertEquals("4", persistent.get("calls"));
+
+        // more iterations than threads still see the parameters as they
+        // were before the loop
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            expected.append('0');
+        }
+        assertEquals(expected + " 100",
+                execute("{$= 0 \"a\" @tparamSet $}{$ PFOR i 1 100 $}"
+                        + "{$= \"a\" \"x\" @tparamGet i \"a\" @tparamSet $}"
+                        + "{$END$}{$= \" \" \"a\" 0 @tparamGet $}"));
+    }
+
+    @Test
+    public void ParallelSectionsTest() {
+        String[] scripts = {
+                "a{$ FOR i 1 300 $}{$= i $}{$END$}b{$ FOR i 1 3 $}{$= i i * $}{$END$}",
+                "{$ FOR i 1 3 $}{$= i \"x\" @tparamSet $}{$END$}-"
+                        + "{$ FOR i 1 3 $}{$= \"x\" 0 @tparamGet i + $}{$END$}-"
+                        + "{$= \"calls\" 0 @pparamGet 1 + \"calls\" @pparamSet $}"
+                        + "{$ FOR i 1 2 $}{$= \"calls\" 0 @pparamGet $}{$END$}",
+                "{$= \"text/plain\" @setMimeType $}{$ FOR i 1 2 $}{$= i $}{$END$}",
+                "{$ FOR i 1 2 $}{$= i $}{$END$}{$= x $}{$ FOR i 1 2 $}{$= i $}{$END$}" };
+        for (String script : scripts) {
+            Map<String, String> sequential = new HashMap<>();
+            Map<String, String> parallel = new HashMap<>();
+            assertEquals(execute(script, null, sequential, false),
+                    execute(script, null, parallel, true));
+            assertEquals(sequential, parallel);
+        }
+    }
+
+    @Test
+    public void ParallelSectionsErrorTest() {
+        String script = "{$= x $}{$ FOR i 1 20000 $}"
+                + "{$= 1 \"sectionsError\" @counterAdd $}{$END$}";
+        assertTrue(execute(script, null, null, true).startsWith(
+                "No such variable on stack!"));
+        // the later section was skipped or finished before the error
+        long counter = ApplicationScope.getInstance().getCounter(
+                "sectionsError");
+        assertTrue(counter == 0 || counter == 20000);
+    }
+
+    @Test
+    public void SectionGroupsTest() throws IOException {
+        DocumentNode documentNode = new SmartScriptParser(
+                "{$= \"text/plain\" @setMimeType $}a{$= 1 $}b"
+                        + "{$ FOR i 1 2 $}{$= i $}{$END$}c{$= 2 $}")
+                .getDocumentNode();
+        SectionAnalyzer.prepare(documentNode);
+        DocumentFreezer.freeze(documentNode);
+        int[][] groups = documentNode.getSectionGroups();
+        assertEquals(2, groups.length);
+        assertEquals("[0, 1]", Arrays.toString(groups[0]));
+        assertEquals("[1, 4, 5, 7]", Arrays.toString(groups[1]));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SmartScriptEngine engine = new SmartScriptEngine(documentNode,
+                new RequestContext(out, null, null, null));
+        engine.setParallelSections(true);
+        engine.execute();
+        assertTrue(new String(out.toByteArray(), StandardCharsets.UTF_8)
+                .endsWith("text/plain; charset=UTF-8\n\na1b12c2"));
+    }
+
+    @Test
+    public void ParametersTest() {
+        Map<String, String> params = new HashMap<>();
+        params.put("a", "4");
+        Map<String, String> persistent = new HashMap<>();
+        persistent.put("calls", "3");
+        assertEquals("6 x",
+                execute("{$= \"a\" 0 @paramGet 2 + \" \" \"b\" \"x\" @paramGet "
+                        + "\"calls\" \"1\" @pparamGet 1 + \"calls\" @pparamSet $}",
+                        params, persistent));
+        assertEquals("4", persistent.get("calls"));
+    }
+
+    @Test
+    public void PooledContextTest() {
+        DocumentNode documentNode = new SmartScriptParser(
+                "{$ FOR i 1 3 $}{$= i i * \" \" $}{$END$}").getDocumentNode();
+        Map<String, DocumentNode> scripts = new HashMap<>();
+        scripts.put("s", documentNode);
+        IIncludeLoader loader = new IIncludeLoader() {
+            @Override
+            public byte[] getFile(String path) {
+                return null;
+            }
+
+            @Override
+            public DocumentNode getScript(String path) {
+                return scripts.get(path);
+            }
+        };
+        String script = "{$ FOR j 1 2 $}{$ INCLUDE \"s\" $}{$= j $}{$END$}";
+        assertEquals("1 4 9 11 4 9 2", executeIncluding(script, loader));
+        long created = ExecutionContext.getCreated();
+        for (int i = 0; i < 10; i++) {
+            assertEquals("1 4 9 11 4 9 2", executeIncluding(script, loader));
+        }
+        // contexts of this thread are reused, nested ones included
+        assertEquals(created, ExecutionContext.getCreated());
+    }
+
+    @Test
+    public void StringEscapesTest() {
+        assertEquals("a\"$}\\q\n", execute("{$= \"a\\\"$}\\q\\n\" $}"));
+    }
+
+    @Test
+    public void StreamingTest() {
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            large.append("tekst \uD83D\uDE00 \\{$ {$= \"x$}\" ").append(i)
+                    .append(" $}{$ FOR i 1 2 $}{$= i $}{$END$}\n");
+        }
+        String[] scripts = {
+                large.toString(),
+                "a{$ FOR i 1 3 $}{$ FOR j 1 2 $}{$= i j $}{$END$}-{$END$}b",
+                "{$= 1 \"a\" @tparamSet $}x{$= \"a\" 0 @tparamGet $}",
+                "{$= 1 $}{$= x $}{$= 2 $}", "" };
+        for (String script : scripts) {
+            assertEquals(execute(script), executeStreaming(script));
+        }
+    }
+
+    @Test(expected = SmartScriptParserException.class)
+    public void StreamingUnclosedTagTest() {
+        executeStreaming("text {$ FOR i 1 2 $} more");
+    }
+
+    @Test
+    public void TemporaryParametersTest() {
+        assertEquals("15", execute("{$= 9 \"a\" @tparamSet "
+                + "\"a\" 0 @tparamGet 6 + \"a\" @tparamSet \"a\" 0 @tparamGet $}"));
+    }
+
+    @Test
+    public void TextTest() {
+        assertEquals("Čevapčići {$", execute("Čevapčići \\{$"));
+    }
+
+    @Test
+    public void UnknownVariableTest() {
+        assertEquals(
+                "No such variable on stack!\nError occured with executing script. Check URL parameters.",
+                execute("{$= x $}"));
+    }
+}
@@ -0,0 +1,100 @@
+package hr.fer.zemris.java.custom.scripting.exec.functions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
+import hr.fer.zemris.java.custom.scripting.exec.ValueStack;
+import hr.fer.zemris.java.custom.scripting.exec.ValueWrapper;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class MemoizedFunctionTest {
+    private static ISmartScriptFunction function(String name) {
+        return SmartScriptFunctions.getFunctions().get(name);
+    }
+
+    @Test
+    public void BindTest() {
+        MemoizedFunction decfmt = new MemoizedFunction(function("decfmt"), 8);
+        ISmartScriptFunction bound = decfmt.bind("0.00");
+        assertTrue(bound instanceof MemoizedFunction);
+        ValueStack stack = new ValueStack();
+        for (int i = 0; i < 2; i++) {
+            stack.push(1.005);
+            bound.apply(stack, null);
+            assertEquals("1.00", stack.popString());
+        }
+        assertEquals(1, ((MemoizedFunction) bound).getHits());
+        assertEquals(1, decfmt.getHits());
+    }
+
+    @Test
+    public void HitTest() {
+        MemoizedFunction sin = new MemoizedFunction(function("sin"), 4);
+        ValueStack stack = new ValueStack();
+        for (int i = 0; i < 3; i++) {
+            stack.push(1.0);
+            sin.apply(stack, null);
+            assertEquals(1, stack.size());
+            assertEquals(Math.sin(1.0), stack.popDouble(), 0);
+        }
+        assertEquals(2, sin.getHits());
+        assertEquals(1, sin.getMisses());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ImpureTest() {
+        assertFalse(function("pparamGet").isPure());
+        new MemoizedFunction(function("dup"), 4);
+    }
+
+    @Test
+    public void TableTest() throws IOException {
+        String script = "{$ FOR i 0 9 $}{$= i @sin \"0.00\" @decfmt $}{$END$}";
+        SmartScriptFunctions.memoize("sin=64");
+        try {
+            String first = null;
+            for (int i = 0; i < 2; i++) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                new SmartScriptEngine(new SmartScriptParser(script)
+                        .getDocumentNode(), new RequestContext(out, null, null,
+                        null)).execute();
+                String output = out.toString("UTF-8");
+                if (first == null) {
+                    first = output;
+                }
+                assertEquals(first, output);
+            }
+            MemoizedFunction sin = SmartScriptFunctions.getMemoized()
+                    .get("sin");
+            assertEquals(10, sin.getMisses());
+            assertEquals(10, sin.getHits());
+        } finally {
+            SmartScriptFunctions.memoize("sin", 0);
+        }
+        assertFalse(function("sin") instanceof MemoizedFunction);
+    }
+
+    @Test
+    public void TypesTest() {
+        MemoizedFunction add = new MemoizedFunction(function("+"), 16);
+        ValueStack stack = new ValueStack();
+        stack.push(1L);
+        stack.push(2L);
+        add.apply(stack, null);
+        assertEquals(ValueWrapper.TYPE_LONG, stack.getType(0));
+        assertEquals(3, stack.getLong(0));
+        stack.clear();
+        stack.push(1.0);
+        stack.push(2L);
+        add.apply(stack, null);
+        assertEquals(ValueWrapper.TYPE_DOUBLE, stack.getType(0));
+        assertEquals(0, add.getHits());
+    }
+}
@@ -0,0 +1,73 @@
+package hr.fer.zemris.java.custom.scripting.exec.functions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.text.DecimalFormat;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class NumberFormatsTest {
+    private static final String[] PATTERNS = { "0", "0.00", "#.##", "#",
+            ".00", ".##", "00.0#", "0.###", "000", "#,##0.00", "0.0E0",
+            "0.00%", "0.0;(0.0)" };
+
+    private static void assertSameAsDecimalFormat(String pattern,
+            double number) {
+        assertEquals(pattern + " " + number,
+                new DecimalFormat(pattern).format(number),
+                NumberFormats.get(pattern).format(number));
+    }
+
+    @Test
+    public void CachedTest() {
+        assertSame(NumberFormats.get("0.00"), NumberFormats.get("0.00"));
+    }
+
+    @Test
+    public void EdgeTest() {
+        double[] numbers = { 0, -0.0, 0.5, 1.5, 2.5, -2.5, 0.125, 0.375,
+                1.005, 0.045, -0.001, 0.001, 123456789.125, 1e14, 1e15, 1e300,
+                -1e-300, Double.NaN, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY };
+        for (String pattern : PATTERNS) {
+            for (double number : numbers) {
+                assertSameAsDecimalFormat(pattern, number);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void InvalidTest() {
+        NumberFormats.get("0.0.0");
+    }
+
+    @Test
+    public void RandomTest() {
+        Random random = new Random(42);
+        for (String pattern : PATTERNS) {
+            for (int i = 0; i < 20000; i++) {
+                double number;
+                switch (i % 4) {
+                case 0:
+                    number = (random.nextDouble() - 0.5) * 1000;
+                    break;
+                case 1:
+                    // ties and numbers close to them
+                    number = (random.nextInt(20000) - 10000) / 8.0
+                            + (random.nextInt(3) - 1) * 1e-12;
+                    break;
+                case 2:
+                    number = Math.round(random.nextDouble() * 1e6) / 1000.0
+                            + 0.0005;
+                    break;
+                default:
+                    number = random.nextGaussian()
+                            * Math.pow(10, random.nextInt(30) - 10);
+                }
+                assertSameAsDecimalFormat(pattern, number);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package hr.fer.zemris.java.custom.scripting.exec.functions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import hr.fer.zemris.java.custom.scripting.exec.SectionAnalyzer;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SmartScriptFunctionsTest {
+    private static String execute(DocumentNode documentNode)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SmartScriptEngine(documentNode, new RequestContext(out, null,
+                null, null)).execute();
+        String s = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        return s.substring(s.indexOf("\n\n") + 2);
+    }
+
+    @Test
+    public void FoldTest() throws IOException {
+        DocumentNode documentNode = new SmartScriptParser(
+                "{$ FOR i 1 3 $}{$= 2 1 + @square \" \" i @square \";\" $}"
+                        + "{$END$}").getDocumentNode();
+        TestFunctionProvider.squares.set(0);
+        assertEquals("9.0 1.0;9.0 4.0;9.0 9.0;", execute(documentNode));
+        // the constant call is folded once, the others run every time
+        assertEquals(4, TestFunctionProvider.squares.get());
+    }
+
+    @Test
+    public void MetadataTest() {
+        Map<String, ISmartScriptFunction> functions = SmartScriptFunctions
+                .getFunctions();
+        for (String name : Arrays.asList("sin", "decfmt", "dup", "swap",
+                "setMimeType", "paramGet", "pparamGet", "tparamSet",
+                "gparamDel", "counterAdd", "cacheInvalidate", "+")) {
+            assertTrue(name, functions.get(name).isThreadSafe());
+        }
+        assertEquals(0, functions.get("dup").getAccess());
+        assertFalse(functions.get("swap").usesContext());
+        assertTrue(functions.get("pparamGet").usesContext());
+        assertEquals(ISmartScriptFunction.WRITES_TEMPORARY, functions.get(
+                "tparamDel").getAccess());
+        assertEquals(0, SectionAnalyzer.analyze(new SmartScriptParser(
+                "{$= 1 @dup 2 @swap $}").getDocumentNode()));
+        assertEquals(SectionAnalyzer.READS_PERSISTENT
+                | SectionAnalyzer.WRITES_TEMPORARY | SectionAnalyzer.DYNAMIC,
+                SectionAnalyzer.analyze(new SmartScriptParser(
+                        "{$= \"0\" \"a\" @pparamGet \"b\" @tparamSet $}")
+                        .getDocumentNode()));
+        assertEquals(SectionAnalyzer.BARRIER | SectionAnalyzer.DYNAMIC,
+                SectionAnalyzer.analyze(new SmartScriptParser(
+                        "{$= \"a\" @cacheInvalidate $}").getDocumentNode()));
+    }
+
+    @Test
+    public void ProviderTest() throws IOException {
+        assertEquals("16.0", execute(new SmartScriptParser(
+                "{$= 4 @square $}").getDocumentNode()));
+        assertNotEquals("not the built-in", execute(new SmartScriptParser(
+                "{$= 1 @sin $}").getDocumentNode()));
+    }
+
+    @Test
+    public void ThreadSafetyTest() throws IOException {
+        DocumentNode documentNode = new SmartScriptParser(
+                "{$ PFOR i 10 13 $}{$= i @unsafe $}{$END$}").getDocumentNode();
+        assertEquals(SectionAnalyzer.BARRIER | SectionAnalyzer.NOT_THREAD_SAFE
+                | SectionAnalyzer.DYNAMIC, SectionAnalyzer.analyze(documentNode));
+        assertEquals(SectionAnalyzer.BARRIER | SectionAnalyzer.NOT_THREAD_SAFE
+                | SectionAnalyzer.DYNAMIC, ((ForLoopNode) documentNode
+                .getChild(0)).getUsageFlags());
+        assertEquals(0, SectionAnalyzer.analyze(new SmartScriptParser(
+                "{$= 1 @square 2 @sin $}").getDocumentNode()));
+        assertEquals("01112131", execute(documentNode));
+    }
+}
@@ -0,0 +1,47 @@
+package hr.fer.zemris.java.custom.scripting.exec.functions;
+
+import hr.fer.zemris.java.custom.scripting.exec.ValueStack;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestFunctionProvider implements ISmartScriptFunctionProvider {
+    public static final AtomicInteger squares = new AtomicInteger();
+
+    @Override
+    public Map<String, ISmartScriptFunction> getFunctions() {
+        Map<String, ISmartScriptFunction> map = new HashMap<>();
+        map.put("square", new AbstractSmartScriptFunction(1, true) {
+            @Override
+            public void apply(ValueStack stack, RequestContext rc) {
+                check(stack);
+                squares.incrementAndGet();
+                double d = stack.popDouble();
+                stack.push(d * d);
+            }
+        });
+        map.put("sin", new AbstractSmartScriptFunction(1, true) {
+            @Override
+            public void apply(ValueStack stack, RequestContext rc) {
+                stack.push("not the built-in");
+            }
+        });
+        map.put("unsafe", new ISmartScriptFunction() {
+            private StringBuilder sb = new StringBuilder();
+
+            @Override
+            public void apply(ValueStack stack, RequestContext rc) {
+                sb.setLength(0);
+                stack.push(sb.append(stack.popString()).reverse().toString());
+            }
+
+            @Override
+            public boolean usesContext() {
+                return false;
+            }
+        });
+        return map;
+    }
+}
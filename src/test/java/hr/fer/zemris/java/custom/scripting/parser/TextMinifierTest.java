@@ -0,0 +1,51 @@
+package hr.fer.zemris.java.custom.scripting.parser;
+
+import static org.junit.Assert.assertEquals;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+
+import org.junit.Test;
+
+public class TextMinifierTest {
+
+    @Test
+    public void AttributeValuesTest() {
+        assertEquals("<input value=\"a    b\" title='x\n\ny'>",
+                TextMinifier.minify("<input value=\"a    b\" title='x\n\ny'>"));
+        assertEquals("<input value=\"a  b\"\ndata-x='  '> c",
+                TextMinifier.minify("<input   value=\"a  b\"\n   "
+                        + "data-x='  '>   c"));
+        assertEquals("<a title=\"x > y\" href=\"#\">a b</a>",
+                TextMinifier.minify("<a title=\"x > y\" href=\"#\">a   b</a>"));
+    }
+
+    @Test
+    public void CommentsTest() {
+        assertEquals("a\nb", TextMinifier.minify("a <!-- x -->\n  b"));
+        assertEquals("<!--[if IE]>  x  <![endif]-->",
+                TextMinifier.minify("<!--[if IE]>  x  <![endif]-->"));
+    }
+
+    @Test
+    public void FragmentsTest() {
+        DocumentNode documentNode = new SmartScriptParser(
+                "<input value=\"  {$= \"x\" $}  \">   a   <pre>  "
+                        + "{$= 1 $}  </pre>   b").getDocumentNode();
+        TextMinifier.minify(documentNode);
+        assertEquals("<input value=\"  ",
+                ((TextNode) documentNode.getChild(0)).getText());
+        assertEquals("  \"> a <pre>  ",
+                ((TextNode) documentNode.getChild(2)).getText());
+        assertEquals("  </pre> b",
+                ((TextNode) documentNode.getChild(4)).getText());
+    }
+
+    @Test
+    public void TextTest() {
+        assertEquals("it's fine <b>x</b>\n",
+                TextMinifier.minify("it's   fine <b>x</b>\n\n"));
+        assertEquals("a < b c", TextMinifier.minify("a <  b   c"));
+        assertEquals("<PRE>  a\n\n  b</pre> c",
+                TextMinifier.minify("<PRE>  a\n\n  b</pre>   c"));
+    }
+}
@@ -1,6 +1,7 @@
 package hr.fer.zemris.java.webserver;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
@@ -11,6 +12,7 @@ import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -21,6 +23,24 @@ import org.junit.Test;
 public class RequestContextTest {
     public static final Charset defaultCharset = StandardCharsets.US_ASCII;
 
+    @Test
+    public void CharSequenceWriteTest() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RequestContext rc = new RequestContext(out, null, null, null);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append("č");
+        }
+        try {
+            rc.write(sb);
+            rc.write(new StringBuilder("a"));
+        } catch (IOException e) {
+        }
+        String s = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        assertEquals("HTTP/1.1 200 OK\nContent-Type: text/html; charset=UTF-8\n\n"
+                + sb + "a", s);
+    }
+
     @Test
     public void ContextSettingDefaultMimeTypeTest() {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
@@ -139,6 +159,34 @@ public class RequestContextTest {
                 s.trim());
     }
 
+    @Test
+    public void FragmentMergeTest() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Map<String, String> session = new HashMap<>();
+        session.put("a", "0");
+        session.put("b", "0");
+        RequestContext rc = new RequestContext(out, null, session, null);
+        RequestContext fragment = rc.createFragment(out);
+        // another request of the session changes b before the merge
+        session.put("b", "other");
+        fragment.setPersistentParameter("a", "1");
+        rc.mergeFragments(Collections.singletonList(fragment));
+        assertEquals("1", session.get("a"));
+        assertEquals("other", session.get("b"));
+
+        fragment = rc.createFragment(out);
+        fragment.setTemporaryParameter("x", "1");
+        fragment.removePersistentParameter("a");
+        fragment.restartFragment();
+        assertEquals(null, fragment.getTemporaryParameter("x"));
+        assertEquals("1", fragment.getPersistentParameter("a"));
+        fragment.setTemporaryParameter("y", "2");
+        rc.mergeFragments(Collections.singletonList(fragment));
+        assertEquals("1", rc.getTemporaryParameter("x"));
+        assertEquals("2", rc.getTemporaryParameter("y"));
+        assertFalse(session.containsKey("a"));
+    }
+
     @Test(expected = RuntimeException.class)
     public void IllegalCodeModification() {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
@@ -187,6 +235,12 @@ public class RequestContextTest {
         fail();
     }
 
+    @Test(expected = IllegalStateException.class)
+    public void IllegalFragmentRestart() {
+        new RequestContext(new ByteArrayOutputStream(), null, null, null)
+                .restartFragment();
+    }
+
     @Test(expected = RuntimeException.class)
     public void IllegalMessageModification() {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
@@ -240,6 +294,21 @@ public class RequestContextTest {
         assertTrue(rc.getPersistentParameterNames().isEmpty());
     }
 
+    @Test
+    public void PersistentParametersUsedTest() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RequestContext rc = new RequestContext(out, null, null, null);
+        rc.setTemporaryParameter("jao", "lao");
+        rc.getParameter("jao");
+        assertFalse(rc.isPersistentParametersUsed());
+
+        RequestContext fragment = rc.createFragment(out);
+        fragment.getPersistentParameter("jao");
+        assertFalse(rc.isPersistentParametersUsed());
+        rc.mergeFragments(Collections.singletonList(fragment));
+        assertTrue(rc.isPersistentParametersUsed());
+    }
+
     @Test
     public void PParametersTest() {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
@@ -274,6 +343,24 @@ public class RequestContextTest {
         set.add("nono");
     }
 
+    @Test
+    public void SliceWriteTest() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RequestContext rc = new RequestContext(out, null, null, null);
+        rc.setEncoding("US-ASCII");
+        assertEquals(StandardCharsets.US_ASCII, rc.getCharset());
+        byte[] data = "xxiloveuxx".getBytes(rc.getCharset());
+        try {
+            rc.write(data, 2, 6);
+        } catch (IOException e) {
+        }
+        String s = new String(out.toByteArray(), defaultCharset);
+        assertEquals(
+                "HTTP/1.1 200 OK\nContent-Type: text/html; charset=US-ASCII\n\niloveu",
+                s);
+        assertEquals(StandardCharsets.US_ASCII, rc.getCharset());
+    }
+
     @Test
     public void TParametersTest() {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
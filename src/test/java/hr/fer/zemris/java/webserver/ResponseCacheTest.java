@@ -0,0 +1,261 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ResponseCacheTest {
+
+    @Test
+    public void CoalescingTest() throws Exception {
+        ResponseCache cache = new ResponseCache();
+        cache.addRule("/a", 60000, 0, Collections.emptyList());
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        IResponseLoader loader = os -> {
+            loads.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+            }
+            os.write("HTTP/1.1 200 OK\n\nbody"
+                    .getBytes(StandardCharsets.US_ASCII));
+            return true;
+        };
+
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        Thread leader = new Thread(() -> {
+            try {
+                cache.write("/a", "/a", loader, loader, first,
+                        Collections.emptyList());
+            } catch (IOException e) {
+            }
+        });
+        leader.start();
+        started.await();
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        Thread follower = new Thread(() -> {
+            try {
+                cache.write("/a", "/a", loader, loader, second,
+                        Collections.emptyList());
+            } catch (IOException e) {
+            }
+        });
+        follower.start();
+        Thread.sleep(50);
+        release.countDown();
+        leader.join();
+        follower.join();
+
+        assertEquals(1, loads.get());
+        assertEquals("HTTP/1.1 200 OK\n\nbody",
+                new String(second.toByteArray(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void CoalescingTimeoutTest() throws Exception {
+        ResponseCache cache = new ResponseCache();
+        cache.addRule("/a", 60000, 0, Collections.emptyList());
+        cache.setCoalescingTimeout(10);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        IResponseLoader blocked = os -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+            }
+            return false;
+        };
+        Thread leader = new Thread(() -> {
+            try {
+                cache.write("/a", "/a", blocked, blocked,
+                        new ByteArrayOutputStream(), Collections.emptyList());
+            } catch (IOException e) {
+            }
+        });
+        leader.start();
+        started.await();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IResponseLoader own = os -> {
+            os.write("HTTP/1.1 200 OK\n\nown"
+                    .getBytes(StandardCharsets.US_ASCII));
+            return false;
+        };
+        cache.write("/a", "/a", own, own, out, Collections.emptyList());
+        release.countDown();
+        leader.join();
+        assertEquals("HTTP/1.1 200 OK\n\nown",
+                new String(out.toByteArray(), StandardCharsets.US_ASCII));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void CoalescingInterruptTest() throws Exception {
+        ResponseCache cache = new ResponseCache();
+        cache.addRule("/a", 60000, 0, Collections.emptyList());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        IResponseLoader blocked = os -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+            }
+            return false;
+        };
+        Thread leader = new Thread(() -> {
+            try {
+                cache.write("/a", "/a", blocked, blocked,
+                        new ByteArrayOutputStream(), Collections.emptyList());
+            } catch (IOException e) {
+            }
+        });
+        leader.start();
+        started.await();
+        AtomicInteger loads = new AtomicInteger();
+        IResponseLoader own = os -> {
+            loads.incrementAndGet();
+            return false;
+        };
+        Thread.currentThread().interrupt();
+        try {
+            cache.write("/a", "/a", own, own, new ByteArrayOutputStream(),
+                    Collections.emptyList());
+            fail();
+        } catch (InterruptedIOException e) {
+            assertTrue(Thread.interrupted());
+        } finally {
+            release.countDown();
+        }
+        leader.join();
+        assertEquals(0, loads.get());
+    }
+
+    @Test
+    public void CookiesAddedTest() throws IOException {
+        ResponseCache cache = new ResponseCache();
+        cache.addRule("/a", 60000, 0, Collections.emptyList());
+        cache.put("/a", "/a", "HTTP/1.1 200 OK\nContent-Type: text/plain\n\nbody"
+                .getBytes(StandardCharsets.US_ASCII));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<RCCookie> cookies = Collections.singletonList(new RCCookie(
+                "sid", "ABC", null, null, "/"));
+        assertTrue(cache.write("/a", out, cookies));
+        assertEquals("HTTP/1.1 200 OK\nContent-Type: text/plain\n"
+                + "Set-cookie: sid:\"ABC\"; Path=/; Http-Only\n\nbody",
+                new String(out.toByteArray(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void ExpiryTest() throws IOException {
+        ResponseCache cache = new ResponseCache();
+        cache.addRule("/a", 1, 0, Collections.emptyList());
+        cache.put("/a", "/a", "HTTP/1.1 200 OK\n\n"
+                .getBytes(StandardCharsets.US_ASCII));
+        try {
+            Thread.sleep(5);
+        } catch (InterruptedException e) {
+        }
+        assertFalse(cache.write("/a", new ByteArrayOutputStream(),
+                Collections.emptyList()));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void KeyTest() {
+        ResponseCache cache = new ResponseCache();
+        cache.addRule("/scripts/*.smscr", 60000, 0,
+                Arrays.asList("Accept-Language"));
+        Map<String, String> params = new HashMap<>();
+        params.put("b", "2");
+        params.put("a", "1");
+        List<String> request = Arrays.asList("GET / HTTP/1.1",
+                "accept-language: hr");
+        assertEquals("/scripts/summation.smscr?a=1&b=2\0hr",
+                cache.getKey("/scripts/summation.smscr", params, request));
+
+        // separators inside names and values do not make keys equal
+        Map<String, String> joined = new HashMap<>();
+        joined.put("a", "1&b=2");
+        assertEquals("/scripts/summation.smscr?a=1%26b%3d2\0hr",
+                cache.getKey("/scripts/summation.smscr", joined, request));
+        Map<String, String> encoded = new HashMap<>();
+        encoded.put("a", "1%26b%3D2");
+        assertEquals("/scripts/summation.smscr?a=1%2526b%253D2\0hr",
+                cache.getKey("/scripts/summation.smscr", encoded, request));
+        assertEquals("/scripts/summation.smscr?a=1&b=2\0hr%00x",
+                cache.getKey("/scripts/summation.smscr", params,
+                        Arrays.asList("Accept-Language: hr\0x")));
+        assertNull(cache.getKey("/scripts/summation.txt", params, request));
+        assertNull(cache.getKey("/index.html", params, request));
+    }
+
+    @Test
+    public void LongestRuleTest() {
+        ResponseCache cache = new ResponseCache();
+        cache.addRule("*", 60000, 0, Collections.emptyList());
+        cache.addRule("/scripts/*", 60000, 0, Arrays.asList("Host"));
+        List<String> request = Arrays.asList("Host: localhost");
+        assertEquals("/scripts/a\0localhost", cache.getKey("/scripts/a",
+                Collections.emptyMap(), request));
+        assertEquals("/a", cache.getKey("/a", Collections.emptyMap(),
+                request));
+    }
+
+    @Test
+    public void StaleWhileRevalidateTest() throws Exception {
+        ResponseCache cache = new ResponseCache();
+        cache.addRule("/a", 1, 60000, Collections.emptyList());
+        cache.put("/a", "/a", "HTTP/1.1 200 OK\n\nold"
+                .getBytes(StandardCharsets.US_ASCII));
+        Thread.sleep(5);
+        CountDownLatch refreshed = new CountDownLatch(1);
+        AtomicInteger requestLoads = new AtomicInteger();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cache.write("/a", "/a", os -> {
+            requestLoads.incrementAndGet();
+            return false;
+        }, os -> {
+            os.write("HTTP/1.1 200 OK\n\nnew"
+                    .getBytes(StandardCharsets.US_ASCII));
+            refreshed.countDown();
+            return true;
+        }, out, Collections.emptyList());
+        assertEquals("HTTP/1.1 200 OK\n\nold",
+                new String(out.toByteArray(), StandardCharsets.US_ASCII));
+        assertTrue(refreshed.await(5, TimeUnit.SECONDS));
+        assertEquals(0, requestLoads.get());
+    }
+
+    @Test
+    public void MissTest() throws IOException {
+        ResponseCache cache = new ResponseCache();
+        cache.addRule("/a", 60000, 0, Collections.emptyList());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertFalse(cache.write("/a", out, Collections.emptyList()));
+        cache.put("/a", "/a", new byte[0]);
+        assertFalse(cache.write("/a", out, Collections.emptyList()));
+        assertEquals(0, out.size());
+    }
+}
@@ -0,0 +1,140 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ICallSites;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ScriptCacheTest {
+
+    private static String execute(ScriptCache cache, DocumentNode script)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RequestContext rc = new RequestContext(out, null, null, null);
+        SmartScriptEngine engine = new SmartScriptEngine(script, rc);
+        engine.setIncludeLoader(cache);
+        engine.execute();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void write(Path path, String text, long time)
+            throws IOException {
+        Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(path, FileTime.fromMillis(time));
+    }
+
+    @Test
+    public void DiskCacheTest() throws IOException {
+        Path root = Files.createTempDirectory("scriptCache");
+        Path folder = root.resolve("cache");
+        write(root.resolve("a.smscr"), "\\{x "
+                + "{$ FOR i 1 3 1 $}{$= i 2.5 * \" \\\"q\\\"\" $}"
+                + "{$ FOR i 4 5 $}{$= i $}{$END$}{$END$}"
+                + "{$ PFOR j 1 2 $}{$= j \"j\" @tparamGet $}{$END$}"
+                + "{$ CACHE \"diskCacheTest\" 0 $}č{$END$}"
+                + "{$ INCLUDE \"b.txt\" $}", 1000);
+        write(root.resolve("b.txt"), "b", 1000);
+
+        ScriptDiskCache first = new ScriptDiskCache(folder);
+        ScriptCache cache = new ScriptCache(root);
+        cache.setDiskCache(first);
+        String expected = execute(cache, cache.get(root.resolve("a.smscr")));
+        assertEquals(1, first.getMisses());
+        assertTrue(expected.endsWith("{x 2.5 \"q\"455.0 \"q\"457.5 \"q\"45"
+                + "jjčb"));
+
+        ScriptDiskCache second = new ScriptDiskCache(folder);
+        ScriptCache restarted = new ScriptCache(root);
+        restarted.setDiskCache(second);
+        DocumentNode script = restarted.get(root.resolve("a.smscr"));
+        assertEquals(1, second.getHits());
+        assertEquals(0, second.getMisses());
+        assertEquals(expected, execute(restarted, script));
+
+        write(root.resolve("a.smscr"), "{$= 1 $}", 2000);
+        restarted.get(root.resolve("a.smscr"));
+        assertEquals(1, second.getMisses());
+    }
+
+    @Test
+    public void IncludedFileTest() throws IOException {
+        Path root = Files.createTempDirectory("scriptCache");
+        write(root.resolve("footer.txt"), "</body>", 1000);
+        ScriptCache cache = new ScriptCache(root);
+        byte[] bytes = cache.getFile("/footer.txt");
+        assertArrayEquals("</body>".getBytes(StandardCharsets.UTF_8), bytes);
+        assertSame(bytes, cache.getFile("footer.txt"));
+        assertNull(cache.getScript("/footer.txt"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void LinkedCallSitesTest() throws IOException {
+        Path root = Files.createTempDirectory("scriptCache");
+        write(root.resolve("a.smscr"), "{$= \"a\" 1 2 + $}", 1000);
+        ScriptCache cache = new ScriptCache(root);
+        EchoNode echo = (EchoNode) cache.getScript("/a.smscr").getChild(0);
+        ICallSites callSites = echo.getCallSites();
+        assertNotNull(callSites);
+        assertFalse(callSites.isSkipped(0));
+        assertTrue(callSites.isSkipped(1));
+        echo.setCallSites(null);
+    }
+
+    @Test(expected = IOException.class)
+    public void OutsideRootTest() throws IOException {
+        Path root = Files.createTempDirectory("scriptCache");
+        new ScriptCache(root).getFile("../outside.txt");
+    }
+
+    @Test
+    public void PreloadTest() throws IOException {
+        Path root = Files.createTempDirectory("scriptCache");
+        Files.createDirectory(root.resolve("scripts"));
+        write(root.resolve("scripts/valid.smscr"), "{$= 1 $}", 1000);
+        write(root.resolve("scripts/large.smscr"), "{$= 1 $}    ", 1000);
+        write(root.resolve("invalid.smscr"), "{$FOR i$}", 1000);
+        write(root.resolve("text.txt"), "{$ FOR i 1 $}", 1000);
+        ScriptCache cache = new ScriptCache(root);
+        Map<Path, String> failures = cache.preload(root, 10);
+        assertEquals(1, failures.size());
+        assertTrue(failures.containsKey(root.resolve("invalid.smscr")));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void TransitiveInvalidationTest() throws IOException {
+        Path root = Files.createTempDirectory("scriptCache");
+        write(root.resolve("a.smscr"), "{$ INCLUDE \"/b.smscr\" $}", 1000);
+        write(root.resolve("b.smscr"), "{$ INCLUDE \"c.txt\" $}", 1000);
+        write(root.resolve("c.txt"), "c", 1000);
+        ScriptCache cache = new ScriptCache(root);
+        DocumentNode a = cache.get(root.resolve("a.smscr"));
+        DocumentNode b = cache.getScript("b.smscr");
+        cache.getFile("c.txt");
+        assertSame(a, cache.get(root.resolve("a.smscr")));
+        assertSame(b, cache.getScript("/b.smscr"));
+
+        write(root.resolve("c.txt"), "cc", 2000);
+        cache.getFile("c.txt");
+        assertNotSame(b, cache.getScript("b.smscr"));
+        assertNotSame(a, cache.get(root.resolve("a.smscr")));
+    }
+}
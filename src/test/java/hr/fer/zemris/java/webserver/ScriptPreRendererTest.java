@@ -0,0 +1,117 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import hr.fer.zemris.java.webserver.ScriptPreRenderer.Result;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class ScriptPreRendererTest {
+
+    private static String read(Path path) throws IOException {
+        return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    }
+
+    private static void write(Path path, String text) throws IOException {
+        Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, String> mimeTypes() {
+        Map<String, String> mimeTypes = new HashMap<>();
+        mimeTypes.put("html", "text/html");
+        return mimeTypes;
+    }
+
+    @Test
+    public void CollisionTest() throws IOException {
+        Path root = Files.createTempDirectory("preRender");
+        write(root.resolve("a.smscr"), "{$= \"a\" \"\" @paramGet \"b\" \"\" "
+                + "@paramGet $}");
+
+        ScriptPreRenderer renderer = new ScriptPreRenderer(root, mimeTypes());
+        renderer.addJobs("/a.smscr", "b=4.5 b=4_5 a=1_b-2 a=1&b=2 b=4.5");
+        List<Result> results = renderer.render(new ForkJoinPool(2));
+
+        assertEquals("4.5", read(root.resolve("a_b-4%2E5.html")));
+        assertEquals("4_5", read(root.resolve("a_b-4%5F5.html")));
+        assertEquals("1_b-2", read(root.resolve("a_a-1%5Fb%2D2.html")));
+        assertEquals("12", read(root.resolve("a_a-1_b-2.html")));
+        for (int i = 0; i < 4; i++) {
+            assertNull(results.get(i).getError());
+        }
+        assertNull(results.get(4).getFile());
+        assertNotNull(results.get(4).getError());
+    }
+
+    @Test
+    public void ForeignFileTest() throws IOException {
+        Path root = Files.createTempDirectory("preRender");
+        write(root.resolve("k.smscr"), "{$= \"rendered\" $}");
+        write(root.resolve("k.html"), "written by hand");
+
+        ScriptPreRenderer renderer = new ScriptPreRenderer(root, mimeTypes());
+        assertEquals(1, renderer.addStaticScripts());
+        List<Result> results = renderer.render(new ForkJoinPool(2));
+        assertNull(results.get(0).getFile());
+        assertNotNull(results.get(0).getError());
+        assertEquals("written by hand", read(root.resolve("k.html")));
+
+        Files.delete(root.resolve("k.html"));
+        renderer = new ScriptPreRenderer(root, mimeTypes());
+        renderer.addStaticScripts();
+        renderer.render(new ForkJoinPool(2));
+        write(root.resolve("k.smscr"), "{$= \"again\" $}");
+        renderer = new ScriptPreRenderer(root, mimeTypes());
+        renderer.addStaticScripts();
+        results = renderer.render(new ForkJoinPool(2));
+        assertNull(results.get(0).getError());
+        assertEquals("again", read(root.resolve("k.html")));
+    }
+
+    @Test
+    public void PreRenderTest() throws IOException {
+        Path root = Files.createTempDirectory("preRender");
+        Files.createDirectory(root.resolve("s"));
+        write(root.resolve("s/static.smscr"), "{$= \"text/plain\" @setMimeType "
+                + "\"1\" \"a\" @tparamSet $}{$ FOR i 1 3 $}{$= i $}{$END$}"
+                + "{$= \"a\" 0 @tparamGet 2 @sin \"0.0\" @decfmt $}");
+        write(root.resolve("s/sum.smscr"),
+                "{$= \"a\" 0 @paramGet \"b\" 0 @paramGet + $}");
+        write(root.resolve("s/counter.smscr"),
+                "{$= 1 \"preRender\" @counterAdd $}");
+        write(root.resolve("s/session.smscr"),
+                "{$= \"x\" \"a\" @pparamSet $}");
+
+        Map<String, String> mimeTypes = new HashMap<>();
+        mimeTypes.put("htm", "text/html");
+        mimeTypes.put("html", "text/html");
+        mimeTypes.put("txt", "text/plain");
+        ScriptPreRenderer renderer = new ScriptPreRenderer(root, mimeTypes);
+        renderer.addJobs("/s/sum.smscr", "a=1&b=2 b=4.5");
+        renderer.addJob("s/session.smscr", new HashMap<>());
+        assertEquals(1, renderer.addStaticScripts());
+        List<Result> results = renderer.render(new ForkJoinPool(2));
+
+        assertEquals(4, results.size());
+        assertEquals("/s/sum.smscr?a=1&b=2", results.get(0).getRequest());
+        assertEquals("3", read(root.resolve("s/sum_a-1_b-2.html")));
+        assertEquals("4.5", read(root.resolve("s/sum_b-4%2E5.html")));
+        assertNull(results.get(2).getFile());
+        assertFalse(Files.exists(root.resolve("s/session.html")));
+        assertEquals("/s/static.smscr", results.get(3).getRequest());
+        assertEquals(root.resolve("s/static.txt"), results.get(3).getFile());
+        assertEquals("12310.9", read(root.resolve("s/static.txt")));
+        assertEquals(7, results.get(3).getSize());
+    }
+}
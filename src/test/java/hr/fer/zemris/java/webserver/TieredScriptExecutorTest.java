@@ -0,0 +1,104 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParserException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+public class TieredScriptExecutorTest {
+    private static final String SCRIPT =
+            "{$ FOR i 1 3 $}{$= i $}{$ PFOR j 1 2 $}{$= j $}{$END$}{$END$}";
+
+    private static String execute(TieredScriptExecutor executor,
+            ScriptCache cache, Path path) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RequestContext rc = new RequestContext(out, null, null, null);
+        executor.execute(rc, path, cache, false, null);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static Path script(String text) throws IOException {
+        Path root = Files.createTempDirectory("tiered");
+        Path path = root.resolve("a.smscr");
+        Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    private static void waitForPromotion(TieredScriptExecutor executor,
+            Path path) throws InterruptedException {
+        for (int i = 0; i < 500 && !executor.isCompiled(path); i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void PromotionAfterExecutionsTest() throws Exception {
+        Path path = script(SCRIPT);
+        ScriptCache cache = new ScriptCache(path.getParent());
+        TieredScriptExecutor executor = new TieredScriptExecutor(2, 1000);
+
+        String expected = execute(executor, cache, path);
+        assertTrue(expected.endsWith("112212312"));
+        assertFalse(executor.isCompiled(path));
+        assertEquals(expected, execute(executor, cache, path));
+        assertEquals(2, executor.getInterpretedExecutions());
+        assertEquals(18, executor.getIterations(path));
+
+        waitForPromotion(executor, path);
+        assertTrue(executor.isCompiled(path));
+        assertTrue(cache.isCached(path));
+        assertEquals(expected, execute(executor, cache, path));
+        assertEquals(1, executor.getCompiledExecutions());
+        assertEquals(1, executor.getPromotions());
+        assertEquals(3, executor.getExecutions(path));
+        assertEquals(27, executor.getIterations(path));
+    }
+
+    @Test
+    public void PromotionAfterIterationsTest() throws Exception {
+        Path path = script(SCRIPT);
+        ScriptCache cache = new ScriptCache(path.getParent());
+        TieredScriptExecutor executor = new TieredScriptExecutor(100, 5);
+
+        execute(executor, cache, path);
+        waitForPromotion(executor, path);
+        assertTrue(executor.isCompiled(path));
+    }
+
+    @Test
+    public void CachedScriptIsCompiledTest() throws Exception {
+        Path path = script(SCRIPT);
+        ScriptCache cache = new ScriptCache(path.getParent());
+        cache.get(path);
+        TieredScriptExecutor executor = new TieredScriptExecutor(100, 1000);
+
+        execute(executor, cache, path);
+        assertTrue(executor.isCompiled(path));
+        assertEquals(0, executor.getInterpretedExecutions());
+    }
+
+    @Test
+    public void FailedPromotionTest() throws Exception {
+        Path path = script("a{$ FOR i 1 $}");
+        ScriptCache cache = new ScriptCache(path.getParent());
+        TieredScriptExecutor executor = new TieredScriptExecutor(1, 1000);
+
+        try {
+            execute(executor, cache, path);
+        } catch (SmartScriptParserException expected) {
+        }
+        for (int i = 0; i < 500 && executor.getFailedPromotions() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, executor.getFailedPromotions());
+        assertFalse(executor.isCompiled(path));
+    }
+}